@@ -0,0 +1,109 @@
+package de.uniluebeck.itm.eventstore;
+
+import net.openhft.lang.io.ByteBufferBytes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * A small memory mapped file {@code <base path>.signal} through which the writer of an event store announces the
+ * excerpts it appended to readers in other processes. The writer publishes the number of excerpts by an ordered
+ * write after appending, so a reader which sees the new number also sees the excerpts, and readers only have to
+ * compare a single long instead of scanning the index of the chronicle for new excerpts.
+ * <p/>
+ * The generation is incremented whenever a writer opens the store, which may have added classes to the mapping of
+ * the serializers. The file is closed right after mapping it, the mapping stays valid until it is garbage collected.
+ */
+class AppendSignal {
+
+    static final int SIZE = 64;
+
+    private static final int MAGIC = 0x45535347;
+
+    private static final int VERSION = 1;
+
+    private static final int PUBLISHED_OFFSET = 8;
+
+    private static final int GENERATION_OFFSET = 16;
+
+    private final ByteBufferBytes bytes;
+
+    private AppendSignal(ByteBufferBytes bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Opens or creates the signal of a writer and increments its generation
+     *
+     * @param basePath the base path of the event store
+     * @param size     the number of excerpts of the chronicle
+     */
+    static AppendSignal create(String basePath, long size) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path(basePath), "rw");
+        try {
+            AppendSignal signal = new AppendSignal(new ByteBufferBytes(
+                    file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE)));
+            signal.publish(size);
+            signal.bytes.writeOrderedLong(GENERATION_OFFSET, signal.generation() + 1);
+            signal.bytes.writeOrderedInt(4, VERSION);
+            signal.bytes.writeOrderedInt(0, MAGIC);
+            return signal;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Opens the signal of a store for reading
+     *
+     * @param basePath the base path of the event store
+     * @return the signal or null if no writer created it yet
+     * @throws IOException if the file is written by a newer version
+     */
+    static AppendSignal openIfExists(String basePath) throws IOException {
+        File path = path(basePath);
+        if (!path.exists() || path.length() < SIZE) {
+            return null;
+        }
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            ByteBufferBytes bytes = new ByteBufferBytes(file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, SIZE));
+            if (bytes.readVolatileInt(0) != MAGIC) {
+                return null;
+            }
+            if (bytes.readInt(4) > VERSION) {
+                throw new IOException("The append signal " + path + " was written by a newer version");
+            }
+            return new AppendSignal(bytes);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static File path(String basePath) {
+        return new File(basePath + ".signal");
+    }
+
+    /**
+     * Publishes the number of excerpts after appending
+     */
+    void publish(long size) {
+        bytes.writeOrderedLong(PUBLISHED_OFFSET, size);
+    }
+
+    /**
+     * @return the number of excerpts published by the writer
+     */
+    long published() {
+        return bytes.readVolatileLong(PUBLISHED_OFFSET);
+    }
+
+    /**
+     * @return the number of times a writer opened the store
+     */
+    long generation() {
+        return bytes.readVolatileLong(GENERATION_OFFSET);
+    }
+}
@@ -0,0 +1,133 @@
+package de.uniluebeck.itm.eventstore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits for events appended to an event store by a writer in another process, e.g. in an indexer which opened the
+ * store with {@link EventStoreFactory#inReadOnlyMode(boolean)}. Read only stores pick up the appended events on
+ * their own when they are queried; the watcher tells when querying them again is worthwhile, so that readers don't
+ * have to poll the store and scan it for new events.
+ * <p/>
+ * The writer announces appended events through a small memory mapped file next to the chronicle, which the watcher
+ * checks without any system call. It spins briefly and then parks for growing intervals of at most
+ * {@link #MAX_PARK_NANOS}, which bounds the latency of a notification after the writer was idle for a while.
+ */
+public class AppendWatcher {
+
+    /**
+     * The time spent spinning before parking the waiting thread
+     */
+    static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /**
+     * The maximum time the waiting thread is parked before checking for appended events again
+     */
+    static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final List<String> basePaths;
+
+    /**
+     * The signals of the chronicles of the store, null until a writer created them
+     */
+    private final AppendSignal[] signals;
+
+    /**
+     * The number of excerpts of each chronicle seen by the last wait, -1 if the signal didn't exist
+     */
+    private final long[] seen;
+
+    private AppendWatcher(List<String> basePaths) throws IOException {
+        this.basePaths = basePaths;
+        this.signals = new AppendSignal[basePaths.size()];
+        this.seen = new long[basePaths.size()];
+        for (int i = 0; i < signals.length; i++) {
+            signals[i] = AppendSignal.openIfExists(basePaths.get(i));
+            seen[i] = signals[i] != null ? signals[i].published() : -1;
+        }
+    }
+
+    /**
+     * Creates a watcher for the events appended to a store from now on
+     *
+     * @param store the store, usually opened in read only mode; all chronicles of striped and sharded stores are
+     *              watched
+     * @return the watcher
+     * @throws IOException if a signal of the store can't be opened
+     */
+    public static AppendWatcher watch(EventStore<?> store) throws IllegalArgumentException, IOException {
+        List<String> basePaths = new ArrayList<String>();
+        collectBasePaths(store, basePaths);
+        return new AppendWatcher(basePaths);
+    }
+
+    private static void collectBasePaths(EventStore<?> store, List<String> basePaths) {
+        if (store instanceof CompositeEventStore) {
+            for (EventStore<?> part : ((CompositeEventStore<?>) store).parts) {
+                collectBasePaths(part, basePaths);
+            }
+        } else if (store instanceof ChronicleBasedEventStoreImpl) {
+            basePaths.add(((ChronicleBasedEventStoreImpl<?>) store).basePath());
+        } else {
+            throw new IllegalArgumentException("Can't watch event stores of " + store.getClass());
+        }
+    }
+
+    /**
+     * Waits until events were appended since the watcher was created or this method returned true the last time
+     *
+     * @return false if the timeout elapsed before
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public boolean awaitAppend(long timeout, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        long park = 1000;
+        while (true) {
+            if (checkAppended()) {
+                return true;
+            }
+            long now = System.nanoTime();
+            if (now - deadline >= 0) {
+                return false;
+            }
+            if (now - start < SPIN_NANOS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(Math.min(park, deadline - now));
+                park = Math.min(2 * park, MAX_PARK_NANOS);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * @return true if any of the chronicles was appended to since the last check
+     */
+    private boolean checkAppended() {
+        boolean appended = false;
+        for (int i = 0; i < signals.length; i++) {
+            if (signals[i] == null) {
+                try {
+                    signals[i] = AppendSignal.openIfExists(basePaths.get(i));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Can't open the append signal of " + basePaths.get(i), e);
+                }
+                if (signals[i] == null) {
+                    continue;
+                }
+            }
+            long published = signals[i].published();
+            if (published != seen[i]) {
+                seen[i] = published;
+                appended = true;
+            }
+        }
+        return appended;
+    }
+}
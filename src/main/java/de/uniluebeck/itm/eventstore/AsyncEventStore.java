@@ -0,0 +1,185 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the blocking operations of an event store on an executor, so that asynchronous callers don't tie up their
+ * own threads.
+ * <p/>
+ * All operations of an event store may block: storing waits for the write lock of the store and for the page
+ * faults caused by writing to the memory mapped files, iterating blocks on the page faults caused by reading
+ * excerpts which aren't in memory yet. The write lock is a monitor held while writing to the mapped files and
+ * forcing them to disk, which pins virtual threads to their carrier threads, so the executor used by default runs
+ * the tasks on a bounded pool of {@link #DEFAULT_THREADS} daemon threads. Stores are serialized by the write lock
+ * anyway and iterations mostly wait for page faults, so further tasks are queued instead of starting more threads.
+ * <p/>
+ * Read only stores hold the write lock only briefly to pick up the events appended by the writing process and never
+ * force files to disk, so their operations can run on virtual threads on Java 21 and later by passing an executor
+ * like {@code Executors.newVirtualThreadPerTaskExecutor()} to {@link #AsyncEventStore(EventStore, ExecutorService)}.
+ * The futures must not be cancelled with interruption then, as interrupting a thread reading the files of a store
+ * through their channels closes the channels.
+ * <p/>
+ * The returned futures are completed on the executor threads. Listeners added with a direct executor run on them as
+ * well and must not block for long if a bounded executor is used.
+ */
+public class AsyncEventStore<T> implements Closeable {
+
+    /**
+     * The number of threads of the default executor: twice the number of processors, so the processors are kept
+     * busy while half of the threads wait for page faults
+     */
+    public static final int DEFAULT_THREADS = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final EventStore<T> store;
+
+    private final ListeningExecutorService executor;
+
+    /**
+     * The executor created by this facade, which is shut down when it is closed; null for an executor passed in
+     */
+    private final ExecutorService ownedExecutor;
+
+    /**
+     * Creates a facade running the operations on the default executor
+     */
+    public AsyncEventStore(EventStore<T> store) {
+        this(store, createDefaultExecutor(), true);
+    }
+
+    /**
+     * Creates a facade running the operations on the given executor, which isn't shut down when closing the facade
+     */
+    public AsyncEventStore(EventStore<T> store, ExecutorService executor) {
+        this(store, executor, false);
+    }
+
+    private AsyncEventStore(EventStore<T> store, ExecutorService executor, boolean owned) {
+        this.store = store;
+        this.executor = MoreExecutors.listeningDecorator(executor);
+        this.ownedExecutor = owned ? executor : null;
+    }
+
+    /**
+     * Creates a pool of {@link #DEFAULT_THREADS} daemon threads with an unbounded queue. Idle threads are stopped
+     * after a minute.
+     */
+    static ExecutorService createDefaultExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("EventStore-Async-%d").setDaemon(true).build()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return the event store the operations are run on
+     */
+    public EventStore<T> store() {
+        return store;
+    }
+
+    /**
+     * Stores an event with the current time as timestamp
+     *
+     * @see EventStore#storeEvent(Object)
+     */
+    public ListenableFuture<Void> storeEventAsync(final T object) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                store.storeEvent(object);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Stores an event with a specific timestamp
+     *
+     * @see EventStore#storeEvent(Object, long)
+     */
+    public ListenableFuture<Void> storeEventAsync(final T object, final long timestamp) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                store.storeEvent(object, timestamp);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Stores several events at once
+     *
+     * @see EventStore#storeEvents(Iterable)
+     */
+    public ListenableFuture<Void> storeEventsAsync(final Iterable<? extends T> objects) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                store.storeEvents(objects);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Passes the events between two timestamps to a consumer. The consumer is called on a single executor thread
+     * at a time, in the order of the events.
+     *
+     * @param fromTime the start time (inclusive)
+     * @param toTime   the end time (inclusive)
+     * @param consumer the consumer of the events
+     * @return a future of the number of events passed to the consumer, which fails if reading the events or the
+     * consumer failed
+     * @see EventStore#getEventsBetweenTimestamps(long, long)
+     */
+    public ListenableFuture<Long> queryAsync(final long fromTime, final long toTime, final Consumer<? super EventContainer<T>> consumer) {
+        return executor.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                long count = 0;
+                CloseableIterator<EventContainer<T>> iterator = store.getEventsBetweenTimestamps(fromTime, toTime);
+                try {
+                    while (iterator.hasNext()) {
+                        consumer.accept(iterator.next());
+                        count++;
+                    }
+                } finally {
+                    iterator.close();
+                }
+                return count;
+            }
+        });
+    }
+
+    /**
+     * Shuts down the default executor after the submitted operations. The event store isn't closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Receives the events of an asynchronous query
+     */
+    public interface Consumer<E> {
+
+        void accept(E event) throws Exception;
+    }
+}
@@ -0,0 +1,149 @@
+package de.uniluebeck.itm.eventstore;
+
+import de.uniluebeck.itm.eventstore.adapter.ChronicleAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Forces the files of a chronicle to disk according to a {@link DurabilityPolicy}. Writers only report appended
+ * events; the actual force is done by a daemon thread, which covers all events appended until it starts forcing.
+ * If the store has a header, the excerpts covered by a force are recorded in it afterwards.
+ */
+class BackgroundFlusher implements Closeable {
+
+    private static Logger log = LoggerFactory.getLogger(BackgroundFlusher.class);
+
+    private final ChronicleAdapter chronicle;
+
+    private final DurabilityPolicy policy;
+
+    /**
+     * The header of the store, null if none is written
+     */
+    private final StoreHeader header;
+
+    private final AtomicLong appended = new AtomicLong();
+
+    private final Object lock = new Object();
+
+    private final Thread thread;
+
+    private long forced = 0;
+
+    private boolean forceRequested = false;
+
+    private volatile boolean running = true;
+
+    public BackgroundFlusher(ChronicleAdapter chronicle, DurabilityPolicy policy) {
+        this(chronicle, policy, null);
+    }
+
+    public BackgroundFlusher(ChronicleAdapter chronicle, DurabilityPolicy policy, StoreHeader header) {
+        this.chronicle = chronicle;
+        this.policy = policy;
+        this.header = header;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "EventStore-Flusher-" + chronicle.name());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Reports appended events without ending a batch
+     */
+    public void eventsStored(int count) {
+        long total = appended.addAndGet(count);
+        if (policy.mode() == DurabilityPolicy.Mode.EVERY_N_EVENTS && total / policy.value() != (total - count) / policy.value()) {
+            requestForce();
+        }
+    }
+
+    /**
+     * Must be called after a batch of events was appended by {@link EventStore#storeEvents(Iterable)} or a single
+     * event by {@link EventStore#storeEvent}, which is a batch of one. If appending failed, the events appended before
+     * are reported.
+     */
+    public void batchStored(int count) {
+        eventsStored(count);
+        if (policy.mode() == DurabilityPolicy.Mode.PER_BATCH) {
+            requestForce();
+        }
+    }
+
+    private void requestForce() {
+        synchronized (lock) {
+            forceRequested = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                synchronized (lock) {
+                    if (policy.mode() == DurabilityPolicy.Mode.PERIODIC) {
+                        lock.wait(policy.value());
+                    } else {
+                        while (!forceRequested && running) {
+                            lock.wait();
+                        }
+                    }
+                    forceRequested = false;
+                }
+                forceIfNeeded();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void forceIfNeeded() {
+        long target = appended.get();
+        if (target == forced) {
+            return;
+        }
+        try {
+            force();
+            forced = target;
+        } catch (IOException e) {
+            log.error("Can't force chronicle " + chronicle.name() + " to disk", e);
+        }
+    }
+
+    /**
+     * Stops the background thread and forces all events appended so far
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (appended.get() != forced) {
+            force();
+            forced = appended.get();
+        }
+    }
+
+    private void force() throws IOException {
+        if (header != null) {
+            header.sync(chronicle);
+        } else {
+            chronicle.force();
+        }
+    }
+}
@@ -1,57 +1,244 @@
 package de.uniluebeck.itm.eventstore;
 
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
 import com.google.common.collect.BiMap;
+import com.google.common.util.concurrent.RateLimiter;
 import de.uniluebeck.itm.eventstore.adapter.ChronicleAdapter;
-import de.uniluebeck.itm.eventstore.chronicle.ChronicleAnalyzer;
+import de.uniluebeck.itm.eventstore.adapter.IndexedChronicleAdapter;
 import de.uniluebeck.itm.util.serialization.MultiClassSerializationHelper;
 import net.openhft.chronicle.ExcerptAppender;
 import net.openhft.chronicle.ExcerptTailer;
+import net.openhft.lang.io.ByteBufferBytes;
+import net.openhft.lang.io.Bytes;
+import net.openhft.lang.io.NativeBytes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.NotSerializableException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Checksum;
 
 
 class ChronicleBasedEventStoreImpl<T> implements EventStore<T> {
 
     private static final int TIMESTAMP_SIZE = Long.SIZE / Byte.SIZE;
+    private static final int LENGTH_SIZE = Integer.SIZE / Byte.SIZE;
+
+    /**
+     * Marker written instead of the timestamp into the first excerpt of an event which is too big for a single
+     * excerpt. It is followed by the actual timestamp, the total length of the serialized event and the first chunk.
+     */
+    private static final long CHUNK_HEADER_MARKER = Long.MIN_VALUE;
+
+    /**
+     * Marker written instead of the timestamp into all excerpts following a chunk header
+     */
+    private static final long CHUNK_CONTINUATION_MARKER = Long.MIN_VALUE + 1;
+
+    /**
+     * Marker written over the timestamp of an event which was torn by a crash, so that the iterators skip it
+     */
+    private static final long TOMBSTONE_MARKER = Long.MIN_VALUE + 2;
+
+    /**
+     * Timestamps below this value are reserved for markers
+     */
+    private static final long MIN_TIMESTAMP = Long.MIN_VALUE + 8;
+
+    private static final int CHUNK_HEADER_SIZE = 2 * TIMESTAMP_SIZE + LENGTH_SIZE;
     private static Logger log = LoggerFactory.
             getLogger(ChronicleBasedEventStoreImpl.class);
     private final Object writeLock = new Object();
-    private final Object closeControlLock = new Object();
-    private final EventStoreConfig config;
-    private ChronicleAdapter chronicle;
-    private int openCount = 0;
+    private final EventStoreConfig<T> config;
+    private final ChronicleAdapter chronicle;
+    private final BackgroundFlusher flusher;
+    private final Lifecycle lifecycle;
+    private final LeakDetector.Tracker tracker;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * If the store is the follower of a replication, which rejects storing events
+     */
+    private final AtomicBoolean replica = new AtomicBoolean();
+    private final Map<String, EventIndex<T>> indexes = new LinkedHashMap<String, EventIndex<T>>();
+
+    /**
+     * The most recently stored events, null if disabled
+     */
+    private final HotTailCache<T> hotTail;
+
+    /**
+     * The scans shared by concurrent range queries, null if disabled
+     */
+    private final SharedScans<T> sharedScans;
+
+    /**
+     * The cache of deserialized events, null if disabled
+     */
+    private final EventCache eventCache;
+
+    /**
+     * Identifies the events of this store in a cache shared with other stores, without keeping the store reachable
+     */
+    private final Object eventCacheOwner = new Object();
+
+    /**
+     * The appender used by all writers, guarded by the write lock
+     */
+    private ExcerptAppender appender;
+
+    /**
+     * If a checksum is stored behind every event
+     */
+    private final boolean checksums;
+
+    /**
+     * The checksum used by all writers, guarded by the write lock
+     */
+    private Checksum writeChecksum;
+
+    /**
+     * The thread reading ahead of sequential scans, null if disabled
+     */
+    private final ReadAhead readAhead;
+
+    /**
+     * The header recording the synced excerpts and the number of bytes and events of all excerpts
+     */
+    private final StoreHeader header;
+
+    /**
+     * The signal announcing appended excerpts to readers in other processes, guarded by the write lock. A read only
+     * store opens it as soon as a writer created it, until then it is null.
+     */
+    private AppendSignal signal;
+
+    /**
+     * The generation of the signal the class mapping was loaded in, only used in read only mode
+     */
+    private long mappingGeneration;
+
+    /**
+     * Replaced in read only mode if a writer in another process may have changed the class mapping
+     */
+    private volatile MultiClassSerializationHelper<T> serializationHelper;
 
-    private MultiClassSerializationHelper<T> serializationHelper;
+    /**
+     * The type bytes of the serialized classes, replaced together with the serialization helper
+     */
+    private volatile BiMap<Class<? extends T>, Byte> classMapping;
 
     public ChronicleBasedEventStoreImpl(ChronicleAdapter chronicle, EventStoreConfig<T> config)
             throws IOException, IllegalArgumentException, ClassNotFoundException {
         this.config = config;
         this.chronicle = chronicle;
-        if (!config.isReadOnly()) {
-            incrementOpenCount();
-        }
-
-        File mappingFile = new File(config.chronicleBasePath() + ".mapping");
-        BiMap<Class<? extends T>, Byte> mapping = MultiClassSerializationHelper.loadOrCreateClassByteMap(config.serializers(), config.deserializers(), mappingFile);
-        serializationHelper = new MultiClassSerializationHelper<T>(config.serializers(), config.deserializers(), mapping);
 
+        loadMapping();
+        checksums = EventChecksum.isEnabled(config.chronicleBasePath(), config.isChecksums(), chronicle.size() == 0, config.isReadOnly());
+        header = StoreHeader.open(config.chronicleBasePath(), StoreHeader.versionsOf(config), chronicle.size() == 0, config.isReadOnly());
+        synchronized (writeLock) {
+            if (!config.isReadOnly()) {
+                recoverTail();
+                signal = AppendSignal.create(config.chronicleBasePath(), chronicle.size());
+            } else {
+                signal = AppendSignal.openIfExists(config.chronicleBasePath());
+                mappingGeneration = signal != null ? signal.generation() : 0;
+            }
+            countAppended();
+        }
 
+        // the resources opened by the store are closed if the construction fails, the chronicle is closed by the caller
+        List<Closeable> opened = new ArrayList<Closeable>();
+        LeakDetector.Tracker openedTracker = null;
+        boolean constructed = false;
+        try {
+            for (Map.Entry<String, Function<? super T, ?>> keyIndex : config.keyIndexes().entrySet()) {
+                EventIndex<T> index = KeyIndex.open(keyIndex.getKey(), keyIndex.getValue(), config.chronicleBasePath(), config.isReadOnly());
+                indexes.put(keyIndex.getKey(), index);
+                opened.add(index);
+            }
+            for (Map.Entry<String, Function<? super T, ?>> keyBloomFilter : config.keyBloomFilters().entrySet()) {
+                EventIndex<T> index = KeyBloomFilter.open(keyBloomFilter.getKey(), keyBloomFilter.getValue(),
+                        config.bloomFilterSegmentSize(), config.chronicleBasePath(), config.isReadOnly());
+                indexes.put(keyBloomFilter.getKey(), index);
+                opened.add(index);
+            }
+            hotTail = config.hotTailCacheSize() > 0 && config.isMonotonic() && !config.isReadOnly() ?
+                    new HotTailCache<T>(this, config.hotTailCacheSize(), chronicle.size() == 0, config.isSnapshotIterators()) : null;
+            eventCache = config.eventCache();
+            sharedScans = config.isSharedScans() && config.isMonotonic() && !config.isSnapshotIterators() ?
+                    new SharedScans<T>(this, config.chronicleBasePath(), config.isRecordingAllocationSites()) : null;
+            flusher = !config.isReadOnly() && config.durabilityPolicy().mode() != DurabilityPolicy.Mode.OS_MANAGED ?
+                    new BackgroundFlusher(chronicle, config.durabilityPolicy(), header) : null;
+            if (flusher != null) {
+                opened.add(flusher);
+            }
+            List<Closeable> backgroundThreads = new ArrayList<Closeable>();
+            int prefaultedBlocks = config.isReadOnly() ? 0 : config.prefaultedBlocks();
+            if (prefaultedBlocks > 0 || config.warmUpBytes() > 0) {
+                // cycling chronicles are rejected by the configuration
+                Prefaulter prefaulter = new Prefaulter((IndexedChronicleAdapter) chronicle,
+                        config.chronicleBasePath() + ".data", prefaultedBlocks, config.warmUpBytes());
+                backgroundThreads.add(prefaulter);
+                opened.add(prefaulter);
+            }
+            readAhead = config.readAheadBytes() > 0 ? new ReadAhead((IndexedChronicleAdapter) chronicle,
+                    config.chronicleBasePath() + ".data", config.readAheadBytes()) : null;
+            if (readAhead != null) {
+                backgroundThreads.add(readAhead);
+                opened.add(readAhead);
+            }
+            lifecycle = new Lifecycle(chronicle, flusher, backgroundThreads, config.isReadOnly() ? null : header, indexes.values());
+            openedTracker = LeakDetector.track(this, "EventStore " + config.chronicleBasePath(), lifecycle, config.isRecordingAllocationSites());
+            tracker = openedTracker;
+            synchronized (writeLock) {
+                for (EventIndex<T> index : indexes.values()) {
+                    catchUp(index);
+                }
+            }
+            constructed = true;
+        } finally {
+            if (!constructed) {
+                if (openedTracker != null) {
+                    openedTracker.close();
+                }
+                closeQuietly(opened);
+            }
+        }
     }
 
-    private static int entryOverhead() {
-        return TIMESTAMP_SIZE + Byte.SIZE + Integer.SIZE;
+    /**
+     * Closes resources in the reverse order of their creation, ignoring failures
+     */
+    private static void closeQuietly(List<Closeable> resources) {
+        for (int i = resources.size() - 1; i >= 0; i--) {
+            try {
+                resources.get(i).close();
+            } catch (IOException e) {
+                // the original exception is more important
+            }
+        }
     }
 
-    private void incrementOpenCount() {
-        synchronized (closeControlLock) {
-            openCount++;
-        }
+    private void loadMapping() throws IOException, ClassNotFoundException {
+        File mappingFile = new File(config.chronicleBasePath() + ".mapping");
+        BiMap<Class<? extends T>, Byte> mapping = MultiClassSerializationHelper.loadOrCreateClassByteMap(config.serializers(), config.deserializers(), mappingFile);
+        serializationHelper = new MultiClassSerializationHelper<T>(config.serializers(), config.deserializers(), mapping);
+        classMapping = mapping;
     }
 
     @Override
@@ -73,209 +260,1779 @@ class ChronicleBasedEventStoreImpl<T> implements EventStore<T> {
 
     @Override
     public void storeEvent(@Nonnull T object, Class<T> type, long timestamp) throws IOException, UnsupportedOperationException, IllegalArgumentException {
-        if (config.isReadOnly()) {
-            throw new UnsupportedOperationException("Storing events is not allowed in read only mode");
+        checkWritable();
+        int count = 0;
+        try {
+            synchronized (writeLock) {
+                try {
+                    append(object, type, timestamp);
+                    count++;
+                } finally {
+                    // a failed append may have written chunks or padding
+                    signal.publish(chronicle.size());
+                }
+            }
+        } finally {
+            if (flusher != null) {
+                // a single event is a batch of one
+                flusher.batchStored(count);
+            }
         }
-        synchronized (writeLock) {
+    }
 
-            try {
-                byte[] serialized = serializationHelper.serialize(object, type);
-                int entrySize = entryOverhead() + serialized.length;
-                if (entrySize > chronicle.config().dataBlockSize()) {
-                    throw new IllegalArgumentException("Object too big to be stored in event store. Actual size: "
-                            + serialized.length + ", allowed size: " + (chronicle.config().dataBlockSize() - entryOverhead()));
+    @Override
+    public void storeEvents(@Nonnull Iterable<? extends T> objects) throws IOException, UnsupportedOperationException, IllegalArgumentException {
+        checkWritable();
+        int count = 0;
+        try {
+            synchronized (writeLock) {
+                try {
+                    for (T object : objects) {
+                        // Object is of type T, so Class is Class<T>. No need to check!
+                        @SuppressWarnings("unchecked") Class<T> c = (Class<T>) object.getClass();
+                        append(object, c, System.currentTimeMillis());
+                        count++;
+                    }
+                } finally {
+                    // the events appended before a failure are visible to readers in this process anyway
+                    signal.publish(chronicle.size());
                 }
-                ExcerptAppender appender = chronicle.createAppender();
-                appender.startExcerpt(entrySize);
-                appender.writeLong(timestamp);
-                appender.write(serialized);
-                appender.finish();
-            } catch (NullPointerException e) {
-                throw new NotSerializableException("Can't find a serializer for type " + type.getName());
+            }
+        } finally {
+            if (flusher != null) {
+                // the events appended before a failure are forced as well
+                flusher.batchStored(count);
             }
         }
     }
 
-    @Override
-    public CloseableIterator<EventContainer<T>> getEventsBetweenTimestamps(long fromTime, long toTime) throws IOException {
-        return new LimitedEventIterator(fromTime, toTime);
+    /**
+     * Picks up the excerpts appended by a writer in another process in read only mode. The index of the chronicle is
+     * only scanned for new excerpts if the writer signalled them or if there is no signal, e.g. because the store was
+     * written by an older version. The class mapping is reloaded after a writer opened the store.
+     */
+    private void refresh() {
+        if (!config.isReadOnly()) {
+            return;
+        }
+        synchronized (writeLock) {
+            if (signal == null) {
+                try {
+                    signal = AppendSignal.openIfExists(config.chronicleBasePath());
+                } catch (IOException e) {
+                    log.warn("Can't open the append signal of " + config.chronicleBasePath(), e);
+                }
+                if (signal == null) {
+                    refreshChronicle();
+                    return;
+                }
+            }
+            long generation = signal.generation();
+            if (generation != mappingGeneration) {
+                try {
+                    loadMapping();
+                    mappingGeneration = generation;
+                } catch (Exception e) {
+                    // e.g. read while the writer rewrote it -> try again on the next refresh
+                    log.warn("Can't reload the class mapping of " + config.chronicleBasePath(), e);
+                }
+            }
+            if (signal.published() != chronicle.size()) {
+                refreshChronicle();
+            }
+        }
     }
 
-    @Override
-    public CloseableIterator<EventContainer<T>> getEventsFromTimestamp(long fromTime) throws IOException {
-        return new InfiniteEventIterator(fromTime);
+    /**
+     * Scans the index of the chronicle for appended excerpts and counts their bytes and events. Must be called while
+     * holding the write lock.
+     */
+    private void refreshChronicle() {
+        // cycling chronicles are rejected in read only mode by the configuration
+        ((IndexedChronicleAdapter) chronicle).refresh();
+        try {
+            countAppended();
+        } catch (IOException e) {
+            // counted on the next refresh
+            log.warn("Can't count the events appended to " + config.chronicleBasePath(), e);
+        }
     }
 
-    @Override
-    public CloseableIterator<EventContainer<T>> getAllEvents() throws IOException {
-        return new InfiniteEventIterator(0);
+    private void checkWritable() {
+        if (config.isReadOnly()) {
+            throw new UnsupportedOperationException("Storing events is not allowed in read only mode");
+        }
+        if (replica.get()) {
+            throw new UnsupportedOperationException("Storing events is not allowed in a replica");
+        }
     }
 
-    @Override
-    public long actualPayloadByteSize() throws IOException {
-        return new ChronicleAnalyzer(this.chronicle).actualPayloadByteSize();
+    /**
+     * Appends a single event to the chronicle. Must be called while holding the write lock.
+     */
+    private void append(T object, Class<T> type, long timestamp) throws IOException, IllegalArgumentException {
+        if (timestamp < MIN_TIMESTAMP) {
+            throw new IllegalArgumentException("Timestamps below " + MIN_TIMESTAMP + " are reserved. Actual timestamp: " + timestamp);
+        }
+        byte[] serialized;
+        try {
+            serialized = serializationHelper.serialize(object, type);
+        } catch (NullPointerException e) {
+            throw new NotSerializableException("Can't find a serializer for type " + type.getName());
+        }
+        // the keys are extracted first, a failing key extractor must not leave an appended event out of an index
+        Object[] keys = null;
+        if (!indexes.isEmpty()) {
+            keys = new Object[indexes.size()];
+            int i = 0;
+            for (EventIndex<T> eventIndex : indexes.values()) {
+                keys[i++] = eventIndex.keyOf(object);
+            }
+        }
+        // the chronicle only accepts excerpts which are smaller than a data block
+        int maxEntrySize = chronicle.config().dataBlockSize() - 1;
+        if (appender == null) {
+            appender = chronicle.createAppender();
+        }
+        int checksum = 0;
+        if (checksums) {
+            if (writeChecksum == null) {
+                writeChecksum = EventChecksum.create();
+            }
+            checksum = EventChecksum.compute(writeChecksum, serialized, 0, serialized.length, timestamp);
+        }
+        long index;
+        long bytes;
+        if (TIMESTAMP_SIZE + serialized.length + checksumSize() <= maxEntrySize) {
+            appender.startExcerpt(TIMESTAMP_SIZE + serialized.length + checksumSize());
+            appender.writeLong(timestamp);
+            appender.write(serialized);
+            if (checksums) {
+                appender.writeInt(checksum);
+            }
+            appender.finish();
+            index = chronicle.size() - 1;
+            bytes = TIMESTAMP_SIZE + serialized.length + checksumSize();
+        } else {
+            byte[] chunked = checksums ? EventChecksum.withChecksum(serialized, checksum) : serialized;
+            index = storeChunks(appender, chunked, timestamp, maxEntrySize);
+            bytes = chunkedSize(chunked.length, maxEntrySize);
+        }
+        header.appended(chronicle.size(), bytes, 1);
+        if (keys != null) {
+            int i = 0;
+            for (EventIndex<T> eventIndex : indexes.values()) {
+                eventIndex.add(keys[i++], index, timestamp);
+                eventIndex.setIndexedUntil(chronicle.size());
+            }
+        }
+        if (hotTail != null) {
+            hotTail.add(object, timestamp);
+        }
     }
 
-    @Override
-    public long size() {
-        return chronicle.size();
+    /**
+     * @return the number of bytes stored behind each event for its checksum
+     */
+    private int checksumSize() {
+        return checksums ? EventChecksum.SIZE : 0;
     }
 
-    @Override
-    public boolean isEmpty() {
-        return size() == 0;
+    /**
+     * Splits a serialized event which doesn't fit into a single excerpt into a chunk header followed by as many
+     * continuation excerpts as needed. The iterators reassemble the chunks transparently.
+     *
+     * @return the index of the chunk header
+     */
+    private long storeChunks(ExcerptAppender appender, byte[] serialized, long timestamp, int maxEntrySize) {
+        if (maxEntrySize <= CHUNK_HEADER_SIZE) {
+            throw new IllegalArgumentException("The data block size " + chronicle.config().dataBlockSize() + " is too small for storing events");
+        }
+        int offset = maxEntrySize - CHUNK_HEADER_SIZE;
+        appender.startExcerpt(CHUNK_HEADER_SIZE + offset);
+        appender.writeLong(CHUNK_HEADER_MARKER);
+        appender.writeLong(timestamp);
+        appender.writeInt(serialized.length);
+        appender.write(serialized, 0, offset);
+        appender.finish();
+        long headerIndex = chronicle.size() - 1;
+
+        while (offset < serialized.length) {
+            int length = Math.min(serialized.length - offset, maxEntrySize - TIMESTAMP_SIZE);
+            appender.startExcerpt(TIMESTAMP_SIZE + length);
+            appender.writeLong(CHUNK_CONTINUATION_MARKER);
+            appender.write(serialized, offset, length);
+            appender.finish();
+            offset += length;
+        }
+        return headerIndex;
     }
 
-    @Override
-    public void close() throws IOException {
-        synchronized (closeControlLock) {
-            openCount--;
+    /**
+     * @return the number of bytes of the excerpts written by {@link #storeChunks} for a serialized event
+     */
+    private static long chunkedSize(int length, int maxEntrySize) {
+        int remaining = length - (maxEntrySize - CHUNK_HEADER_SIZE);
+        int chunkSize = maxEntrySize - TIMESTAMP_SIZE;
+        int continuations = (remaining + chunkSize - 1) / chunkSize;
+        return maxEntrySize + (long) continuations * TIMESTAMP_SIZE + remaining;
+    }
 
-            if (openCount == 0) {
-                chronicle.close();
-                chronicle = null;
+    /**
+     * Checks the events appended behind the last sync recorded in the store header, which may have been torn by a
+     * crash, and overwrites the timestamps of torn events with tombstones, which the iterators skip. If the header
+     * doesn't know the synced excerpts, e.g. because the store was written before headers were introduced, only the
+     * last event is checked. Must be called while holding the write lock.
+     */
+    private void recoverTail() throws IOException {
+        long size = chronicle.size();
+        long from = header.syncedIndex();
+        long bytes = header.appendedBytes();
+        long events = header.appendedEvents();
+        if (from < 0 || from > size) {
+            if (from > size) {
+                log.warn("The header of {} records {} synced excerpts, but the chronicle holds only {}",
+                        config.chronicleBasePath(), from, size);
+            }
+            from = lastEventIndex(size);
+            bytes = -1;
+            events = -1;
+        }
+        ExcerptTailer tailer = chronicle.createTailer();
+        Checksum checksum = checksums ? EventChecksum.create() : null;
+        try {
+            long index = from;
+            while (index < size) {
+                if (!tailer.index(index)) {
+                    // padding
+                    index++;
+                    continue;
+                }
+                long next = endOfEvent(tailer, index, size, checksum);
+                if (next < 0) {
+                    log.warn("The event at index {} of {} was torn and is replaced by a tombstone", index,
+                            config.chronicleBasePath());
+                    tailer.index(index);
+                    tailer.writeLong(0, TOMBSTONE_MARKER);
+                    next = index + 1;
+                }
+                index = next;
             }
+        } finally {
+            tailer.finish();
         }
+        header.counted(size, bytes < 0 ? -1 : bytes + countBytes(from, size),
+                events < 0 ? -1 : events + countEvents(from, size));
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        if (chronicle != null) {
-            chronicle.close();
-            log.error("ChronicleBasedEventStore.finalize(): EventStore was still open. Have you forgotten closing it?");
+    /**
+     * @return the index of the first excerpt of the last event, skipping padding and chunk continuations
+     */
+    private long lastEventIndex(long size) throws IOException {
+        ExcerptTailer tailer = chronicle.createTailer();
+        try {
+            long index = size - 1;
+            while (index > 0 && (!tailer.index(index)
+                    || (tailer.capacity() >= TIMESTAMP_SIZE && tailer.readLong() == CHUNK_CONTINUATION_MARKER))) {
+                index--;
+            }
+            return Math.max(index, 0);
+        } finally {
+            tailer.finish();
         }
-        super.finalize();
     }
 
-    private abstract class AbstractEventIterator implements CloseableIterator<EventContainer<T>> {
-
-        protected ExcerptTailer reader;
-        protected long fromTime;
-
-        protected EventContainer<T> next;
-
-        public AbstractEventIterator(long fromTime) throws IOException {
-            this.fromTime = fromTime;
-            incrementOpenCount();
-            reader = chronicle.createTailer();
+    /**
+     * Checks if the event starting at the excerpt the tailer was moved to was written completely
+     *
+     * @param checksum the checksum for verifying the event, null if the events don't have checksums
+     * @return the index of the excerpt behind the event or -1 if the event is torn
+     */
+    private long endOfEvent(ExcerptTailer tailer, long index, long size, Checksum checksum) {
+        if (tailer.capacity() < TIMESTAMP_SIZE) {
+            return -1;
         }
-
-        @Override
-        public void close() throws IOException {
-            ChronicleBasedEventStoreImpl.this.close();
+        long timestamp = tailer.readLong();
+        if (timestamp == TOMBSTONE_MARKER || timestamp == CHUNK_CONTINUATION_MARKER) {
+            // a continuation whose chunk header was replaced by a tombstone before
+            return index + 1;
         }
-
-        private boolean windToTimestamp(long timestamp) {
-            long firstTimestamp;
-            while (reader.nextIndex()) {
-                firstTimestamp = reader.readLong();
-                if (firstTimestamp >= timestamp) {
-                    byte[] event = new byte[(int) reader.remaining()];
-                    reader.readFully(event);
-                    T object = serializationHelper.deserialize(event);
-
-                    next = new DefaultEventContainerImpl<T>(object, timestamp);
-                    return true;
+        if (timestamp != CHUNK_HEADER_MARKER) {
+            int length = (int) tailer.remaining() - checksumSize();
+            if (timestamp < MIN_TIMESTAMP || length < 1) {
+                return -1;
+            }
+            if (checksum != null) {
+                byte[] event = new byte[length];
+                tailer.readFully(event);
+                if (EventChecksum.compute(checksum, event, 0, length, timestamp) != tailer.readInt()) {
+                    return -1;
                 }
             }
-            return false;
+            return index + 1;
         }
-
-        protected abstract EventContainer<T> readNextEvent();
-
-        protected void finishSetup() {
-            if (fromTime > 0) {
-                windToTimestamp(fromTime);
-            } else {
-                next = readNextEvent();
+        if (tailer.remaining() < TIMESTAMP_SIZE + LENGTH_SIZE) {
+            return -1;
+        }
+        timestamp = tailer.readLong();
+        int length = tailer.readInt();
+        if (length <= checksumSize() || length > (size - index) * chronicle.config().dataBlockSize()) {
+            return -1;
+        }
+        byte[] serialized = new byte[length];
+        int offset = 0;
+        while (true) {
+            int chunk = (int) tailer.remaining();
+            if (chunk > length - offset) {
+                return -1;
+            }
+            tailer.readFully(serialized, offset, chunk);
+            offset += chunk;
+            if (offset == length) {
+                break;
+            }
+            if (moveTailer(tailer, tailer.index() + 1) < 0 || tailer.remaining() < TIMESTAMP_SIZE
+                    || tailer.readLong() != CHUNK_CONTINUATION_MARKER) {
+                return -1;
             }
         }
+        if (checksum != null && EventChecksum.compute(checksum, serialized, 0, length - EventChecksum.SIZE, timestamp)
+                != EventChecksum.checksumOf(serialized)) {
+            return -1;
+        }
+        return tailer.index() + 1;
+    }
 
-
-        @Override
-        public boolean hasNext() {
-            if (next == null) {
-                next = readNextEvent();
+    /**
+     * @return the number of events starting in the given range of excerpts, which are read up to their timestamps
+     */
+    private long countEvents(long fromIndex, long toIndex) throws IOException {
+        ExcerptTailer tailer = chronicle.createTailer();
+        try {
+            long events = 0;
+            for (long index = fromIndex; index < toIndex; index++) {
+                if (tailer.index(index) && tailer.capacity() >= TIMESTAMP_SIZE) {
+                    long timestamp = tailer.readLong();
+                    if (timestamp != CHUNK_CONTINUATION_MARKER && timestamp != TOMBSTONE_MARKER) {
+                        events++;
+                    }
+                }
             }
-            return next != null;
+            return events;
+        } finally {
+            tailer.finish();
         }
+    }
 
-        @Override
-        public EventContainer<T> next() {
-            if (next != null) {
-                EventContainer<T> event = next;
-                next = readNextEvent();
-                return event;
+    /**
+     * Moves a tailer to the first excerpt at or behind an index, skipping padding. A tailer which was positioned at an
+     * index must be moved on this way: positioning the tailer of an indexed chronicle doesn't update the data block it
+     * reads next, so that {@link ExcerptTailer#nextIndex()} would read from the start of that block instead of the
+     * excerpt once it lies behind the first data block.
+     *
+     * @return the index of the excerpt or -1 if it wasn't written yet
+     */
+    private static long moveTailer(ExcerptTailer tailer, long index) {
+        while (!tailer.index(index)) {
+            if (!tailer.wasPadding()) {
+                return -1;
             }
-
-            throw new NoSuchElementException();
+            index++;
         }
+        return index;
+    }
 
-        @Override
-        public void remove() {
-            throw new UnsupportedOperationException();
+    /**
+     * @return the number of bytes of the excerpts in the given range, read from the index of the chronicle only
+     */
+    private long countBytes(long fromIndex, long toIndex) throws IOException {
+        ExcerptTailer tailer = chronicle.createTailer();
+        try {
+            long bytes = 0;
+            for (long index = fromIndex; index < toIndex; index++) {
+                if (tailer.index(index)) {
+                    bytes += tailer.capacity();
+                }
+            }
+            return bytes;
+        } finally {
+            tailer.finish();
         }
-
     }
 
-    private class InfiniteEventIterator extends AbstractEventIterator {
-
-        public InfiniteEventIterator(long fromTime) throws IOException {
-            super(fromTime);
-            finishSetup();
+    /**
+     * Adds the events which were appended after the last update of an index, e.g. by another process or before
+     * a crash, to the index. Stops early if the index is full, the excerpts which aren't indexed are scanned by the
+     * queries then. Must be called while holding the write lock.
+     */
+    private void catchUp(EventIndex<T> index) throws IOException {
+        long size = chronicle.size();
+        if (index.indexedUntil() >= size) {
+            return;
+        }
+        Scanner scanner = new Scanner(index.indexedUntil(), size);
+        try {
+            EventContainer<T> event;
+            while (!index.isFull() && (event = scanner.readNextEvent()) != null) {
+                index.add(index.keyOf(event.getEvent()), scanner.eventIndex, event.getTimestamp());
+                index.setIndexedUntil(scanner.scannedUntil);
+            }
+            index.setIndexedUntil(scanner.scannedUntil);
+        } finally {
+            scanner.close();
         }
+    }
 
-        @Override
-        protected EventContainer<T> readNextEvent() {
-            if (reader.nextIndex()) {
-                long timestamp = reader.readLong();
-                byte[] event = new byte[(int) reader.remaining()];
-                reader.readFully(event);
-                T object = serializationHelper.deserialize(event);
-                return new DefaultEventContainerImpl<T>(object, timestamp);
+    @Override
+    public CloseableIterator<EventContainer<T>> getEventsBetweenTimestamps(long fromTime, long toTime) throws IOException {
+        if (hotTail != null) {
+            CloseableIterator<EventContainer<T>> cached = hotTail.query(fromTime, toTime);
+            if (cached != null) {
+                if (closed.get()) {
+                    throw new IllegalStateException("The event store " + chronicle.name() + " is closed");
+                }
+                return cached;
             }
-            reader.finish();
-            return null;
         }
+        if (sharedScans != null) {
+            if (closed.get()) {
+                throw new IllegalStateException("The event store " + chronicle.name() + " is closed");
+            }
+            return sharedScans.query(fromTime, toTime);
+        }
+        return new LimitedEventIterator(fromTime, toTime, null);
     }
 
-    /**
-     * The limited event iterator is returned for iterating through events between two different timestamps
-     */
-    private class LimitedEventIterator extends AbstractEventIterator {
+    @Override
+    public CloseableIterator<EventContainer<T>> getEventsBetweenTimestamps(long fromTime, long toTime, RawEventPredicate predicate) throws IOException {
+        return new LimitedEventIterator(fromTime, toTime, predicate);
+    }
 
-        private long toTime;
+    @Override
+    public CloseableIterator<RawEventContainer<T>> getRawEventsBetweenTimestamps(long fromTime, long toTime) throws IOException {
+        return new RawEventIterator(fromTime, toTime);
+    }
+
+    @Override
+    public EventBatchReader getEventBatchReader(long fromTime, long toTime) throws IOException {
+        return new BatchReader(new RawEventIterator(fromTime, toTime));
+    }
+
+    @Override
+    public CloseableIterator<EventContainer<T>> getEventsFromTimestamp(long fromTime) throws IOException {
+        return new InfiniteEventIterator(fromTime);
+    }
+
+    @Override
+    public CloseableIterator<EventContainer<T>> getAllEvents() throws IOException {
+        return new InfiniteEventIterator(0);
+    }
+
+    @Override
+    public CloseableIterator<EventContainer<T>> getEventsForKey(String indexName, Object key, long fromTime, long toTime) throws IOException, IllegalArgumentException {
+        EventIndex<T> index = indexes.get(indexName);
+        if (index == null) {
+            throw new IllegalArgumentException("There is no key index or key Bloom filter with the name " + indexName);
+        }
+        if (config.isReadOnly()) {
+            // the events may be appended by another process
+            refresh();
+            synchronized (writeLock) {
+                index.reload();
+                catchUp(index);
+            }
+        }
+        if (index instanceof KeyBloomFilter) {
+            return new KeyBloomFilterIterator((KeyBloomFilter<T>) index, key, fromTime, toTime);
+        }
+        return new KeyIndexIterator((KeyIndex<T>) index, key, fromTime, toTime);
+    }
+
+    @Override
+    public long actualPayloadByteSize() throws IOException {
+        refresh();
+        return header.appendedBytes();
+    }
+
+    @Override
+    public long size() {
+        refresh();
+        return header.appendedEvents();
+    }
+
+    /**
+     * @return the number of excerpts of the chronicle, including chunk continuations, padding entries and tombstones
+     */
+    long excerptCount() {
+        refresh();
+        return chronicle.size();
+    }
+
+    /**
+     * Counts the bytes and events of the excerpts the header doesn't know yet: all excerpts once if the store was
+     * written before headers were introduced, otherwise the ones behind the last recorded sync and in read only mode
+     * the ones appended by another process since. Writable stores count the events they append themselves, so this is
+     * only called when the store is opened and by {@link #refresh()}. Must be called while holding the write lock.
+     */
+    private void countAppended() throws IOException {
+        long size = chronicle.size();
+        long from = header.appendedIndex();
+        long bytes = header.appendedBytes();
+        long events = header.appendedEvents();
+        if (bytes < 0 || events < 0 || from < 0 || from > size) {
+            // not known since the store was written before the header recorded them -> count once
+            from = 0;
+            bytes = 0;
+            events = 0;
+        }
+        if (from < size) {
+            // in read only mode, the excerpts may have been appended by another process
+            header.counted(size, bytes + countBytes(from, size), events + countEvents(from, size));
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Closes this event store. The underlying chronicle is closed as soon as all iterators are closed, too.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            tracker.close();
+            lifecycle.release();
+        }
+    }
+
+    /**
+     * Reference counter for the resources shared by the store and its iterators. The resources are released when
+     * the store and all iterators were closed. This is kept apart from the store, so that the leak detector can
+     * release the resources after the store or an iterator became unreachable.
+     */
+    private static class Lifecycle implements Closeable {
+
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private final ChronicleAdapter chronicle;
+
+        private final BackgroundFlusher flusher;
+
+        /**
+         * The background threads stopped before the chronicle is closed
+         */
+        private final Iterable<? extends Closeable> backgroundThreads;
+
+        /**
+         * The header written after forcing the chronicle on close, null in read only mode
+         */
+        private final StoreHeader header;
+
+        private final Iterable<? extends Closeable> indexes;
+
+        /**
+         * Releases a single reference, used as cleanup action of leaked iterators
+         */
+        private final Closeable releaseAction = new Closeable() {
+            @Override
+            public void close() throws IOException {
+                release();
+            }
+        };
+
+        private Lifecycle(ChronicleAdapter chronicle, BackgroundFlusher flusher,
+                          Iterable<? extends Closeable> backgroundThreads, StoreHeader header,
+                          Iterable<? extends Closeable> indexes) {
+            this.chronicle = chronicle;
+            this.flusher = flusher;
+            this.backgroundThreads = backgroundThreads;
+            this.header = header;
+            this.indexes = indexes;
+        }
+
+        void retain() {
+            while (true) {
+                int count = references.get();
+                if (count == 0) {
+                    throw new IllegalStateException("The event store " + chronicle.name() + " is closed");
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return;
+                }
+            }
+        }
+
+        void release() throws IOException {
+            if (references.decrementAndGet() == 0) {
+                close();
+            }
+        }
+
+        /**
+         * Releases the resources regardless of the number of references, used as cleanup action of a leaked store
+         */
+        @Override
+        public void close() throws IOException {
+            if (released.compareAndSet(false, true)) {
+                for (Closeable backgroundThread : backgroundThreads) {
+                    backgroundThread.close();
+                }
+                if (flusher != null) {
+                    flusher.close();
+                } else if (header != null) {
+                    header.sync(chronicle);
+                }
+                for (Closeable index : indexes) {
+                    index.close();
+                }
+                chronicle.close();
+            }
+        }
+    }
+
+    /**
+     * Moves a tailer from event to event, skipping padding, chunk continuations and tombstones and reassembling
+     * chunked events. The current event can be inspected in place, verified or deserialized.
+     */
+    private class EntryReader implements Closeable {
+
+        protected ExcerptTailer reader;
+
+        private final LeakDetector.Tracker tracker;
+
+        private boolean closed = false;
+
+        /**
+         * The position published to the read ahead thread, null if the iterator doesn't read ahead
+         */
+        private ReadAhead.Scan readAheadScan;
+
+        /**
+         * The timestamp of the entry the reader was moved to by {@link #nextEntry()}
+         */
+        protected long timestamp;
+
+        /**
+         * The reassembled payload if the current entry is a chunked event, null otherwise
+         */
+        protected byte[] chunkedPayload;
+
+        /**
+         * The index of the (first) excerpt of the event the reader was moved to by {@link #nextEntry()}
+         */
+        protected long eventIndex;
+
+        /**
+         * Index of an excerpt the reader has to be moved to before reading the next entry, e.g. a chunk header which
+         * has to be read again because not all of its chunks were written yet
+         */
+        private long pendingIndex = -1;
+
+        /**
+         * The index of the excerpt the reader was moved to last, -1 before it was moved
+         */
+        protected long readerIndex = -1;
+
+        /**
+         * True once the reader was positioned at an index, after which it is moved by {@link #moveTailer} only
+         */
+        private boolean positioned = false;
+
+        /**
+         * The index of the first excerpt not read by a snapshot iterator, Long.MAX_VALUE if the iterator follows the tail
+         */
+        private final long snapshotEnd;
+
+        /**
+         * The view on the payload of the current excerpt passed to raw event predicates, created on first use
+         */
+        private PayloadBytes payload;
+
+        /**
+         * The checksum used for verifying events, created on first use
+         */
+        private Checksum checksum;
+
+        /**
+         * The buffer events are copied to for verifying their checksums, created on first use
+         */
+        private byte[] buffer;
+
+        public EntryReader() throws IOException {
+            refresh();
+            this.snapshotEnd = config.isSnapshotIterators() ? chronicle.size() : Long.MAX_VALUE;
+            lifecycle.retain();
+            try {
+                reader = chronicle.createTailer();
+            } catch (IOException e) {
+                lifecycle.release();
+                throw e;
+            }
+            tracker = LeakDetector.track(this, "Iterator of EventStore " + config.chronicleBasePath(),
+                    lifecycle.releaseAction, config.isRecordingAllocationSites());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                if (readAheadScan != null) {
+                    readAheadScan.close();
+                }
+                tracker.close();
+                lifecycle.release();
+            }
+        }
+
+        /**
+         * Lets the read ahead thread load the data ahead of this iterator if enabled, used by sequential scans
+         */
+        protected void readAhead() {
+            if (readAhead != null) {
+                readAheadScan = readAhead.register();
+            }
+        }
+
+        /**
+         * Moves the reader to the next event and stores its timestamp in {@link #timestamp}.
+         * Chunked events are reassembled, so that the payload can be obtained by calling {@link #readEvent()}
+         * afterwards.
+         *
+         * @return true if an event was found, false if the reader reached the end of the chronicle
+         */
+        protected boolean nextEntry() {
+            chunkedPayload = null;
+            while (advance()) {
+                eventIndex = reader.index();
+                if (readAheadScan != null) {
+                    readAheadScan.moveTo(eventIndex);
+                }
+                if (eventIndex >= snapshotEnd) {
+                    // appended after the snapshot iterator was created
+                    return false;
+                }
+                long timestamp = reader.readLong();
+                if (timestamp == CHUNK_CONTINUATION_MARKER || timestamp == TOMBSTONE_MARKER) {
+                    // the rest of an event whose header has already been consumed or skipped, or a torn event
+                    continue;
+                }
+                if (timestamp == CHUNK_HEADER_MARKER) {
+                    long headerIndex = reader.index();
+                    timestamp = reader.readLong();
+                    chunkedPayload = readChunks(headerIndex);
+                    if (chunkedPayload == null) {
+                        if (pendingIndex == headerIndex) {
+                            return false;
+                        }
+                        // the chunks are incomplete and were followed by other excerpts -> skip the broken event
+                        continue;
+                    }
+                }
+                this.timestamp = timestamp;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean advance() {
+            if (pendingIndex >= 0) {
+                long index = moveTailer(reader, pendingIndex);
+                if (index < 0) {
+                    return false;
+                }
+                pendingIndex = -1;
+                positioned = true;
+                readerIndex = index;
+                return true;
+            }
+            return nextExcerpt();
+        }
+
+        /**
+         * Moves the reader to the excerpt behind the current one, skipping padding
+         */
+        private boolean nextExcerpt() {
+            if (positioned) {
+                long index = moveTailer(reader, readerIndex + 1);
+                if (index < 0) {
+                    return false;
+                }
+                readerIndex = index;
+                return true;
+            }
+            if (!reader.nextIndex()) {
+                return false;
+            }
+            readerIndex = reader.index();
+            return true;
+        }
+
+        protected boolean hasPendingIndex() {
+            return pendingIndex >= 0;
+        }
+
+        /**
+         * Lets the next call of {@link #nextEntry()} read the entry at the given excerpt index
+         */
+        protected void moveTo(long index) {
+            pendingIndex = index;
+        }
+
+        /**
+         * Reads the chunks of an event. The reader must be positioned behind the actual timestamp of the chunk header.
+         *
+         * @return the serialized event or null if it couldn't be reassembled
+         */
+        private byte[] readChunks(long headerIndex) {
+            byte[] serialized = new byte[reader.readInt()];
+            int offset = readRemaining(serialized, 0);
+            while (offset < serialized.length) {
+                if (!nextExcerpt()) {
+                    // the writer is still appending the chunks -> read the event again later
+                    pendingIndex = headerIndex;
+                    return null;
+                }
+                if (reader.readLong() != CHUNK_CONTINUATION_MARKER) {
+                    log.warn("Chunked event at index {} is incomplete and will be skipped", headerIndex);
+                    pendingIndex = reader.index();
+                    return null;
+                }
+                offset = readRemaining(serialized, offset);
+            }
+            return serialized;
+        }
+
+        private int readRemaining(byte[] serialized, int offset) {
+            int length = (int) reader.remaining();
+            reader.readFully(serialized, offset, length);
+            return offset + length;
+        }
+
+        /**
+         * Evaluates a predicate against the serialized event the reader was moved to by {@link #nextEntry()}.
+         * The payload of a single excerpt is passed in place, without copying it.
+         */
+        protected boolean matches(RawEventPredicate predicate) {
+            return predicate.test(typeId(), timestamp, payload());
+        }
+
+        /**
+         * Returns the type byte of the serialized event the reader was moved to by {@link #nextEntry()}
+         */
+        protected byte typeId() {
+            return chunkedPayload != null ? chunkedPayload[0] : reader.readByte(reader.position());
+        }
+
+        /**
+         * Returns the number of bytes of the event the reader was moved to by {@link #nextEntry()}
+         */
+        protected int entrySize() {
+            return chunkedPayload != null ? chunkedPayload.length : (int) reader.remaining();
+        }
+
+        /**
+         * Returns a view on the serialized event the reader was moved to by {@link #nextEntry()}, behind the type
+         * byte. The payload of a single excerpt is wrapped in place, the view is reused for the following excerpts.
+         */
+        protected Bytes payload() {
+            if (chunkedPayload != null) {
+                return new ByteBufferBytes(ByteBuffer.wrap(chunkedPayload), 1, chunkedPayload.length - 1 - checksumSize());
+            }
+            if (payload == null) {
+                payload = new PayloadBytes();
+            }
+            long start = reader.address() + reader.position();
+            payload.wrap(start + 1, start + reader.remaining() - checksumSize());
+            return payload;
+        }
+
+        /**
+         * Verifies the checksum of the event the reader was moved to by {@link #nextEntry()} without deserializing
+         * it. Must only be called if the events have checksums.
+         */
+        protected boolean checksumMatches() {
+            if (chunkedPayload != null) {
+                int length = chunkedPayload.length - EventChecksum.SIZE;
+                return length > 0 && EventChecksum.compute(checksum(), chunkedPayload, 0, length, timestamp)
+                        == EventChecksum.checksumOf(chunkedPayload);
+            }
+            int length = (int) reader.remaining() - EventChecksum.SIZE;
+            if (length < 1) {
+                return false;
+            }
+            if (buffer == null || buffer.length < length) {
+                buffer = new byte[Math.max(length, 1024)];
+            }
+            reader.readFully(buffer, 0, length);
+            return EventChecksum.compute(checksum(), buffer, 0, length, timestamp) == reader.readInt();
+        }
+
+        private Checksum checksum() {
+            if (checksum == null) {
+                checksum = EventChecksum.create();
+            }
+            return checksum;
+        }
+
+        /**
+         * Deserializes the event the reader was moved to by {@link #nextEntry()}
+         */
+        @SuppressWarnings("unchecked")
+        protected EventContainer<T> readEvent() {
+            if (eventCache != null) {
+                T cached = (T) eventCache.get(eventCacheOwner, eventIndex);
+                if (cached != null) {
+                    chunkedPayload = null;
+                    return new DefaultEventContainerImpl<T>(cached, timestamp);
+                }
+            }
+            byte[] event = chunkedPayload;
+            int checksum = 0;
+            if (event == null) {
+                int length = (int) reader.remaining() - checksumSize();
+                if (length < 1) {
+                    throw new CorruptedEventException(config.chronicleBasePath(), eventIndex);
+                }
+                event = new byte[length];
+                reader.readFully(event);
+                if (checksums) {
+                    checksum = reader.readInt();
+                }
+            } else {
+                chunkedPayload = null;
+                if (checksums) {
+                    if (event.length <= EventChecksum.SIZE) {
+                        throw new CorruptedEventException(config.chronicleBasePath(), eventIndex);
+                    }
+                    checksum = EventChecksum.checksumOf(event);
+                    event = Arrays.copyOf(event, event.length - EventChecksum.SIZE);
+                }
+            }
+            if (checksums && EventChecksum.compute(checksum(), event, 0, event.length, timestamp) != checksum) {
+                throw new CorruptedEventException(config.chronicleBasePath(), eventIndex);
+            }
+            T object = serializationHelper.deserialize(event);
+            if (eventCache != null && object != null) {
+                eventCache.put(eventCacheOwner, eventIndex, object, event.length);
+            }
+            return new DefaultEventContainerImpl<T>(object, timestamp);
+        }
+    }
+
+    private abstract class AbstractEventIterator extends EntryReader implements CloseableIterator<EventContainer<T>> {
+
+        protected long fromTime;
+
+        protected EventContainer<T> next;
+
+        public AbstractEventIterator(long fromTime) throws IOException {
+            this.fromTime = fromTime;
+        }
+
+        private boolean windToTimestamp(long timestamp) {
+            while (nextEntry()) {
+                if (this.timestamp >= timestamp) {
+                    next = accepts() ? readEvent() : readNextEvent();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        protected abstract EventContainer<T> readNextEvent();
+
+        /**
+         * Checks if the entry the reader was moved to by {@link #nextEntry()} has to be returned apart from its timestamp
+         */
+        protected boolean accepts() {
+            return true;
+        }
+
+        protected void finishSetup() {
+            if (fromTime > 0) {
+                windToTimestamp(fromTime);
+            } else {
+                next = readNextEvent();
+            }
+        }
+
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = readNextEvent();
+            }
+            return next != null;
+        }
+
+        @Override
+        public EventContainer<T> next() {
+            if (next != null) {
+                EventContainer<T> event = next;
+                next = readNextEvent();
+                return event;
+            }
+
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    private class InfiniteEventIterator extends AbstractEventIterator {
+
+        public InfiniteEventIterator(long fromTime) throws IOException {
+            super(fromTime);
+            readAhead();
+            finishSetup();
+        }
+
+        @Override
+        protected EventContainer<T> readNextEvent() {
+            if (nextEntry()) {
+                return readEvent();
+            }
+            reader.finish();
+            return null;
+        }
+    }
+
+    /**
+     * The limited event iterator is returned for iterating through events between two different timestamps
+     */
+    private class LimitedEventIterator extends AbstractEventIterator {
+
+        private long toTime;
+
+        private final RawEventPredicate predicate;
+
+        public LimitedEventIterator(long fromTime, long toTime, RawEventPredicate predicate) throws IOException {
+            super(fromTime);
+            this.toTime = toTime;
+            this.predicate = predicate;
+            readAhead();
+            finishSetup();
+        }
+
+        @Override
+        protected boolean accepts() {
+            return predicate == null || matches(predicate);
+        }
+
+        @Override
+        protected EventContainer<T> readNextEvent() {
+            while (true) {
+                if (nextEntry()) {
+                    if (config.isMonotonic() && timestamp > toTime) {
+                        // if event time is monotonic, stop if the current event is out of the time range
+                        break;
+                    } else if (timestamp <= toTime && accepts()) {
+                        // if the timestamp is in range and the raw event matches: matching event found -> return it
+                        return readEvent();
+                    }
+                    // the found event is out of range but the order isn't monotonic -> we have to search for the next event in range
+                } else {
+                    // the reader is at the end of the chronicle -> finish (nothing found)
+                    break;
+                }
+            }
+            reader.finish();
+
+            return null;
+        }
+    }
+
+    /**
+     * Iterates over the events the key index refers to. Blocks of postings whose events are out of the time range
+     * are skipped, the others are decoded one at a time. The timestamp of each entry is checked before the event
+     * is deserialized, the key is checked afterwards as the index only compares the string representation of keys.
+     * The excerpts which a read only index couldn't take any more are scanned at the end.
+     */
+    private class KeyIndexIterator extends AbstractEventIterator {
+
+        private final KeyIndex<T> keyIndex;
+
+        private final Object key;
+
+        private final long toTime;
+
+        private final KeyIndex.Snapshot snapshot;
+
+        /**
+         * The index of the first excerpt which isn't indexed, the excerpts from there on are scanned
+         */
+        private final long scanFrom;
+
+        /**
+         * The end of the excerpts to scan, which is the size of the chronicle when the iterator was created
+         */
+        private final long scanUntil;
+
+        private int block = 0;
+
+        private long[] postings = new long[0];
+
+        private int position = 0;
+
+        private boolean pendingRead = false;
+
+        private boolean scanning = false;
+
+        private boolean finished = false;
 
-        public LimitedEventIterator(long fromTime, long toTime) throws IOException {
+        public KeyIndexIterator(KeyIndex<T> keyIndex, Object key, long fromTime, long toTime) throws IOException {
             super(fromTime);
+            this.keyIndex = keyIndex;
+            this.key = key;
             this.toTime = toTime;
-            finishSetup();
+            this.snapshot = keyIndex.postings(key, fromTime, toTime);
+            this.scanFrom = snapshot.indexedUntil;
+            this.scanUntil = chronicle.size();
+            next = readNextEvent();
         }
 
         @Override
         protected EventContainer<T> readNextEvent() {
-            while (true) {
-                if (reader.nextIndex()) {
-                    long timestamp = reader.readLong();
-                    if (config.isMonotonic() && timestamp > toTime) {
-                        // if event time is monotonic, stop if the current event is out of the time range
+            while (!finished) {
+                if (scanning) {
+                    if (!nextEntry() || eventIndex >= scanUntil) {
                         break;
-                    } else if (timestamp <= toTime) {
-                        // if the timestamp is in range: matching event found -> return it
-                        byte[] event = new byte[(int) reader.remaining()];
-                        reader.readFully(event);
-                        T object = serializationHelper.deserialize(event);
-                        return new DefaultEventContainerImpl<T>(object, timestamp);
                     }
-                    // the found event is out of range but the order isn't monotonic -> we have to search for the next event in range
+                } else if (position < postings.length) {
+                    long posting = postings[position++];
+                    moveTo(posting);
+                    if (!nextEntry() || eventIndex != posting) {
+                        continue;
+                    }
+                } else if (block < snapshot.blocks.size()) {
+                    try {
+                        postings = keyIndex.read(snapshot.blocks.get(block++));
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Can't read the key index " + keyIndex.name(), e);
+                    }
+                    position = 0;
+                    continue;
+                } else if (!pendingRead) {
+                    pendingRead = true;
+                    postings = snapshot.pending;
+                    position = 0;
+                    continue;
+                } else if (scanFrom < scanUntil) {
+                    scanning = true;
+                    moveTo(scanFrom);
+                    continue;
                 } else {
-                    // the reader is at the end of the chronicle -> finish (nothing found)
                     break;
                 }
+                if (timestamp < fromTime) {
+                    continue;
+                }
+                if (timestamp > toTime) {
+                    if (config.isMonotonic()) {
+                        break;
+                    }
+                    continue;
+                }
+                EventContainer<T> event = readEvent();
+                if (Objects.equal(key, keyIndex.keyOf(event.getEvent()))) {
+                    return event;
+                }
+            }
+            finished = true;
+            reader.finish();
+            return null;
+        }
+    }
+
+    /**
+     * Iterates over the segments the key Bloom filter considers to contain events with the key. Within these
+     * segments, the timestamp of each entry is checked before the event is deserialized, the key afterwards.
+     * The excerpts which a read only filter couldn't take any more are scanned at the end.
+     */
+    private class KeyBloomFilterIterator extends AbstractEventIterator {
+
+        private final KeyBloomFilter<T> filter;
+
+        private final Object key;
+
+        private final long toTime;
+
+        /**
+         * The index of the first excerpt which isn't indexed, the excerpts from there on are scanned
+         */
+        private final long scanFrom;
+
+        /**
+         * The end of the excerpts to scan, which is the size of the chronicle when the iterator was created
+         */
+        private final long scanUntil;
+
+        /**
+         * The number of the segment being read or to be checked next, -1 if all segments were read
+         */
+        private long segment = 0;
+
+        /**
+         * The index of the first excerpt behind the current segment or -1 if no segment is being read
+         */
+        private long segmentEnd = -1;
+
+        private boolean scanned = false;
+
+        public KeyBloomFilterIterator(KeyBloomFilter<T> filter, Object key, long fromTime, long toTime) throws IOException {
+            super(fromTime);
+            this.filter = filter;
+            this.key = key;
+            this.toTime = toTime;
+            this.scanFrom = filter.indexedUntil();
+            this.scanUntil = chronicle.size();
+            next = readNextEvent();
+        }
+
+        @Override
+        protected EventContainer<T> readNextEvent() {
+            while (true) {
+                if (segmentEnd < 0) {
+                    if (segment >= 0) {
+                        try {
+                            segment = filter.nextCandidate(key, segment, fromTime, toTime);
+                        } catch (IOException e) {
+                            throw new IllegalStateException("Can't read the key Bloom filter " + filter.name(), e);
+                        }
+                    }
+                    if (segment >= 0) {
+                        moveTo(segment * filter.segmentSize());
+                        segmentEnd = (segment + 1) * filter.segmentSize();
+                    } else if (!scanned && scanFrom < scanUntil) {
+                        scanned = true;
+                        moveTo(scanFrom);
+                        segmentEnd = scanUntil;
+                    } else {
+                        break;
+                    }
+                }
+                if (nextEntry() && eventIndex < segmentEnd) {
+                    if (timestamp < fromTime || timestamp > toTime) {
+                        continue;
+                    }
+                    EventContainer<T> event = readEvent();
+                    if (Objects.equal(key, filter.keyOf(event.getEvent()))) {
+                        return event;
+                    }
+                } else {
+                    segmentEnd = -1;
+                    if (segment >= 0) {
+                        segment++;
+                    }
+                }
             }
             reader.finish();
+            return null;
+        }
+    }
+
+    /**
+     * Reads the events stored in a range of excerpts one by one, used for updating the key indexes. In contrast to
+     * the other iterators, it doesn't read ahead, so it must be used by calling {@link #readNextEvent()} only.
+     */
+    private class Scanner extends AbstractEventIterator {
+
+        private final long endIndex;
+
+        /**
+         * All excerpts below this index were read
+         */
+        private long scannedUntil;
+
+        public Scanner(long startIndex, long endIndex) throws IOException {
+            super(0);
+            this.endIndex = endIndex;
+            this.scannedUntil = startIndex;
+            if (startIndex > 0) {
+                moveTo(startIndex);
+            }
+        }
 
+        @Override
+        protected EventContainer<T> readNextEvent() {
+            while (nextEntry()) {
+                if (eventIndex >= endIndex) {
+                    // appended after the scan was started
+                    scannedUntil = endIndex;
+                    reader.finish();
+                    return null;
+                }
+                scannedUntil = reader.index() + 1;
+                try {
+                    return readEvent();
+                } catch (CorruptedEventException e) {
+                    log.warn("Skipping corrupted event while scanning", e);
+                }
+            }
+            if (!hasPendingIndex()) {
+                scannedUntil = Math.max(scannedUntil, Math.min(readerIndex + 1, endIndex));
+            }
+            reader.finish();
             return null;
         }
     }
+
+    /**
+     * Returns the events between two timestamps without reading ahead, so that the current event can be exposed in
+     * place until the iterator is moved on
+     */
+    private class RawEventIterator implements CloseableIterator<RawEventContainer<T>> {
+
+        private final EntryReader cursor;
+
+        private final long fromTime;
+
+        private final long toTime;
+
+        /**
+         * The last returned event, which is invalidated when the reader is moved
+         */
+        private RawEvent current;
+
+        private boolean positioned = false;
+
+        /**
+         * Set when an event after the time range was found in a monotonic store
+         */
+        private boolean finished = false;
+
+        public RawEventIterator(long fromTime, long toTime) throws IOException {
+            this.cursor = new EntryReader();
+            this.fromTime = fromTime;
+            this.toTime = toTime;
+        }
+
+        @Override
+        public boolean hasNext() {
+            invalidateCurrent();
+            if (!positioned && !finished) {
+                positioned = seek();
+            }
+            return positioned;
+        }
+
+        private boolean seek() {
+            while (cursor.nextEntry()) {
+                if (cursor.timestamp > toTime) {
+                    if (config.isMonotonic()) {
+                        finished = true;
+                        return false;
+                    }
+                } else if (cursor.timestamp >= fromTime) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public RawEventContainer<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            positioned = false;
+            current = new RawEvent(cursor, cursor.timestamp, cursor.typeId(), cursor.payload());
+            return current;
+        }
+
+        private void invalidateCurrent() {
+            if (current != null) {
+                current.valid = false;
+                current = null;
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+            invalidateCurrent();
+            cursor.close();
+        }
+    }
+
+    /**
+     * Copies the events found by a raw event iterator without creating containers for them
+     */
+    private class BatchReader implements EventBatchReader {
+
+        private final RawEventIterator events;
+
+        private BatchReader(RawEventIterator events) {
+            this.events = events;
+        }
+
+        @Override
+        public int readBatch(long[] timestamps, byte[] typeIds, ByteBuffer payloads, int[] offsets, int max) {
+            max = Math.min(max, Math.min(Math.min(timestamps.length, typeIds.length), offsets.length - 1));
+            EntryReader cursor = events.cursor;
+            int count = 0;
+            offsets[0] = payloads.position();
+            while (count < max && events.hasNext()) {
+                Bytes payload = cursor.payload();
+                if (payload.remaining() > payloads.remaining()) {
+                    if (count == 0) {
+                        throw new BufferOverflowException();
+                    }
+                    break;
+                }
+                timestamps[count] = cursor.timestamp;
+                typeIds[count] = cursor.typeId();
+                RawEventBatchReader.copy(payload, payloads);
+                // the entry is consumed, the next call of hasNext() moves the reader on
+                events.positioned = false;
+                offsets[++count] = payloads.position();
+            }
+            return count == 0 && !events.hasNext() ? -1 : count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            events.close();
+        }
+    }
+
+    private class RawEvent implements RawEventContainer<T> {
+
+        private final EntryReader cursor;
+
+        private final long timestamp;
+
+        private final byte typeId;
+
+        private final Bytes payload;
+
+        private T event;
+
+        private boolean valid = true;
+
+        private RawEvent(EntryReader cursor, long timestamp, byte typeId, Bytes payload) {
+            this.cursor = cursor;
+            this.timestamp = timestamp;
+            this.typeId = typeId;
+            this.payload = payload;
+        }
+
+        private void checkValid() {
+            if (!valid) {
+                throw new IllegalStateException("The event isn't valid any more as its iterator was moved or closed");
+            }
+        }
+
+        @Override
+        public T getEvent() {
+            checkValid();
+            if (event == null) {
+                event = cursor.readEvent().getEvent();
+            }
+            return event;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public byte getTypeId() {
+            checkValid();
+            return typeId;
+        }
+
+        @Override
+        public Bytes getPayload() {
+            checkValid();
+            payload.position(0);
+            return payload;
+        }
+
+        @Override
+        public RawEventContainer<T> copy() {
+            checkValid();
+            byte[] serialized = new byte[1 + (int) payload.limit()];
+            serialized[0] = typeId;
+            payload.position(0);
+            payload.readFully(serialized, 1, serialized.length - 1);
+            return new CopiedRawEvent(serialized, timestamp, event);
+        }
+    }
+
+    /**
+     * A raw event holding a copy of the serialized event
+     */
+    private class CopiedRawEvent implements RawEventContainer<T> {
+
+        private final byte[] serialized;
+
+        private final long timestamp;
+
+        private T event;
+
+        private CopiedRawEvent(byte[] serialized, long timestamp, T event) {
+            this.serialized = serialized;
+            this.timestamp = timestamp;
+            this.event = event;
+        }
+
+        @Override
+        public T getEvent() {
+            if (event == null) {
+                event = serializationHelper.deserialize(serialized);
+            }
+            return event;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public byte getTypeId() {
+            return serialized[0];
+        }
+
+        @Override
+        public Bytes getPayload() {
+            return new ByteBufferBytes(ByteBuffer.wrap(serialized), 1, serialized.length - 1);
+        }
+
+        @Override
+        public RawEventContainer<T> copy() {
+            return this;
+        }
+    }
+
+    boolean hasChecksums() {
+        return checksums;
+    }
+
+    String basePath() {
+        return config.chronicleBasePath();
+    }
+
+    /**
+     * Verifies the checksums of all events stored before the call, reporting the ranges of excerpts holding
+     * corrupted events to the listener
+     *
+     * @param limiter  limits the rate of verified bytes
+     * @param listener the listener the results are reported to
+     * @param scrubber the scrubber running the verification, which is checked for being stopped
+     * @return false if the verification was stopped
+     * @throws IllegalStateException if the events don't have checksums
+     */
+    boolean verify(RateLimiter limiter, Scrubber.Listener listener, Scrubber scrubber) throws IOException {
+        if (!checksums) {
+            throw new IllegalStateException("The events of " + config.chronicleBasePath() + " don't have checksums");
+        }
+        String basePath = basePath();
+        long endIndex = chronicle.size();
+        long verified = 0;
+        long corrupted = 0;
+        long corruptedFrom = -1;
+        long corruptedTo = -1;
+        EntryReader verifier = new EntryReader();
+        try {
+            while (verifier.nextEntry() && verifier.eventIndex < endIndex) {
+                if (!scrubber.isRunning()) {
+                    return false;
+                }
+                limiter.acquire(Math.max(1, verifier.entrySize()));
+                verified++;
+                if (!verifier.checksumMatches()) {
+                    corrupted++;
+                    if (corruptedFrom >= 0 && verifier.eventIndex > corruptedTo + 1) {
+                        listener.corrupted(basePath, corruptedFrom, corruptedTo);
+                        corruptedFrom = -1;
+                    }
+                    if (corruptedFrom < 0) {
+                        corruptedFrom = verifier.eventIndex;
+                    }
+                    corruptedTo = verifier.reader.index();
+                }
+            }
+        } finally {
+            verifier.close();
+        }
+        if (corruptedFrom >= 0) {
+            listener.corrupted(basePath, corruptedFrom, corruptedTo);
+        }
+        listener.verified(basePath, verified, corrupted);
+        return true;
+    }
+
+    /**
+     * @return the type bytes of the serialized classes
+     */
+    Map<Class<? extends T>, Byte> classMapping() {
+        return classMapping;
+    }
+
+    int dataBlockSize() {
+        return chronicle.config().dataBlockSize();
+    }
+
+    /**
+     * Makes this store the follower of a replication, which appends the excerpts of the leader. Storing events is
+     * rejected until {@link #stopReplica()} is called.
+     *
+     * @throws IllegalStateException if the store is read only, caches recently stored events or is a replica already
+     */
+    void startReplica() throws IllegalStateException {
+        if (config.isReadOnly()) {
+            throw new IllegalStateException("The read only event store " + basePath() + " can't be a replica");
+        }
+        if (hotTail != null) {
+            // the hot tail cache only knows the events stored through this store
+            throw new IllegalStateException("The event store " + basePath() + " caches recently stored events and can't be a replica");
+        }
+        if (!replica.compareAndSet(false, true)) {
+            throw new IllegalStateException("The event store " + basePath() + " is a replica already");
+        }
+    }
+
+    void stopReplica() {
+        replica.set(false);
+    }
+
+    /**
+     * Appends excerpts copied verbatim from the chronicle of the leader of a replication. As the data blocks of both
+     * chronicles have the same size, the excerpts are padded the same way and keep their indices.
+     *
+     * @param indices  the indices of the excerpts in the chronicle of the leader
+     * @param excerpts the excerpts
+     * @param count    the number of excerpts
+     * @throws IOException if the excerpts don't get the same indices as in the chronicle of the leader
+     */
+    void appendReplicated(long[] indices, byte[][] excerpts, int count) throws IOException {
+        if (!replica.get()) {
+            throw new IllegalStateException("The event store " + basePath() + " isn't a replica");
+        }
+        synchronized (writeLock) {
+            if (appender == null) {
+                appender = chronicle.createAppender();
+            }
+            long first = chronicle.size();
+            long bytes = 0;
+            try {
+                for (int i = 0; i < count; i++) {
+                    appender.startExcerpt(excerpts[i].length);
+                    appender.write(excerpts[i]);
+                    appender.finish();
+                    bytes += excerpts[i].length;
+                    if (chronicle.size() - 1 != indices[i]) {
+                        throw new IOException("The replica " + basePath() + " diverged from its leader, excerpt "
+                                + indices[i] + " of the leader got the index " + (chronicle.size() - 1));
+                    }
+                }
+            } finally {
+                header.appended(chronicle.size(), bytes, countEvents(first, chronicle.size()));
+                signal.publish(chronicle.size());
+            }
+            for (EventIndex<T> index : indexes.values()) {
+                catchUp(index);
+            }
+        }
+        if (flusher != null) {
+            flusher.batchStored(count);
+        }
+    }
+
+    /**
+     * Reads the raw excerpts of the chronicle for replicating them. The chronicle stays open until the reader is
+     * closed.
+     */
+    class ExcerptReader implements Closeable {
+
+        private final ExcerptTailer tailer;
+
+        /**
+         * The index of the excerpt the reader is moved to next
+         */
+        private long nextIndex;
+
+        private boolean closed = false;
+
+        ExcerptReader(long startIndex) throws IOException {
+            this.nextIndex = startIndex;
+            lifecycle.retain();
+            try {
+                tailer = chronicle.createTailer();
+            } catch (IOException e) {
+                lifecycle.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Moves to the next excerpt, skipping padding
+         *
+         * @return false if there is no further excerpt yet
+         */
+        boolean next() {
+            long index = moveTailer(tailer, nextIndex);
+            if (index < 0) {
+                return false;
+            }
+            nextIndex = index + 1;
+            return true;
+        }
+
+        long index() {
+            return nextIndex - 1;
+        }
+
+        /**
+         * Copies the current excerpt
+         */
+        byte[] read() {
+            byte[] excerpt = new byte[(int) tailer.remaining()];
+            tailer.readFully(excerpt);
+            tailer.finish();
+            return excerpt;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                try {
+                    tailer.close();
+                } finally {
+                    lifecycle.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * A view on the payload of an excerpt which can be moved to another excerpt without creating a new object
+     */
+    private static class PayloadBytes extends NativeBytes {
+
+        private PayloadBytes() {
+            super(NO_PAGE, NO_PAGE);
+        }
+
+        private void wrap(long start, long end) {
+            positionAddr = startAddr = start;
+            limitAddr = capacityAddr = end;
+        }
+    }
 }
@@ -0,0 +1,235 @@
+package de.uniluebeck.itm.eventstore;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class of event stores consisting of several event stores. Every event is stored in one of the parts,
+ * which is selected by the subclass. Reading merges the parts by timestamp, so that they appear as a single store.
+ */
+abstract class CompositeEventStore<T> implements EventStore<T> {
+
+    protected final List<EventStore<T>> parts;
+
+    protected CompositeEventStore(List<EventStore<T>> parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * Selects the part an event is stored in
+     */
+    protected abstract EventStore<T> partFor(T object);
+
+    @Override
+    public void storeEvent(@Nonnull T object) throws IOException, UnsupportedOperationException, IllegalArgumentException {
+        partFor(object).storeEvent(object);
+    }
+
+    @Override
+    public void storeEvent(@Nonnull T object, long timestamp) throws IOException, UnsupportedOperationException, IllegalArgumentException {
+        partFor(object).storeEvent(object, timestamp);
+    }
+
+    @Override
+    public void storeEvent(@Nonnull T object, Class<T> type) throws IOException, UnsupportedOperationException, IllegalArgumentException {
+        partFor(object).storeEvent(object, type);
+    }
+
+    @Override
+    public void storeEvent(@Nonnull T object, Class<T> type, long timestamp) throws IOException, UnsupportedOperationException, IllegalArgumentException {
+        partFor(object).storeEvent(object, type, timestamp);
+    }
+
+    @Override
+    public void storeEvents(@Nonnull Iterable<? extends T> objects) throws IOException, UnsupportedOperationException, IllegalArgumentException {
+        Map<EventStore<T>, List<T>> batches = new LinkedHashMap<EventStore<T>, List<T>>();
+        for (T object : objects) {
+            EventStore<T> part = partFor(object);
+            List<T> batch = batches.get(part);
+            if (batch == null) {
+                batch = new ArrayList<T>();
+                batches.put(part, batch);
+            }
+            batch.add(object);
+        }
+        for (Map.Entry<EventStore<T>, List<T>> batch : batches.entrySet()) {
+            batch.getKey().storeEvents(batch.getValue());
+        }
+    }
+
+    @Override
+    public CloseableIterator<EventContainer<T>> getEventsBetweenTimestamps(final long fromTime, final long toTime) throws IOException {
+        return merge(parts, new Query<T, EventContainer<T>>() {
+            @Override
+            public CloseableIterator<EventContainer<T>> open(EventStore<T> store) throws IOException {
+                return store.getEventsBetweenTimestamps(fromTime, toTime);
+            }
+        }, false);
+    }
+
+    @Override
+    public CloseableIterator<EventContainer<T>> getEventsBetweenTimestamps(final long fromTime, final long toTime, final RawEventPredicate predicate) throws IOException {
+        return merge(parts, new Query<T, EventContainer<T>>() {
+            @Override
+            public CloseableIterator<EventContainer<T>> open(EventStore<T> store) throws IOException {
+                return store.getEventsBetweenTimestamps(fromTime, toTime, predicate);
+            }
+        }, false);
+    }
+
+    /**
+     * The iterators of the parts are moved independently of each other by merging, so the events are copied.
+     */
+    @Override
+    public CloseableIterator<RawEventContainer<T>> getRawEventsBetweenTimestamps(final long fromTime, final long toTime) throws IOException {
+        return merge(parts, new Query<T, RawEventContainer<T>>() {
+            @Override
+            public CloseableIterator<RawEventContainer<T>> open(EventStore<T> store) throws IOException {
+                return new CopyingRawEventIterator<T>(store.getRawEventsBetweenTimestamps(fromTime, toTime));
+            }
+        }, false);
+    }
+
+    @Override
+    public EventBatchReader getEventBatchReader(long fromTime, long toTime) throws IOException {
+        return new RawEventBatchReader<T>(getRawEventsBetweenTimestamps(fromTime, toTime));
+    }
+
+    @Override
+    public CloseableIterator<EventContainer<T>> getEventsFromTimestamp(final long fromTime) throws IOException {
+        return merge(parts, new Query<T, EventContainer<T>>() {
+            @Override
+            public CloseableIterator<EventContainer<T>> open(EventStore<T> store) throws IOException {
+                return store.getEventsFromTimestamp(fromTime);
+            }
+        }, true);
+    }
+
+    @Override
+    public CloseableIterator<EventContainer<T>> getAllEvents() throws IOException {
+        return merge(parts, new Query<T, EventContainer<T>>() {
+            @Override
+            public CloseableIterator<EventContainer<T>> open(EventStore<T> store) throws IOException {
+                return store.getAllEvents();
+            }
+        }, true);
+    }
+
+    @Override
+    public CloseableIterator<EventContainer<T>> getEventsForKey(final String indexName, final Object key, final long fromTime, final long toTime) throws IOException, IllegalArgumentException {
+        return merge(parts, new Query<T, EventContainer<T>>() {
+            @Override
+            public CloseableIterator<EventContainer<T>> open(EventStore<T> store) throws IOException {
+                return store.getEventsForKey(indexName, key, fromTime, toTime);
+            }
+        }, false);
+    }
+
+    /**
+     * Opens an iterator on each of the given stores and merges them by timestamp
+     */
+    static <T, E extends EventContainer<T>> CloseableIterator<E> merge(List<? extends EventStore<T>> parts, Query<T, E> query, boolean live) throws IOException {
+        List<CloseableIterator<E>> iterators = new ArrayList<CloseableIterator<E>>(parts.size());
+        try {
+            for (EventStore<T> part : parts) {
+                iterators.add(query.open(part));
+            }
+        } catch (IOException e) {
+            closeQuietly(iterators);
+            throw e;
+        } catch (RuntimeException e) {
+            closeQuietly(iterators);
+            throw e;
+        }
+        return new MergingEventIterator<E>(iterators, live);
+    }
+
+    private static void closeQuietly(List<? extends CloseableIterator<?>> iterators) {
+        for (CloseableIterator<?> iterator : iterators) {
+            try {
+                iterator.close();
+            } catch (IOException e) {
+                // the original exception is more important
+            }
+        }
+    }
+
+    @Override
+    public long actualPayloadByteSize() throws IOException {
+        long size = 0;
+        for (EventStore<T> part : parts) {
+            size += part.actualPayloadByteSize();
+        }
+        return size;
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (EventStore<T> part : parts) {
+            size += part.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (EventStore<T> part : parts) {
+            try {
+                part.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    interface Query<T, E extends EventContainer<T>> {
+
+        CloseableIterator<E> open(EventStore<T> store) throws IOException;
+    }
+
+    /**
+     * Returns copies of the raw events of another iterator, which stay valid when the iterator is moved on
+     */
+    private static class CopyingRawEventIterator<T> implements CloseableIterator<RawEventContainer<T>> {
+
+        private final CloseableIterator<RawEventContainer<T>> source;
+
+        private CopyingRawEventIterator(CloseableIterator<RawEventContainer<T>> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return source.hasNext();
+        }
+
+        @Override
+        public RawEventContainer<T> next() {
+            return source.next().copy();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+}
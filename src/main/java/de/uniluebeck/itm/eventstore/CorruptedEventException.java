@@ -0,0 +1,25 @@
+package de.uniluebeck.itm.eventstore;
+
+/**
+ * Thrown by the iterators of an event store with checksums if the checksum of an event doesn't match the event
+ *
+ * @see EventStoreFactory#withChecksums(boolean)
+ */
+public class CorruptedEventException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long excerptIndex;
+
+    public CorruptedEventException(String basePath, long excerptIndex) {
+        super("The event at excerpt index " + excerptIndex + " of the event store " + basePath + " is corrupted");
+        this.excerptIndex = excerptIndex;
+    }
+
+    /**
+     * @return the index of the (first) excerpt of the corrupted event
+     */
+    public long getExcerptIndex() {
+        return excerptIndex;
+    }
+}
@@ -0,0 +1,56 @@
+package de.uniluebeck.itm.eventstore;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * An event store for series of double values, e.g. numeric samples, which are stored as fixed size records of a
+ * timestamp and the value, without serializers. Events have to be stored in the order of their timestamps, so that
+ * the first event of a time range is found without scanning.
+ *
+ * @see EventStoreFactory#buildDoubleEventStore()
+ */
+public interface DoubleEventStore extends Closeable {
+
+    /**
+     * Stores a value with a specific timestamp
+     *
+     * @param timestamp the timestamp, which must not be less than the timestamp of the last stored event
+     * @param value     the value
+     * @throws IOException                   if the underlying stream is broken
+     * @throws UnsupportedOperationException if the store is opened in read only mode
+     * @throws IllegalArgumentException      if the timestamp is less than the timestamp of the last stored event
+     */
+    void storeEvent(long timestamp, double value) throws IOException, UnsupportedOperationException, IllegalArgumentException;
+
+    /**
+     * Getting a cursor for the events between two timestamps. The cursor picks up events stored after its creation
+     * if they are in the time range.
+     *
+     * @param fromTime the start time (inclusive)
+     * @param toTime   the end time (inclusive)
+     * @return a cursor for sequential read access
+     */
+    DoubleEventCursor getEventsBetweenTimestamps(long fromTime, long toTime);
+
+    /**
+     * Getting a cursor for all events in the storage
+     *
+     * @return a cursor for sequential read access starting with the first event in the storage
+     */
+    DoubleEventCursor getAllEvents();
+
+    /**
+     * Forces the stored events to disk
+     *
+     * @throws IOException if the underlying stream is broken
+     */
+    void flush() throws IOException;
+
+    /**
+     * @return the number of stored events
+     */
+    long size();
+
+    boolean isEmpty();
+}
@@ -0,0 +1,61 @@
+package de.uniluebeck.itm.eventstore;
+
+import java.io.IOException;
+
+class DoubleEventStoreImpl implements DoubleEventStore {
+
+    static final int KIND = 2;
+
+    private final FixedSizeRecordFile records;
+
+    DoubleEventStoreImpl(FixedSizeRecordFile records) {
+        this.records = records;
+    }
+
+    @Override
+    public void storeEvent(long timestamp, double value) throws IOException, UnsupportedOperationException, IllegalArgumentException {
+        records.append(timestamp, Double.doubleToRawLongBits(value));
+    }
+
+    @Override
+    public DoubleEventCursor getEventsBetweenTimestamps(long fromTime, long toTime) {
+        return new Cursor(records, fromTime, toTime);
+    }
+
+    @Override
+    public DoubleEventCursor getAllEvents() {
+        return new Cursor(records, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        records.force();
+    }
+
+    @Override
+    public long size() {
+        return records.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        records.close();
+    }
+
+    private static class Cursor extends FixedSizeRecordFile.Cursor implements DoubleEventCursor {
+
+        private Cursor(FixedSizeRecordFile records, long fromTime, long toTime) {
+            super(records, fromTime, toTime);
+        }
+
+        @Override
+        public double value() {
+            return Double.longBitsToDouble(bits());
+        }
+    }
+}
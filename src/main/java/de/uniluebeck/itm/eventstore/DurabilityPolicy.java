@@ -0,0 +1,82 @@
+package de.uniluebeck.itm.eventstore;
+
+/**
+ * The durability policy defines when events appended to an event store are forced to disk.
+ * <p/>
+ * Forcing is always done by a background thread, so writers never block on it. If several events are
+ * appended while a force is running, they are covered by a single force afterwards.
+ */
+public class DurabilityPolicy {
+
+    public enum Mode {
+        /**
+         * The operating system decides when the mapped files are written back
+         */
+        OS_MANAGED,
+        /**
+         * The mapped files are forced periodically if events were appended since the last force
+         */
+        PERIODIC,
+        /**
+         * The mapped files are forced after a given number of appended events
+         */
+        EVERY_N_EVENTS,
+        /**
+         * The mapped files are forced after each call of {@link EventStore#storeEvents(Iterable)} and
+         * {@link EventStore#storeEvent}
+         */
+        PER_BATCH
+    }
+
+    private static final DurabilityPolicy OS_MANAGED = new DurabilityPolicy(Mode.OS_MANAGED, 0);
+
+    private static final DurabilityPolicy PER_BATCH = new DurabilityPolicy(Mode.PER_BATCH, 0);
+
+    private final Mode mode;
+
+    private final long value;
+
+    private DurabilityPolicy(Mode mode, long value) {
+        this.mode = mode;
+        this.value = value;
+    }
+
+    public static DurabilityPolicy osManaged() {
+        return OS_MANAGED;
+    }
+
+    public static DurabilityPolicy periodic(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("The interval must be positive but was " + intervalMillis);
+        }
+        return new DurabilityPolicy(Mode.PERIODIC, intervalMillis);
+    }
+
+    public static DurabilityPolicy everyEvents(int events) {
+        if (events <= 0) {
+            throw new IllegalArgumentException("The number of events must be positive but was " + events);
+        }
+        return new DurabilityPolicy(Mode.EVERY_N_EVENTS, events);
+    }
+
+    public static DurabilityPolicy perBatch() {
+        return PER_BATCH;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * @return the interval in milliseconds for {@link Mode#PERIODIC}, the number of events for
+     * {@link Mode#EVERY_N_EVENTS} and 0 otherwise
+     */
+    public long value() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "DurabilityPolicy{" + mode + (value > 0 ? ", " + value : "") + "}";
+    }
+}
@@ -0,0 +1,37 @@
+package de.uniluebeck.itm.eventstore;
+
+import java.io.Closeable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Copies the serialized form of consecutive events into buffers owned by the caller, which can be reused for every
+ * batch. This avoids allocating a container per event and the virtual calls of iterating event by event, e.g. for
+ * exporting events into columnar formats.
+ *
+ * @see EventStore#getEventBatchReader(long, long)
+ */
+public interface EventBatchReader extends Closeable {
+
+    /**
+     * Copies up to {@code max} events. Event {@code i} of the batch gets its timestamp stored in {@code timestamps[i]}
+     * and its type byte in {@code typeIds[i]}, its payload (the serialized event as returned by its serializer) is
+     * put into {@code payloads} between the positions {@code offsets[i]} (inclusive) and {@code offsets[i + 1]}
+     * (exclusive). The position of {@code payloads} is advanced behind the last payload.
+     * <p/>
+     * The batch is limited by the lengths of the arrays and ends before the first event whose payload doesn't fit
+     * into the remaining space of {@code payloads}, which is returned by the next call instead.
+     *
+     * @param timestamps receives the timestamps
+     * @param typeIds    receives the bytes the classes of the events are mapped to in the {@code <base path>.mapping} file
+     * @param payloads   receives the payloads
+     * @param offsets    receives the start positions of the payloads and the end position of the last one, so it has
+     *                   to hold one element more than the batch
+     * @param max        the maximum number of events to copy
+     * @return the number of copied events or -1 if all events in the time range stored so far were read, in which
+     * case a reader of a single event store may return events stored afterwards on later calls. 0 is only returned if
+     * {@code max} is 0.
+     * @throws BufferOverflowException if the payload of the next event doesn't fit into an empty batch
+     */
+    int readBatch(long[] timestamps, byte[] typeIds, ByteBuffer payloads, int[] offsets, int max);
+}
@@ -0,0 +1,193 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A least recently used cache of deserialized events, which the iterators of an event store check before
+ * deserializing an event. This pays off if the same ranges of events are read repeatedly.
+ * <p/>
+ * The cache is bounded by the number of events and by the estimated number of bytes they occupy, which is the size
+ * of their serialized form plus a fixed overhead per entry. A cache may be shared by several event stores to bound
+ * their total memory usage. The cached events are returned by several iterators and must not be modified.
+ * <p/>
+ * Lookups don't lock the cache. Large caches are divided into up to {@link #MAX_SEGMENTS} segments which are locked
+ * and bounded separately when events are added, so that the least recently used events are evicted per segment.
+ *
+ * @see EventStoreFactory#withEventCache(EventCache)
+ */
+public class EventCache {
+
+    /**
+     * The estimated number of bytes occupied by an entry in addition to the serialized event
+     */
+    static final int ENTRY_OVERHEAD = 64;
+
+    /**
+     * The maximum number of segments of a cache
+     */
+    static final int MAX_SEGMENTS = 16;
+
+    /**
+     * The minimum number of events per segment
+     */
+    private static final int MIN_SEGMENT_ENTRIES = 1024;
+
+    /**
+     * The weight of an entry with respect to the bound of the number of entries. Heavier entries are the ones whose
+     * share of the bound of the bytes is larger than their share of the bound of the entries.
+     */
+    private static final int ENTRY_WEIGHT = 1024;
+
+    private final double weightPerByte;
+
+    private final Cache<Key, Entry> entries;
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * @param maxEntries the maximum number of cached events
+     * @param maxBytes   the maximum estimated number of bytes occupied by the cached events
+     */
+    public EventCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("The bounds of the cache must be positive but were " + maxEntries
+                    + " entries and " + maxBytes + " bytes");
+        }
+        this.weightPerByte = (double) maxEntries * ENTRY_WEIGHT / maxBytes;
+        this.entries = CacheBuilder.newBuilder()
+                .concurrencyLevel(Math.max(1, Math.min(MAX_SEGMENTS, maxEntries / MIN_SEGMENT_ENTRIES)))
+                .maximumWeight((long) maxEntries * ENTRY_WEIGHT)
+                .weigher(new Weigher<Key, Entry>() {
+                    @Override
+                    public int weigh(Key key, Entry entry) {
+                        return weight(entry.bytes);
+                    }
+                })
+                .removalListener(new RemovalListener<Key, Entry>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Key, Entry> notification) {
+                        bytes.addAndGet(-notification.getValue().bytes);
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    private int weight(int bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(ENTRY_WEIGHT, (long) (bytes * weightPerByte)));
+    }
+
+    /**
+     * @param owner        the object identifying the event store
+     * @param excerptIndex the index of the (first) excerpt holding the event
+     * @return the cached event or null
+     */
+    Object get(Object owner, long excerptIndex) {
+        Entry entry = entries.getIfPresent(new Key(owner, excerptIndex));
+        return entry == null ? null : entry.event;
+    }
+
+    /**
+     * @param owner           the object identifying the event store
+     * @param excerptIndex    the index of the (first) excerpt holding the event
+     * @param event           the deserialized event
+     * @param serializedBytes the size of the serialized event
+     */
+    void put(Object owner, long excerptIndex, Object event, int serializedBytes) {
+        Entry entry = new Entry(event, serializedBytes + ENTRY_OVERHEAD);
+        bytes.addAndGet(entry.bytes);
+        entries.put(new Key(owner, excerptIndex), entry);
+    }
+
+    /**
+     * Removes all events from the cache
+     */
+    public void invalidateAll() {
+        entries.invalidateAll();
+    }
+
+    /**
+     * @return the number of lookups which found a cached event
+     */
+    public long hitCount() {
+        return entries.stats().hitCount();
+    }
+
+    /**
+     * @return the number of lookups which didn't find a cached event
+     */
+    public long missCount() {
+        return entries.stats().missCount();
+    }
+
+    /**
+     * @return the number of events removed to stay within the bounds of the cache
+     */
+    public long evictionCount() {
+        return entries.stats().evictionCount();
+    }
+
+    /**
+     * @return the number of cached events
+     */
+    public int size() {
+        return (int) entries.size();
+    }
+
+    /**
+     * @return the estimated number of bytes occupied by the cached events
+     */
+    public long estimatedBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "EventCache{size=" + size() + ", bytes=" + estimatedBytes() + ", hits=" + hitCount() + ", misses="
+                + missCount() + ", evictions=" + evictionCount() + "}";
+    }
+
+    private static class Key {
+
+        private final Object owner;
+
+        private final long excerptIndex;
+
+        private Key(Object owner, long excerptIndex) {
+            this.owner = owner;
+            this.excerptIndex = excerptIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return owner == key.owner && excerptIndex == key.excerptIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(owner) + (int) (excerptIndex ^ (excerptIndex >>> 32));
+        }
+    }
+
+    private static class Entry {
+
+        private final Object event;
+
+        private final int bytes;
+
+        private Entry(Object event, int bytes) {
+            this.event = event;
+            this.bytes = bytes;
+        }
+    }
+}
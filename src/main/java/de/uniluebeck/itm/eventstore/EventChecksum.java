@@ -0,0 +1,166 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+/**
+ * The CRC32C checksums stored behind the serialized events of an event store. The checksum covers the serialized
+ * event and its timestamp. It is computed by {@code java.util.zip.CRC32C}, which is hardware accelerated, if the JVM
+ * provides it (Java 9 and later), and by a table driven implementation otherwise.
+ * <p/>
+ * Whether the events of a store have checksums is recorded in the file {@code <base path>.checksum}, as it can't be
+ * changed once events were stored.
+ */
+final class EventChecksum {
+
+    private static Logger log = LoggerFactory.getLogger(EventChecksum.class);
+
+    /**
+     * The size of the checksum stored behind each event
+     */
+    static final int SIZE = Integer.SIZE / Byte.SIZE;
+
+    private static final String ALGORITHM = "CRC32C";
+
+    private static final Constructor<? extends Checksum> JDK_CRC32C = findJdkCrc32c();
+
+    private EventChecksum() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Constructor<? extends Checksum> findJdkCrc32c() {
+        try {
+            return (Constructor<? extends Checksum>) Class.forName("java.util.zip.CRC32C").getConstructor();
+        } catch (Exception e) {
+            log.debug("java.util.zip.CRC32C is not available, using a table driven implementation");
+            return null;
+        }
+    }
+
+    /**
+     * Checks if the events of a store have checksums, enabling them for a new store if requested
+     *
+     * @param basePath  the base path of the store
+     * @param requested if checksums are requested by the configuration
+     * @param empty     if the store doesn't contain any events yet
+     * @param readOnly  if the store is opened in read only mode
+     * @return true if the events have checksums
+     * @throws IOException if the checksum file can't be read or written
+     */
+    static boolean isEnabled(String basePath, boolean requested, boolean empty, boolean readOnly) throws IOException {
+        File file = new File(basePath + ".checksum");
+        if (file.exists()) {
+            String algorithm = Files.toString(file, Charsets.UTF_8).trim();
+            if (!ALGORITHM.equals(algorithm)) {
+                throw new IOException("The checksum algorithm " + algorithm + " of " + basePath + " is not supported");
+            }
+            return true;
+        }
+        if (requested) {
+            if (!empty || readOnly) {
+                log.warn("Checksums can only be enabled for new event stores, the events of {} have none", basePath);
+                return false;
+            }
+            Files.write(ALGORITHM, file, Charsets.UTF_8);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Creates a checksum, which must only be used by a single thread
+     */
+    static Checksum create() {
+        if (JDK_CRC32C != null) {
+            try {
+                return JDK_CRC32C.newInstance();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+        return new PureJavaCrc32c();
+    }
+
+    /**
+     * Computes the checksum of a serialized event
+     */
+    static int compute(Checksum checksum, byte[] serialized, int offset, int length, long timestamp) {
+        checksum.reset();
+        checksum.update(serialized, offset, length);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            checksum.update((int) (timestamp >>> shift));
+        }
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * Appends the checksum to a serialized event which is stored in chunks, in the byte order of the chronicle
+     */
+    static byte[] withChecksum(byte[] serialized, int checksum) {
+        byte[] result = Arrays.copyOf(serialized, serialized.length + SIZE);
+        ByteBuffer.wrap(result).order(ByteOrder.nativeOrder()).putInt(serialized.length, checksum);
+        return result;
+    }
+
+    /**
+     * Reads the checksum appended to a reassembled chunked event
+     */
+    static int checksumOf(byte[] serializedWithChecksum) {
+        return ByteBuffer.wrap(serializedWithChecksum).order(ByteOrder.nativeOrder())
+                .getInt(serializedWithChecksum.length - SIZE);
+    }
+
+    /**
+     * CRC32C (Castagnoli) for JVMs without {@code java.util.zip.CRC32C}
+     */
+    static class PureJavaCrc32c implements Checksum {
+
+        private static final int[] TABLE = new int[256];
+
+        static {
+            for (int i = 0; i < TABLE.length; i++) {
+                int crc = i;
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+                }
+                TABLE[i] = crc;
+            }
+        }
+
+        private int crc = 0xFFFFFFFF;
+
+        @Override
+        public void update(int b) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            int crc = this.crc;
+            for (int i = off; i < off + len; i++) {
+                crc = (crc >>> 8) ^ TABLE[(crc ^ b[i]) & 0xFF];
+            }
+            this.crc = crc;
+        }
+
+        @Override
+        public long getValue() {
+            return ~crc & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public void reset() {
+            crc = 0xFFFFFFFF;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package de.uniluebeck.itm.eventstore;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * An index over the events of a store, which is updated whenever an event is stored. Indexes are caught up with
+ * the events appended while they weren't open, so they never have to be forced to disk together with the chronicle.
+ */
+interface EventIndex<T> extends Closeable {
+
+    /**
+     * @return the name the index was registered with
+     */
+    String name();
+
+    /**
+     * Extracts the key of an event
+     */
+    Object keyOf(T event);
+
+    /**
+     * @return the index of the first excerpt which isn't indexed yet
+     */
+    long indexedUntil();
+
+    /**
+     * @return if the index can't take further events without writing its file, which only happens in read only mode.
+     * The events from {@link #indexedUntil()} on have to be found by scanning the chronicle then.
+     */
+    boolean isFull();
+
+    /**
+     * Adds an event to the index. Events have to be added in the order of their excerpt indices. The key is
+     * extracted by {@link #keyOf(Object)} before the event is appended, so a failing key extractor doesn't leave
+     * an appended event out of the index.
+     *
+     * @param key          the key of the event
+     * @param excerptIndex the index of the (first) excerpt holding the event
+     * @param timestamp    the timestamp of the event
+     * @throws IOException if the index couldn't be written
+     */
+    void add(Object key, long excerptIndex, long timestamp) throws IOException;
+
+    /**
+     * Marks all excerpts below the given index as indexed
+     */
+    void setIndexedUntil(long indexedUntil) throws IOException;
+
+    /**
+     * Reads what another process wrote to the files of the index since it was opened. Only used in read only mode.
+     *
+     * @throws IOException if the files can't be read
+     */
+    void reload() throws IOException;
+}
@@ -12,12 +12,13 @@ public interface EventStore<T> extends Closeable {
     /**
      * Method for storing an object
      * <p/>
-     * When using this method, the events timestamp is set to the current system time
+     * When using this method, the events timestamp is set to the current system time.
+     * Objects whose serialized form is larger than the data block size are split into several entries.
      *
      * @param object an object to store
      * @throws java.io.IOException                     if the stream is broken or the event couldn't be serialized
      * @throws java.lang.UnsupportedOperationException if the event store is in read only mode
-     * @throws java.lang.IllegalArgumentException      if the provided objects serialized form is larger than the block size of this event store
+     * @throws java.lang.IllegalArgumentException      if the data block size of this event store is too small for storing events
      */
     void storeEvent(@Nonnull final T object) throws IOException, UnsupportedOperationException, IllegalArgumentException;
 
@@ -32,7 +33,7 @@ public interface EventStore<T> extends Closeable {
      * @param timestamp the events timestamp
      * @throws java.io.IOException                     if the stream is broken or the event couldn't be serialized
      * @throws java.lang.UnsupportedOperationException if the event store is in read only mode
-     * @throws java.lang.IllegalArgumentException      if the provided objects serialized form is larger than the block size of this event store
+     * @throws java.lang.IllegalArgumentException      if the timestamp is one of the reserved values below {@code Long.MIN_VALUE + 8}
      */
     void storeEvent(@Nonnull final T object, long timestamp) throws IOException, UnsupportedOperationException, IllegalArgumentException;
 
@@ -45,7 +46,7 @@ public interface EventStore<T> extends Closeable {
      * @param type   the type for which the serializer is stored.
      * @throws java.io.IOException                     if the stream is broken or the event couldn't be serialized
      * @throws java.lang.UnsupportedOperationException if the event store is in read only mode
-     * @throws java.lang.IllegalArgumentException      if the provided objects serialized form is larger than the block size of this event store
+     * @throws java.lang.IllegalArgumentException      if the data block size of this event store is too small for storing events
      */
     void storeEvent(@Nonnull final T object, final Class<T> type) throws IOException, UnsupportedOperationException, IllegalArgumentException;
 
@@ -61,12 +62,30 @@ public interface EventStore<T> extends Closeable {
      * @param timestamp the events timestamp
      * @throws java.io.IOException                     if the stream is broken or the event couldn't be serialized
      * @throws java.lang.UnsupportedOperationException if the event store is in read only mode
-     * @throws java.lang.IllegalArgumentException      if the provided objects serialized form is larger than the block size of this event store
+     * @throws java.lang.IllegalArgumentException      if the timestamp is one of the reserved values below {@code Long.MIN_VALUE + 8}
      */
     void storeEvent(@Nonnull final T object, final Class<T> type, long timestamp) throws IOException, UnsupportedOperationException, IllegalArgumentException;
 
+    /**
+     * Method for storing several objects at once
+     * <p/>
+     * When using this method, the timestamp of each event is set to the current system time. The objects are
+     * stored without being interleaved with events of other writers. An event store using the
+     * {@link DurabilityPolicy#perBatch()} durability policy forces the batch to disk afterwards.
+     *
+     * @param objects the objects to store
+     * @throws java.io.IOException                     if the stream is broken or an event couldn't be serialized
+     * @throws java.lang.UnsupportedOperationException if the event store is in read only mode
+     * @throws java.lang.IllegalArgumentException      if the data block size of this event store is too small for storing events
+     */
+    void storeEvents(@Nonnull final Iterable<? extends T> objects) throws IOException, UnsupportedOperationException, IllegalArgumentException;
+
     /**
      * Getting an iterator for events between two timestamps
+     * <p/>
+     * Unless the store was built with a hot tail cache, an event cache or shared scans, every iterator returns its
+     * own deserialized copies of the events. Otherwise the returned events may be the objects passed for storing them
+     * or shared with other iterators, and must not be modified.
      *
      * @param fromTime the start time (inclusive)
      * @param toTime   the end time (inclusive)
@@ -75,6 +94,44 @@ public interface EventStore<T> extends Closeable {
      */
     CloseableIterator<EventContainer<T>> getEventsBetweenTimestamps(long fromTime, long toTime) throws IOException;
 
+    /**
+     * Getting an iterator for the events between two timestamps which match a predicate on their serialized form
+     * <p/>
+     * The predicate is evaluated before an event is copied or deserialized, so events which don't match are
+     * skipped at little cost.
+     *
+     * @param fromTime  the start time (inclusive)
+     * @param toTime    the end time (inclusive)
+     * @param predicate the predicate the serialized events have to match
+     * @return an iterator for sequential read access
+     * @throws java.io.IOException if the underlying stream is broken
+     */
+    CloseableIterator<EventContainer<T>> getEventsBetweenTimestamps(long fromTime, long toTime, RawEventPredicate predicate) throws IOException;
+
+    /**
+     * Getting an iterator for the events between two timestamps which exposes the serialized form of the events
+     * <p/>
+     * The payload of the returned containers is a view on the memory the store is mapped to, so events can be
+     * forwarded without copying or deserializing them. The view and the container are only valid until the next call
+     * of a method of the iterator, see {@link RawEventContainer} for details.
+     *
+     * @param fromTime the start time (inclusive)
+     * @param toTime   the end time (inclusive)
+     * @return an iterator for sequential read access
+     * @throws java.io.IOException if the underlying stream is broken
+     */
+    CloseableIterator<RawEventContainer<T>> getRawEventsBetweenTimestamps(long fromTime, long toTime) throws IOException;
+
+    /**
+     * Getting a reader copying the serialized events between two timestamps batch by batch
+     *
+     * @param fromTime the start time (inclusive)
+     * @param toTime   the end time (inclusive)
+     * @return a reader for sequential read access, which has to be closed
+     * @throws java.io.IOException if the underlying stream is broken
+     */
+    EventBatchReader getEventBatchReader(long fromTime, long toTime) throws IOException;
+
     /**
      * Getting an iterator for events from a given timestamp until the last event in the storage
      *
@@ -94,13 +151,34 @@ public interface EventStore<T> extends Closeable {
     CloseableIterator<EventContainer<T>> getAllEvents() throws IOException;
 
 
+    /**
+     * Getting an iterator for the events with a given key between two timestamps
+     * <p/>
+     * The key of an event is extracted by the key index registered by
+     * {@link EventStoreFactory#withKeyIndex(String, com.google.common.base.Function)} or the key Bloom filter
+     * registered by {@link EventStoreFactory#withKeyBloomFilter(String, com.google.common.base.Function)}. Only the
+     * events the index refers to or the segments the Bloom filter considers to contain the key are read.
+     *
+     * @param indexName the name of the key index
+     * @param key       the key of the events
+     * @param fromTime  the start time (inclusive)
+     * @param toTime    the end time (inclusive)
+     * @return an iterator for sequential read access
+     * @throws java.io.IOException                if the underlying stream is broken
+     * @throws java.lang.IllegalArgumentException if there is no key index or key Bloom filter with the given name
+     */
+    CloseableIterator<EventContainer<T>> getEventsForKey(String indexName, Object key, long fromTime, long toTime) throws IOException, IllegalArgumentException;
+
     /**
      * @see de.uniluebeck.itm.eventstore.chronicle.ChronicleAnalyzer#actualPayloadByteSize() for a description
      */
     long actualPayloadByteSize() throws IOException;
 
     /**
-     * Getter for the number of entries in this store
+     * Getter for the number of events in this store
+     * <p/>
+     * Events which are larger than the data block size are counted once, although they occupy more than one entry.
+     * Events torn by a crash, which are skipped by the iterators, aren't counted.
      *
      * @return the number of events in this store
      */
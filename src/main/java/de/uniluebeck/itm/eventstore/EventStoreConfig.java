@@ -9,9 +9,10 @@ import net.openhft.chronicle.VanillaChronicle;
 import net.openhft.chronicle.VanillaChronicleConfig;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
-class EventStoreConfig<T> {
+class EventStoreConfig<T> implements Cloneable {
 
     private String chronicleBasePath;
     private boolean readOnly;
@@ -19,6 +20,22 @@ class EventStoreConfig<T> {
     private boolean cycling;
     private Map<Class<? extends T>, Function<? extends T, byte[]>> serializers;
     private Map<Class<? extends T>, Function<byte[], ? extends T>> deserializers;
+    private DurabilityPolicy durabilityPolicy;
+    private boolean recordingAllocationSites;
+    private int writerStripes;
+    private Function<? super T, ?> shardKeyExtractor;
+    private int shards;
+    private Map<String, Function<? super T, ?>> keyIndexes;
+    private Map<String, Function<? super T, ?>> keyBloomFilters;
+    private int bloomFilterSegmentSize;
+    private boolean snapshotIterators;
+    private int hotTailCacheSize;
+    private EventCache eventCache;
+    private boolean sharedScans;
+    private boolean checksums;
+    private int prefaultedBlocks;
+    private long warmUpBytes;
+    private long readAheadBytes;
 
     private VanillaChronicleConfig vanillaChronicleConfig;
     private ChronicleConfig defaultChronicleConfig;
@@ -30,6 +47,38 @@ class EventStoreConfig<T> {
         readOnly = false;
         monotonic = true;
         cycling = false;
+        durabilityPolicy = DurabilityPolicy.osManaged();
+        recordingAllocationSites = false;
+        writerStripes = 1;
+        shards = 1;
+        keyIndexes = new LinkedHashMap<String, Function<? super T, ?>>();
+        keyBloomFilters = new LinkedHashMap<String, Function<? super T, ?>>();
+        bloomFilterSegmentSize = 4096;
+        snapshotIterators = false;
+        hotTailCacheSize = 0;
+        sharedScans = false;
+        checksums = false;
+        prefaultedBlocks = 0;
+        warmUpBytes = 0;
+        readAheadBytes = 0;
+    }
+
+    /**
+     * Creates a copy of this configuration for an event store with a different base path, e.g. a part of a
+     * store consisting of several chronicles
+     */
+    public EventStoreConfig<T> copyWithBasePath(String chronicleBasePath) {
+        try {
+            @SuppressWarnings("unchecked") EventStoreConfig<T> copy = (EventStoreConfig<T>) super.clone();
+            copy.vanillaChronicleConfig = vanillaChronicleConfig.clone();
+            copy.defaultChronicleConfig = defaultChronicleConfig.clone();
+            copy.chronicleBasePath = chronicleBasePath;
+            copy.keyIndexes = new LinkedHashMap<String, Function<? super T, ?>>(keyIndexes);
+            copy.keyBloomFilters = new LinkedHashMap<String, Function<? super T, ?>>(keyBloomFilters);
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
     }
 
     public void setChronicleBasePath(String chronicleBasePath) {
@@ -57,6 +106,10 @@ class EventStoreConfig<T> {
         this.monotonic = monotonic;
     }
 
+    public void setDurabilityPolicy(DurabilityPolicy durabilityPolicy) {
+        this.durabilityPolicy = durabilityPolicy;
+    }
+
 
     public String cycleFormat() {
         return vanillaChronicleConfig.cycleFormat();
@@ -111,6 +164,130 @@ class EventStoreConfig<T> {
         return monotonic;
     }
 
+    public DurabilityPolicy durabilityPolicy() {
+        return durabilityPolicy;
+    }
+
+    public void setWriterStripes(int writerStripes) {
+        this.writerStripes = writerStripes;
+    }
+
+    public int writerStripes() {
+        return writerStripes;
+    }
+
+    public void setShardKeyExtractor(Function<? super T, ?> shardKeyExtractor) {
+        this.shardKeyExtractor = shardKeyExtractor;
+    }
+
+    public Function<? super T, ?> shardKeyExtractor() {
+        return shardKeyExtractor;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    public int shards() {
+        return shards;
+    }
+
+    public void addKeyIndex(String name, Function<? super T, ?> keyExtractor) {
+        keyIndexes.put(name, keyExtractor);
+    }
+
+    public Map<String, Function<? super T, ?>> keyIndexes() {
+        return keyIndexes;
+    }
+
+    public void addKeyBloomFilter(String name, Function<? super T, ?> keyExtractor) {
+        keyBloomFilters.put(name, keyExtractor);
+    }
+
+    public Map<String, Function<? super T, ?>> keyBloomFilters() {
+        return keyBloomFilters;
+    }
+
+    public void setBloomFilterSegmentSize(int bloomFilterSegmentSize) {
+        this.bloomFilterSegmentSize = bloomFilterSegmentSize;
+    }
+
+    public int bloomFilterSegmentSize() {
+        return bloomFilterSegmentSize;
+    }
+
+    public void setSnapshotIterators(boolean snapshotIterators) {
+        this.snapshotIterators = snapshotIterators;
+    }
+
+    public boolean isSnapshotIterators() {
+        return snapshotIterators;
+    }
+
+    public void setHotTailCacheSize(int hotTailCacheSize) {
+        this.hotTailCacheSize = hotTailCacheSize;
+    }
+
+    public int hotTailCacheSize() {
+        return hotTailCacheSize;
+    }
+
+    public void setEventCache(EventCache eventCache) {
+        this.eventCache = eventCache;
+    }
+
+    public EventCache eventCache() {
+        return eventCache;
+    }
+
+    public void setSharedScans(boolean sharedScans) {
+        this.sharedScans = sharedScans;
+    }
+
+    public boolean isSharedScans() {
+        return sharedScans;
+    }
+
+    public void setChecksums(boolean checksums) {
+        this.checksums = checksums;
+    }
+
+    public boolean isChecksums() {
+        return checksums;
+    }
+
+    public void setPrefaultedBlocks(int prefaultedBlocks) {
+        this.prefaultedBlocks = prefaultedBlocks;
+    }
+
+    public int prefaultedBlocks() {
+        return prefaultedBlocks;
+    }
+
+    public void setWarmUpBytes(long warmUpBytes) {
+        this.warmUpBytes = warmUpBytes;
+    }
+
+    public long warmUpBytes() {
+        return warmUpBytes;
+    }
+
+    public void setReadAheadBytes(long readAheadBytes) {
+        this.readAheadBytes = readAheadBytes;
+    }
+
+    public long readAheadBytes() {
+        return readAheadBytes;
+    }
+
+    public void setRecordingAllocationSites(boolean recordingAllocationSites) {
+        this.recordingAllocationSites = recordingAllocationSites;
+    }
+
+    public boolean isRecordingAllocationSites() {
+        return recordingAllocationSites;
+    }
+
     public Map<Class<? extends T>, Function<? extends T, byte[]>> serializers() {
         return serializers;
     }
@@ -172,6 +349,49 @@ class EventStoreConfig<T> {
         if (chronicleBasePath == null) {
             messages.add("The event stores base path wasn't set");
         }
+        if (writerStripes < 1) {
+            messages.add("The number of writer stripes must be at least 1");
+        }
+        if (shards < 1) {
+            messages.add("The number of shards must be at least 1");
+        }
+        Map<String, Function<? super T, ?>> allKeyIndexes = new LinkedHashMap<String, Function<? super T, ?>>(keyIndexes);
+        allKeyIndexes.putAll(keyBloomFilters);
+        if (allKeyIndexes.size() != keyIndexes.size() + keyBloomFilters.size()) {
+            messages.add("The names of key indexes and key Bloom filters must be unique");
+        }
+        for (Map.Entry<String, Function<? super T, ?>> keyIndex : allKeyIndexes.entrySet()) {
+            if (keyIndex.getKey() == null || !keyIndex.getKey().matches("[A-Za-z0-9_-]+")) {
+                messages.add("The name of a key index may only contain letters, digits, '_' and '-'");
+            }
+            if (keyIndex.getValue() == null) {
+                messages.add("The key extractor of the key index " + keyIndex.getKey() + " isn't set");
+            }
+        }
+        if (hotTailCacheSize < 0) {
+            messages.add("The size of the hot tail cache must not be negative");
+        }
+        if (prefaultedBlocks < 0) {
+            messages.add("The number of prefaulted data blocks must not be negative");
+        }
+        if (warmUpBytes < 0) {
+            messages.add("The number of bytes warmed up must not be negative");
+        }
+        if (readAheadBytes < 0) {
+            messages.add("The read ahead distance must not be negative");
+        }
+        if (bloomFilterSegmentSize < 1) {
+            messages.add("The segment size of key Bloom filters must be at least 1");
+        }
+        if (durabilityPolicy == null) {
+            messages.add("The durability policy isn't set");
+        }
+        if (cycling && (prefaultedBlocks > 0 || warmUpBytes > 0 || readAheadBytes > 0)) {
+            messages.add("Cycling event stores can't prefault, warm up or read ahead their data files");
+        }
+        if (cycling && readOnly) {
+            messages.add("Cycling event stores can't be opened in read only mode");
+        }
 
         if (messages.size() == 0) {
             return true;
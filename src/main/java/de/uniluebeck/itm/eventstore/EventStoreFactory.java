@@ -7,8 +7,11 @@ import de.uniluebeck.itm.eventstore.adapter.VanillaChronicleAdapterImpl;
 import net.openhft.chronicle.ChronicleConfig;
 import net.openhft.chronicle.VanillaChronicleConfig;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 public class EventStoreFactory<T> {
@@ -31,6 +34,10 @@ public class EventStoreFactory<T> {
         return this;
     }
 
+    /**
+     * Opens the event store for reading only, e.g. in another process than the writer. A read only store picks up
+     * the events appended by the writer whenever it is queried; an {@link AppendWatcher} waits for them.
+     */
     public EventStoreFactory<T> inReadOnlyMode(boolean readOnly) {
         config.setReadOnly(readOnly);
         return this;
@@ -87,25 +94,357 @@ public class EventStoreFactory<T> {
         return this;
     }
 
+    public EventStoreFactory<T> withDurabilityPolicy(DurabilityPolicy durabilityPolicy) {
+        config.setDurabilityPolicy(durabilityPolicy);
+        return this;
+    }
+
+    /**
+     * Lets all iterators stop at the last event which was stored when they were created, instead of following the
+     * tail of the store like {@link EventStore#getAllEvents()} does by default. This bounds the time a query takes
+     * while events are stored at a high rate. Events stored in several entries which were started before the iterator
+     * was created are still returned completely.
+     */
+    public EventStoreFactory<T> withSnapshotIterators(boolean snapshotIterators) {
+        config.setSnapshotIterators(snapshotIterators);
+        return this;
+    }
+
+    /**
+     * Keeps the given number of most recently stored events in memory, so that
+     * {@link EventStore#getEventsBetweenTimestamps(long, long)} doesn't read the chronicle if all events in the
+     * requested range are cached. The cached events are the objects passed for storing, which therefore must not be
+     * modified afterwards. Apart from that, the iterators of cached ranges behave like the ones reading the chronicle:
+     * they return the events in the range stored after their creation unless snapshot iterators are used.
+     * <p/>
+     * The cache is only used by writable event stores with monotonic event order. It only contains the events stored
+     * since the event store was built.
+     *
+     * @param events the number of cached events, 0 disables the cache
+     */
+    public EventStoreFactory<T> withHotTailCache(int events) {
+        config.setHotTailCacheSize(events);
+        return this;
+    }
+
+    /**
+     * Lets the iterators look up events in the given cache before deserializing them and add the events they
+     * deserialized. The cache may be shared with other event stores, e.g. all shards or stripes of a store share the
+     * cache passed here. The cached events are returned by several iterators and therefore must not be modified.
+     *
+     * @param cache the cache or null to disable caching
+     */
+    public EventStoreFactory<T> withEventCache(EventCache cache) {
+        config.setEventCache(cache);
+        return this;
+    }
+
+    /**
+     * Lets concurrent calls of {@link EventStore#getEventsBetweenTimestamps(long, long)} with overlapping time ranges
+     * share a single scan of the chronicle, so that every event is only read and deserialized once for all of them.
+     * The iterators of a shared scan return the same event objects, which therefore must not be modified.
+     * <p/>
+     * Scans are only shared by event stores with monotonic event order which don't use snapshot iterators. A query
+     * can only join a running scan which started before its start time and still keeps the events from then on.
+     */
+    public EventStoreFactory<T> withSharedScans(boolean sharedScans) {
+        config.setSharedScans(sharedScans);
+        return this;
+    }
+
+    /**
+     * Stores a CRC32C checksum behind every event, which is verified when the event is deserialized. A mismatch is
+     * reported by a {@link CorruptedEventException}. The checksums of a whole store can be verified in the background
+     * by a {@link Scrubber}. Predicates on raw events and raw event iterators don't verify the checksums.
+     * <p/>
+     * Checksums can only be enabled when the event store is created. They stay enabled when it is opened again.
+     */
+    public EventStoreFactory<T> withChecksums(boolean checksums) {
+        config.setChecksums(checksums);
+        return this;
+    }
+
+    /**
+     * Lets a background thread touch the pages of the data blocks ahead of the block events are appended to, so
+     * that appending an event doesn't stall on page faults when it moves on to the next data block. Each touched
+     * block is allocated in the data file and the page cache right away. Only used by writable event stores.
+     *
+     * @param blocks the number of data blocks touched ahead of the current one, 0 disables touching
+     */
+    public EventStoreFactory<T> withPrefaulting(int blocks) {
+        config.setPrefaultedBlocks(blocks);
+        return this;
+    }
+
+    /**
+     * Lets a background thread read the most recently written bytes of the data file into the page cache after
+     * the event store was opened, so that the first queries for recent events don't stall on disk reads.
+     *
+     * @param bytes the number of bytes read, 0 disables the warm-up
+     */
+    public EventStoreFactory<T> withWarmUp(long bytes) {
+        config.setWarmUpBytes(bytes);
+        return this;
+    }
+
+    /**
+     * Lets a background thread read the data ahead of the iterators of sequential scans into the page cache, so that
+     * waiting for the disk overlaps with deserializing the events. This speeds up long scans like replays of
+     * {@link EventStore#getAllEvents()} on slow disks. The iterators returned by
+     * {@link EventStore#getAllEvents()}, {@link EventStore#getEventsFromTimestamp(long)} and
+     * {@link EventStore#getEventsBetweenTimestamps(long, long)} read ahead; the ones using key indexes don't.
+     *
+     * @param bytes the number of bytes read ahead of the event an iterator reads, 0 disables reading ahead
+     */
+    public EventStoreFactory<T> withReadAhead(long bytes) {
+        config.setReadAheadBytes(bytes);
+        return this;
+    }
+
+    /**
+     * Records the stack trace whenever an event store or an iterator is created, so that the location can be
+     * reported if it is garbage collected without having been closed. Recording is expensive for workloads
+     * creating many iterators and therefore disabled by default.
+     */
+    public EventStoreFactory<T> recordingAllocationSites(boolean recordingAllocationSites) {
+        config.setRecordingAllocationSites(recordingAllocationSites);
+        return this;
+    }
+
+    /**
+     * Splits the event store into several stripes, each with its own chronicle. Every writing thread appends to
+     * a single stripe, so that writers don't contend for a single write lock. Reading merges the stripes by timestamp.
+     * <p/>
+     * The stripes are stored with the base paths {@code <base path>.stripe-<n>}. When opening an existing striped
+     * store, all existing stripes are read even if the configured number of stripes is lower.
+     */
+    public EventStoreFactory<T> withWriterStripes(int writerStripes) {
+        config.setWriterStripes(writerStripes);
+        return this;
+    }
+
+    /**
+     * Partitions the event store into several shards by a key extracted from each event.
+     * The shards are stored with the base paths {@code <base path>.shard-<n>} and must be
+     * built with {@link #buildSharded()}.
+     *
+     * @param keyExtractor the function extracting the key of an event, e.g. the id of the node that emitted it
+     * @param shards       the number of shards, which must not change after the store was created
+     */
+    public EventStoreFactory<T> shardedBy(Function<? super T, ?> keyExtractor, int shards) {
+        config.setShardKeyExtractor(keyExtractor);
+        config.setShards(shards);
+        return this;
+    }
+
+    /**
+     * Maintains a secondary index from a key extracted from each event to the entries holding the events with
+     * that key, so that {@link EventStore#getEventsForKey(String, Object, long, long)} only reads the matching
+     * events instead of scanning the whole store. The index is stored in the file
+     * {@code <base path>.<name>.keyindex} and is updated whenever an event is stored.
+     *
+     * @param name         the name of the index, consisting of letters, digits, '_' and '-'
+     * @param keyExtractor the function extracting the key of an event, e.g. the id of the node that emitted it.
+     *                     Keys are compared by {@link Object#equals(Object)} and must have a stable string representation.
+     */
+    public EventStoreFactory<T> withKeyIndex(String name, Function<? super T, ?> keyExtractor) {
+        config.addKeyIndex(name, keyExtractor);
+        return this;
+    }
+
+    /**
+     * Keeps a Bloom filter over a key extracted from each event for every segment of entries, so that
+     * {@link EventStore#getEventsForKey(String, Object, long, long)} skips the segments not containing the key
+     * without reading them. This is a lightweight alternative to {@link #withKeyIndex(String, Function)} for rare
+     * keys. The filters are stored in the file {@code <base path>.<name>.bloom}.
+     *
+     * @param name         the name of the filter, consisting of letters, digits, '_' and '-'
+     * @param keyExtractor the function extracting the key of an event, e.g. the id of the node that emitted it.
+     *                     Keys are compared by {@link Object#equals(Object)} and must have a stable string representation.
+     */
+    public EventStoreFactory<T> withKeyBloomFilter(String name, Function<? super T, ?> keyExtractor) {
+        config.addKeyBloomFilter(name, keyExtractor);
+        return this;
+    }
+
+    /**
+     * Sets the number of entries covered by a single key Bloom filter, 4096 by default. Smaller segments can be
+     * skipped more often but need more memory.
+     */
+    public EventStoreFactory<T> setBloomFilterSegmentSize(int bloomFilterSegmentSize) {
+        config.setBloomFilterSegmentSize(bloomFilterSegmentSize);
+        return this;
+    }
+
     public EventStore<T> build() throws IllegalArgumentException, IOException, ClassNotFoundException {
         if (config.isValid()) {
+            return build(config);
+        } else {
+            return null;
+        }
+
+    }
+
+    /**
+     * Builds an event store with the settings of this factory at the given base path, which is used by the
+     * {@link EventStoreManager} to open many stores from one template. The store is sharded if the factory is.
+     */
+    EventStore<T> build(String chronicleBasePath) throws IllegalArgumentException, IOException, ClassNotFoundException {
+        EventStoreConfig<T> storeConfig = config.copyWithBasePath(chronicleBasePath);
+        storeConfig.isValid();
+        return storeConfig.shardKeyExtractor() != null ? buildSharded(storeConfig) : build(storeConfig);
+    }
+
+    /**
+     * @return the configuration of the event stores built by this factory
+     */
+    EventStoreConfig<T> config() {
+        return config;
+    }
+
+    public ShardedEventStore<T> buildSharded() throws IllegalArgumentException, IOException, ClassNotFoundException {
+        if (config.isValid()) {
+            return buildSharded(config);
+        } else {
+            return null;
+        }
+    }
+
+    private ShardedEventStore<T> buildSharded(EventStoreConfig<T> config) throws IOException, ClassNotFoundException {
+        if (config.shardKeyExtractor() == null) {
+            throw new IllegalArgumentException("The key extractor of a sharded event store isn't set");
+        }
+        int existingShards = 0;
+        while (exists(shardBasePath(config, existingShards))) {
+            existingShards++;
+        }
+        if (existingShards > 0 && existingShards != config.shards()) {
+            throw new IllegalArgumentException("The event store " + config.chronicleBasePath() + " consists of "
+                    + existingShards + " shards, but " + config.shards() + " shards are configured");
+        }
+        List<EventStore<T>> shards = new ArrayList<EventStore<T>>(config.shards());
+        boolean built = false;
+        try {
+            for (int shard = 0; shard < config.shards(); shard++) {
+                shards.add(build(config.copyWithBasePath(shardBasePath(config, shard))));
+            }
+            built = true;
+        } finally {
+            if (!built) {
+                closeQuietly(shards);
+            }
+        }
+        return new ShardedEventStore<T>(shards, config.shardKeyExtractor());
+    }
+
+    /**
+     * Builds an event store of long values in the file {@code <base path>.records}. Only the base path and the read
+     * only mode are used, the other settings only apply to event stores of objects.
+     */
+    public LongEventStore buildLongEventStore() throws IllegalArgumentException, IOException {
+        return new LongEventStoreImpl(openRecordFile(LongEventStoreImpl.KIND));
+    }
+
+    /**
+     * Builds an event store of double values in the file {@code <base path>.records}. Only the base path and the
+     * read only mode are used, the other settings only apply to event stores of objects.
+     */
+    public DoubleEventStore buildDoubleEventStore() throws IllegalArgumentException, IOException {
+        return new DoubleEventStoreImpl(openRecordFile(DoubleEventStoreImpl.KIND));
+    }
+
+    private FixedSizeRecordFile openRecordFile(int kind) throws IllegalArgumentException, IOException {
+        if (config.chronicleBasePath() == null) {
+            throw new IllegalArgumentException("The base path of the event store isn't set");
+        }
+        return new FixedSizeRecordFile(config.chronicleBasePath() + ".records", kind, config.isReadOnly());
+    }
+
+    private EventStore<T> build(EventStoreConfig<T> config) throws IOException, ClassNotFoundException {
+        if (config.writerStripes() > 1 || exists(stripeBasePath(config, 0))) {
+            return buildStriped(config);
+        }
+        return buildChronicleStore(config);
+    }
+
+    private EventStore<T> buildStriped(EventStoreConfig<T> config) throws IOException, ClassNotFoundException {
+        int stripeCount = config.writerStripes();
+        while (exists(stripeBasePath(config, stripeCount))) {
+            stripeCount++;
+        }
+        List<EventStore<T>> stripes = new ArrayList<EventStore<T>>(stripeCount);
+        boolean built = false;
+        try {
+            for (int stripe = 0; stripe < stripeCount; stripe++) {
+                EventStoreConfig<T> stripeConfig = config.copyWithBasePath(stripeBasePath(config, stripe));
+                stripeConfig.setWriterStripes(1);
+                stripes.add(buildChronicleStore(stripeConfig));
+            }
+            built = true;
+        } finally {
+            if (!built) {
+                closeQuietly(stripes);
+            }
+        }
+        return new StripedEventStore<T>(stripes);
+    }
+
+    private static String shardBasePath(EventStoreConfig<?> config, int shard) {
+        return config.chronicleBasePath() + ".shard-" + shard;
+    }
+
+    private static String stripeBasePath(EventStoreConfig<?> config, int stripe) {
+        return config.chronicleBasePath() + ".stripe-" + stripe;
+    }
+
+    /**
+     * Checks if an event store, striped or not, exists at the given base path
+     */
+    private static boolean exists(String basePath) {
+        return new File(basePath + ".index").exists() || new File(basePath + ".stripe-0.index").exists();
+    }
+
+    private static void closeQuietly(List<? extends EventStore<?>> stores) {
+        for (EventStore<?> store : stores) {
             try {
+                store.close();
+            } catch (IOException e) {
+                // the original exception is more important
+            }
+        }
+    }
 
-                if (config.isCycling()) {
-                    // FIXME remove this after fixing vanilla issues
-                    throw new UnsupportedOperationException("Cycling event stores are not supported yet");
-                }
+    private static void closeQuietly(ChronicleAdapter chronicle) {
+        try {
+            chronicle.close();
+        } catch (IOException e) {
+            // the original exception is more important
+        }
+    }
+
+    private EventStore<T> buildChronicleStore(EventStoreConfig<T> config) throws IOException, ClassNotFoundException {
+        try {
+
+            if (config.isCycling()) {
+                // FIXME remove this after fixing vanilla issues
+                throw new UnsupportedOperationException("Cycling event stores are not supported yet");
+            }
             ChronicleAdapter chronicle = config.isCycling() ?
                     new VanillaChronicleAdapterImpl(config.chronicleBasePath(), config.vanillaChronicleConfig()) :
                     new IndexedChronicleAdapterImpl(config.chronicleBasePath(), config.defaultChronicleConfig());
-            return new ChronicleBasedEventStoreImpl<T>(chronicle, config);
-            } catch (IOException e) {
-                throw new FileNotFoundException("Can't create event store with base path " + config.chronicleBasePath());
+            boolean built = false;
+            try {
+                EventStore<T> store = new ChronicleBasedEventStoreImpl<T>(chronicle, config);
+                built = true;
+                return store;
+            } finally {
+                if (!built) {
+                    closeQuietly(chronicle);
+                }
             }
-        } else {
-            return null;
+        } catch (IOException e) {
+            throw new FileNotFoundException("Can't create event store with base path " + config.chronicleBasePath());
         }
-
     }
 
 }
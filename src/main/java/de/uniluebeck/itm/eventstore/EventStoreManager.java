@@ -0,0 +1,482 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Opens event stores by their base path on demand and shares them between all users of the same path, so that an
+ * application can work with thousands of stores without keeping all of them open. Building an event store twice for
+ * the same base path with an {@link EventStoreFactory} yields two independent instances which both append to the
+ * chronicle; the manager instead returns handles of a single instance, which is closed only after all handles were
+ * closed.
+ * <p/>
+ * Stores whose handles were all closed stay open until the estimated number of open files or mapped bytes of all
+ * stores exceeds the budget of the manager. Then the least recently used of them are closed. Stores still in use are
+ * never closed, so the budget is exceeded if all of them are in use. A chronicle keeps its data and index file open
+ * and maps the two most recently used blocks of each, key indexes and key Bloom filters keep one file open each.
+ * <p/>
+ * All stores are built with the settings of the template factory, whose base path is ignored. A sharded template
+ * opens sharded stores, whose shards and writer stripes all count against the budget.
+ */
+public class EventStoreManager<T> implements Closeable {
+
+    private static Logger log = LoggerFactory.getLogger(EventStoreManager.class);
+
+    /**
+     * The number of blocks of each file of a chronicle which are mapped at the same time
+     */
+    static final int MAPPED_BLOCKS_PER_FILE = 2;
+
+    private final EventStoreFactory<T> factory;
+
+    private final int maxOpenFiles;
+
+    private final long maxMappedBytes;
+
+    /**
+     * The open stores by their canonical base path in access order, guarded by this
+     */
+    private final LinkedHashMap<String, ManagedStore> stores = new LinkedHashMap<String, ManagedStore>(16, 0.75f, true);
+
+    /**
+     * The stores removed from the map which are being closed by their base path, guarded by this
+     */
+    private final Map<String, ManagedStore> closing = new HashMap<String, ManagedStore>();
+
+    private int openFiles = 0;
+
+    private long mappedBytes = 0;
+
+    private long opened = 0;
+
+    private long evictions = 0;
+
+    private boolean closed = false;
+
+    /**
+     * @param factory        the factory whose settings are used for all stores
+     * @param maxOpenFiles   the maximum estimated number of files kept open by the stores
+     * @param maxMappedBytes the maximum estimated number of bytes mapped by the stores
+     */
+    public EventStoreManager(EventStoreFactory<T> factory, int maxOpenFiles, long maxMappedBytes) {
+        if (maxOpenFiles <= 0 || maxMappedBytes <= 0) {
+            throw new IllegalArgumentException("The budget of the manager must be positive but was " + maxOpenFiles
+                    + " files and " + maxMappedBytes + " bytes");
+        }
+        this.factory = factory;
+        this.maxOpenFiles = maxOpenFiles;
+        this.maxMappedBytes = maxMappedBytes;
+    }
+
+    /**
+     * Returns a handle of the event store at the given base path, which is opened if it isn't open yet. The handle
+     * must be closed when it isn't used anymore; iterators created by it stay usable after that. Stores are opened
+     * and closed without blocking the users of other stores, concurrent callers for the same path wait until the
+     * store is open.
+     *
+     * @param chronicleBasePath the base path of the event store
+     * @return a handle of the event store
+     * @throws IllegalStateException if the manager was closed
+     */
+    public EventStore<T> acquire(String chronicleBasePath)
+            throws IllegalArgumentException, IOException, ClassNotFoundException {
+        String path = new File(chronicleBasePath).getCanonicalPath();
+        ManagedStore store;
+        ManagedStore previous = null;
+        List<ManagedStore> evicted = new ArrayList<ManagedStore>();
+        boolean opening = false;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The event store manager is closed");
+            }
+            store = stores.get(path);
+            if (store == null) {
+                EventStoreConfig<T> config = factory.config().copyWithBasePath(path);
+                config.isValid();
+                int files = estimatedOpenFiles(config);
+                long bytes = estimatedMappedBytes(config);
+                evictIdleStores(files, bytes, evicted);
+                // the store is opened after the previous instance of the same path was closed
+                previous = closing.get(path);
+                store = new ManagedStore(path, files, bytes);
+                stores.put(path, store);
+                openFiles += files;
+                mappedBytes += bytes;
+                opened++;
+                opening = true;
+                if (openFiles > maxOpenFiles || mappedBytes > maxMappedBytes) {
+                    log.warn("The event stores in use exceed the budget of " + maxOpenFiles + " files and "
+                            + maxMappedBytes + " mapped bytes with " + openFiles + " files and " + mappedBytes + " bytes");
+                }
+            }
+            store.references++;
+        }
+        if (opening) {
+            closeEvicted(evicted);
+            open(store, previous);
+        } else {
+            Uninterruptibles.awaitUninterruptibly(store.open);
+            if (store.store == null) {
+                release(store);
+                throw new IOException("The event store " + path + " couldn't be opened", store.failure);
+            }
+        }
+        return new Handle(store);
+    }
+
+    /**
+     * Builds a store the caller put into the map and removes it from the map again if that fails
+     */
+    private void open(ManagedStore store, ManagedStore previous) throws IOException, ClassNotFoundException {
+        boolean built = false;
+        try {
+            if (previous != null) {
+                Uninterruptibles.awaitUninterruptibly(previous.closed);
+            }
+            store.store = factory.build(store.path);
+            built = true;
+        } catch (IOException e) {
+            store.failure = e;
+            throw e;
+        } catch (ClassNotFoundException e) {
+            store.failure = e;
+            throw e;
+        } catch (RuntimeException e) {
+            store.failure = e;
+            throw e;
+        } finally {
+            if (!built) {
+                synchronized (this) {
+                    store.references--;
+                    if (stores.get(store.path) == store) {
+                        stores.remove(store.path);
+                        openFiles -= store.files;
+                        mappedBytes -= store.bytes;
+                    }
+                }
+            }
+            store.open.countDown();
+        }
+    }
+
+    /**
+     * Removes the least recently used stores which aren't in use until a store of the given footprint fits into the
+     * budget. The removed stores have to be closed by the caller without holding the lock of the manager.
+     */
+    private void evictIdleStores(int files, long bytes, List<ManagedStore> evicted) {
+        Iterator<ManagedStore> eldest = stores.values().iterator();
+        while ((openFiles + files > maxOpenFiles || mappedBytes + bytes > maxMappedBytes) && eldest.hasNext()) {
+            ManagedStore store = eldest.next();
+            if (store.references == 0) {
+                eldest.remove();
+                remove(store);
+                evicted.add(store);
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Accounts for a store removed from the map, which is closed later
+     */
+    private void remove(ManagedStore store) {
+        openFiles -= store.files;
+        mappedBytes -= store.bytes;
+        closing.put(store.path, store);
+    }
+
+    /**
+     * Closes stores removed from the map, failures are logged as they concern no user of the manager
+     */
+    private void closeEvicted(List<ManagedStore> stores) {
+        for (ManagedStore store : stores) {
+            try {
+                closeStore(store);
+            } catch (IOException e) {
+                log.warn("Can't close event store " + store.path, e);
+            }
+        }
+    }
+
+    private void closeStore(ManagedStore store) throws IOException {
+        try {
+            // a store still being opened is closed when it is open
+            Uninterruptibles.awaitUninterruptibly(store.open);
+            if (store.store != null) {
+                log.debug("Closing event store {}", store.path);
+                store.store.close();
+            }
+        } finally {
+            synchronized (this) {
+                if (closing.get(store.path) == store) {
+                    closing.remove(store.path);
+                }
+            }
+            store.closed.countDown();
+        }
+    }
+
+    private synchronized void release(ManagedStore store) {
+        store.references--;
+    }
+
+    /**
+     * Closes all stores which aren't in use
+     */
+    public void closeIdleStores() throws IOException {
+        List<ManagedStore> idle = new ArrayList<ManagedStore>();
+        synchronized (this) {
+            Iterator<ManagedStore> iterator = stores.values().iterator();
+            while (iterator.hasNext()) {
+                ManagedStore store = iterator.next();
+                if (store.references == 0) {
+                    iterator.remove();
+                    remove(store);
+                    idle.add(store);
+                }
+            }
+        }
+        closeAll(idle);
+    }
+
+    private void closeAll(List<ManagedStore> stores) throws IOException {
+        List<IOException> exceptions = new ArrayList<IOException>();
+        for (ManagedStore store : stores) {
+            try {
+                closeStore(store);
+            } catch (IOException e) {
+                exceptions.add(e);
+            }
+        }
+        if (!exceptions.isEmpty()) {
+            throw exceptions.get(0);
+        }
+    }
+
+    /**
+     * @return the number of open stores, including the ones not in use
+     */
+    public synchronized int openStores() {
+        return stores.size();
+    }
+
+    /**
+     * @return the estimated number of files kept open by the stores
+     */
+    public synchronized int estimatedOpenFiles() {
+        return openFiles;
+    }
+
+    /**
+     * @return the estimated number of bytes mapped by the stores
+     */
+    public synchronized long estimatedMappedBytes() {
+        return mappedBytes;
+    }
+
+    /**
+     * @return the number of stores opened by the manager
+     */
+    public synchronized long openCount() {
+        return opened;
+    }
+
+    /**
+     * @return the number of idle stores closed to stay within the budget
+     */
+    public synchronized long evictionCount() {
+        return evictions;
+    }
+
+    static int estimatedOpenFiles(EventStoreConfig<?> config) {
+        return storesOf(config) * (2 + config.keyIndexes().size() + config.keyBloomFilters().size());
+    }
+
+    static long estimatedMappedBytes(EventStoreConfig<?> config) {
+        long blockBytes = config.isCycling() ?
+                config.vanillaChronicleConfig().dataBlockSize() + config.vanillaChronicleConfig().indexBlockSize() :
+                config.defaultChronicleConfig().dataBlockSize() + config.defaultChronicleConfig().indexBlockSize();
+        return storesOf(config) * MAPPED_BLOCKS_PER_FILE * blockBytes;
+    }
+
+    /**
+     * @return the number of chronicles of a store, one for each writer stripe of each shard
+     */
+    private static int storesOf(EventStoreConfig<?> config) {
+        return (config.shardKeyExtractor() != null ? config.shards() : 1) * config.writerStripes();
+    }
+
+    /**
+     * Closes all stores, including the ones still in use
+     */
+    @Override
+    public void close() throws IOException {
+        List<ManagedStore> open;
+        synchronized (this) {
+            closed = true;
+            open = new ArrayList<ManagedStore>(stores.values());
+            for (ManagedStore store : open) {
+                remove(store);
+            }
+            stores.clear();
+        }
+        closeAll(open);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EventStoreManager{stores=" + stores.size() + ", files=" + openFiles + ", bytes=" + mappedBytes
+                + ", opened=" + opened + ", evictions=" + evictions + "}";
+    }
+
+    private class ManagedStore {
+
+        private final String path;
+
+        private final int files;
+
+        private final long bytes;
+
+        /**
+         * Released when the store was built or failed to build
+         */
+        private final CountDownLatch open = new CountDownLatch(1);
+
+        /**
+         * Released when the store was closed after it had been removed from the map
+         */
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        /**
+         * The store, null until it was built or if it failed to build, published by {@link #open}
+         */
+        private EventStore<T> store;
+
+        private Exception failure;
+
+        private int references = 0;
+
+        private ManagedStore(String path, int files, long bytes) {
+            this.path = path;
+            this.files = files;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A handle of a shared event store, closing it releases the store
+     */
+    private class Handle implements EventStore<T> {
+
+        private final ManagedStore managed;
+
+        private volatile boolean released = false;
+
+        private Handle(ManagedStore managed) {
+            this.managed = managed;
+        }
+
+        private EventStore<T> store() {
+            if (released) {
+                throw new IllegalStateException("The handle of event store " + managed.path + " was closed");
+            }
+            return managed.store;
+        }
+
+        @Override
+        public void storeEvent(@Nonnull T object) throws IOException, UnsupportedOperationException, IllegalArgumentException {
+            store().storeEvent(object);
+        }
+
+        @Override
+        public void storeEvent(@Nonnull T object, long timestamp) throws IOException, UnsupportedOperationException, IllegalArgumentException {
+            store().storeEvent(object, timestamp);
+        }
+
+        @Override
+        public void storeEvent(@Nonnull T object, Class<T> type) throws IOException, UnsupportedOperationException, IllegalArgumentException {
+            store().storeEvent(object, type);
+        }
+
+        @Override
+        public void storeEvent(@Nonnull T object, Class<T> type, long timestamp) throws IOException, UnsupportedOperationException, IllegalArgumentException {
+            store().storeEvent(object, type, timestamp);
+        }
+
+        @Override
+        public void storeEvents(@Nonnull Iterable<? extends T> objects) throws IOException, UnsupportedOperationException, IllegalArgumentException {
+            store().storeEvents(objects);
+        }
+
+        @Override
+        public CloseableIterator<EventContainer<T>> getEventsBetweenTimestamps(long fromTime, long toTime) throws IOException {
+            return store().getEventsBetweenTimestamps(fromTime, toTime);
+        }
+
+        @Override
+        public CloseableIterator<EventContainer<T>> getEventsBetweenTimestamps(long fromTime, long toTime, RawEventPredicate predicate) throws IOException {
+            return store().getEventsBetweenTimestamps(fromTime, toTime, predicate);
+        }
+
+        @Override
+        public CloseableIterator<RawEventContainer<T>> getRawEventsBetweenTimestamps(long fromTime, long toTime) throws IOException {
+            return store().getRawEventsBetweenTimestamps(fromTime, toTime);
+        }
+
+        @Override
+        public EventBatchReader getEventBatchReader(long fromTime, long toTime) throws IOException {
+            return store().getEventBatchReader(fromTime, toTime);
+        }
+
+        @Override
+        public CloseableIterator<EventContainer<T>> getEventsFromTimestamp(long fromTime) throws IOException {
+            return store().getEventsFromTimestamp(fromTime);
+        }
+
+        @Override
+        public CloseableIterator<EventContainer<T>> getAllEvents() throws IOException {
+            return store().getAllEvents();
+        }
+
+        @Override
+        public CloseableIterator<EventContainer<T>> getEventsForKey(String indexName, Object key, long fromTime, long toTime) throws IOException, IllegalArgumentException {
+            return store().getEventsForKey(indexName, key, fromTime, toTime);
+        }
+
+        @Override
+        public long actualPayloadByteSize() throws IOException {
+            return store().actualPayloadByteSize();
+        }
+
+        @Override
+        public long size() {
+            return store().size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return store().isEmpty();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!released) {
+                released = true;
+                release(managed);
+            }
+        }
+    }
+}
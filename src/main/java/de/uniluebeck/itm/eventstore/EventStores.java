@@ -0,0 +1,39 @@
+package de.uniluebeck.itm.eventstore;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Utility methods for working with several event stores
+ */
+public final class EventStores {
+
+    private EventStores() {
+    }
+
+    /**
+     * Getting an iterator for the events between two timestamps of several event stores, e.g. one per experiment
+     * or site, as a single timeline. The events are merged lazily by their timestamps, events with equal timestamps
+     * are returned in the order of the stores. Each store is read by
+     * {@link EventStore#getEventsBetweenTimestamps(long, long)}, so the events of every single store have to be
+     * ordered by timestamp.
+     * <p/>
+     * Closing the returned iterator closes the iterators of all stores, but not the stores.
+     *
+     * @param stores   the event stores to merge
+     * @param fromTime the start time (inclusive)
+     * @param toTime   the end time (inclusive)
+     * @return an iterator for sequential read access
+     * @throws java.io.IOException if the underlying stream of a store is broken
+     */
+    public static <T> CloseableIterator<EventContainer<T>> mergeByTimestamp(List<? extends EventStore<T>> stores,
+                                                                          final long fromTime, final long toTime)
+            throws IOException {
+        return CompositeEventStore.merge(stores, new CompositeEventStore.Query<T, EventContainer<T>>() {
+            @Override
+            public CloseableIterator<EventContainer<T>> open(EventStore<T> store) throws IOException {
+                return store.getEventsBetweenTimestamps(fromTime, toTime);
+            }
+        }, false);
+    }
+}
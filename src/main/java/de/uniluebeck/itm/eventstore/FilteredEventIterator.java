@@ -0,0 +1,54 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Predicate;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Returns only the events of another iterator which match a predicate
+ */
+class FilteredEventIterator<T> implements CloseableIterator<EventContainer<T>> {
+
+    private final CloseableIterator<EventContainer<T>> source;
+
+    private final Predicate<? super EventContainer<T>> predicate;
+
+    private EventContainer<T> next;
+
+    public FilteredEventIterator(CloseableIterator<EventContainer<T>> source, Predicate<? super EventContainer<T>> predicate) {
+        this.source = source;
+        this.predicate = predicate;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && source.hasNext()) {
+            EventContainer<T> candidate = source.next();
+            if (predicate.apply(candidate)) {
+                next = candidate;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public EventContainer<T> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        EventContainer<T> event = next;
+        next = null;
+        return event;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
@@ -0,0 +1,286 @@
+package de.uniluebeck.itm.eventstore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A memory mapped file of records consisting of a timestamp and a 64 bit value, used by the numeric event stores.
+ * The records are ordered by timestamp, so that the record of a timestamp is searched by interpolating between the
+ * timestamps of the records, which finds it with a single probe for regularly sampled series.
+ * <p/>
+ * The file starts with a header holding the number of records, a magic number and the kind of the values, followed
+ * by records of 16 bytes. It is mapped in blocks of {@link #BLOCK_SIZE} bytes, which are never unmapped explicitly.
+ * The number of records is updated after a record was written, so that readers never see incomplete records.
+ */
+class FixedSizeRecordFile implements Closeable {
+
+    static final int RECORD_SIZE = 16;
+
+    static final int HEADER_SIZE = 16;
+
+    static final int BLOCK_SIZE = 16 << 20;
+
+    private static final int MAGIC = 0x46525331;
+
+    private final String path;
+
+    private final int kind;
+
+    private final boolean readOnly;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    /**
+     * The mapped blocks, replaced by a longer copy when a block is mapped
+     */
+    private volatile MappedByteBuffer[] blocks = new MappedByteBuffer[0];
+
+    private volatile long size;
+
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    private boolean closed = false;
+
+    /**
+     * Opens or creates a record file
+     *
+     * @param path     the path of the file
+     * @param kind     the kind of the values, which must match the kind the file was created with
+     * @param readOnly if the file must not be written
+     * @throws FileNotFoundException    if a read only file doesn't exist
+     * @throws IllegalArgumentException if the file isn't a record file of the given kind
+     */
+    FixedSizeRecordFile(String path, int kind, boolean readOnly) throws IOException, IllegalArgumentException {
+        if (readOnly && !new File(path).exists()) {
+            throw new FileNotFoundException("The record file " + path + " doesn't exist");
+        }
+        this.path = path;
+        this.kind = kind;
+        this.readOnly = readOnly;
+        this.file = new RandomAccessFile(path, readOnly ? "r" : "rw");
+        this.channel = file.getChannel();
+        try {
+            if (!readOnly && file.length() == 0) {
+                block(0).putInt(8, MAGIC);
+                block(0).putInt(12, kind);
+            }
+            if (block(0).getInt(8) != MAGIC || block(0).getInt(12) != kind) {
+                throw new IllegalArgumentException("The file " + path + " isn't a record file of kind " + kind);
+            }
+            size = block(0).getLong(0);
+            if (size > 0) {
+                lastTimestamp = timestamp(size - 1);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    String path() {
+        return path;
+    }
+
+    int kind() {
+        return kind;
+    }
+
+    /**
+     * @return the number of records, which are read from the file in read only mode, as they may be appended by
+     * another process
+     */
+    long size() {
+        if (readOnly) {
+            try {
+                return block(0).getLong(0);
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't read the header of " + path, e);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Appends a record
+     *
+     * @throws IllegalArgumentException if the timestamp is less than the timestamp of the last record
+     */
+    synchronized void append(long timestamp, long value) throws IOException, IllegalArgumentException {
+        if (readOnly) {
+            throw new UnsupportedOperationException("The record file " + path + " is opened in read only mode");
+        }
+        if (closed) {
+            throw new IllegalStateException("The record file " + path + " is closed");
+        }
+        if (timestamp < lastTimestamp) {
+            throw new IllegalArgumentException("The timestamp " + timestamp + " is less than the timestamp "
+                    + lastTimestamp + " of the last record");
+        }
+        long position = HEADER_SIZE + size * RECORD_SIZE;
+        MappedByteBuffer block = block((int) (position / BLOCK_SIZE));
+        int offset = (int) (position % BLOCK_SIZE);
+        block.putLong(offset, timestamp);
+        block.putLong(offset + 8, value);
+        lastTimestamp = timestamp;
+        size++;
+        block(0).putLong(0, size);
+    }
+
+    long timestamp(long index) {
+        long position = HEADER_SIZE + index * RECORD_SIZE;
+        return mapped((int) (position / BLOCK_SIZE)).getLong((int) (position % BLOCK_SIZE));
+    }
+
+    long value(long index) {
+        long position = HEADER_SIZE + index * RECORD_SIZE + 8;
+        return mapped((int) (position / BLOCK_SIZE)).getLong((int) (position % BLOCK_SIZE));
+    }
+
+    /**
+     * Searches the first record whose timestamp is not less than the given one. Interpolation steps alternate with
+     * bisection steps, so that the search takes at most about twice as many probes as a binary search.
+     *
+     * @param timestamp the timestamp
+     * @param size      the number of records to search
+     * @return the index of the record or {@code size} if there is none
+     */
+    long firstIndexNotBefore(long timestamp, long size) {
+        long low = 0;
+        long high = size;
+        boolean interpolate = true;
+        while (low < high) {
+            long lowTimestamp = timestamp(low);
+            if (lowTimestamp >= timestamp) {
+                return low;
+            }
+            long highTimestamp = timestamp(high - 1);
+            if (highTimestamp < timestamp) {
+                return high;
+            }
+            long probe;
+            if (interpolate) {
+                double fraction = ((double) timestamp - lowTimestamp) / ((double) highTimestamp - lowTimestamp);
+                probe = low + (long) (fraction * (high - 1 - low));
+                probe = Math.max(low, Math.min(high - 1, probe));
+            } else {
+                probe = (low + high) >>> 1;
+            }
+            interpolate = !interpolate;
+            if (timestamp(probe) < timestamp) {
+                low = probe + 1;
+            } else {
+                high = probe;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Forces the written records to disk
+     */
+    synchronized void force() throws IOException {
+        for (MappedByteBuffer block : blocks) {
+            if (block != null) {
+                block.force();
+            }
+        }
+    }
+
+    private MappedByteBuffer mapped(int number) {
+        try {
+            return block(number);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't map block " + number + " of " + path, e);
+        }
+    }
+
+    private MappedByteBuffer block(int number) throws IOException {
+        MappedByteBuffer[] blocks = this.blocks;
+        if (number < blocks.length && blocks[number] != null) {
+            return blocks[number];
+        }
+        synchronized (this) {
+            blocks = this.blocks;
+            if (number >= blocks.length) {
+                blocks = Arrays.copyOf(blocks, number + 1);
+            }
+            if (blocks[number] == null) {
+                blocks[number] = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
+                        (long) number * BLOCK_SIZE, BLOCK_SIZE);
+            }
+            this.blocks = blocks;
+            return blocks[number];
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            // the blocks stay mapped until they are garbage collected, so that open cursors don't crash
+            file.close();
+        }
+    }
+
+    /**
+     * Iterates over the records between two timestamps, without allocating anything per record. Records appended
+     * after creating the cursor are picked up if they are in the time range.
+     */
+    static class Cursor {
+
+        private final FixedSizeRecordFile records;
+
+        private final long fromTime;
+
+        private final long toTime;
+
+        private long index;
+
+        private long timestamp;
+
+        private long value;
+
+        Cursor(FixedSizeRecordFile records, long fromTime, long toTime) {
+            this.records = records;
+            this.fromTime = fromTime;
+            this.toTime = toTime;
+            this.index = records.firstIndexNotBefore(fromTime, records.size()) - 1;
+        }
+
+        public boolean next() {
+            while (index + 1 < records.size()) {
+                long timestamp = records.timestamp(index + 1);
+                if (timestamp > toTime) {
+                    return false;
+                }
+                index++;
+                if (timestamp >= fromTime) {
+                    this.timestamp = timestamp;
+                    this.value = records.value(index);
+                    return true;
+                }
+                // appended after creating the cursor, but before its time range
+            }
+            return false;
+        }
+
+        public long timestamp() {
+            return timestamp;
+        }
+
+        long bits() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package de.uniluebeck.itm.eventstore;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * A ring buffer of the most recently stored events of a monotonic event store, kept deserialized, which serves the
+ * range queries falling completely into the cached window without reading the chronicle.
+ * <p/>
+ * The cache only knows the events stored since the store was opened. All events with a timestamp greater than
+ * {@link #lowerBound} are guaranteed to be cached: initially this is the timestamp of the first cached event
+ * (unless the store was empty), later the timestamp of the last evicted event.
+ * <p/>
+ * The iterators read the ring lazily, so that they return the events stored after their creation like the iterators
+ * reading the chronicle. An iterator whose next event was evicted in the meantime continues by reading the chronicle.
+ */
+class HotTailCache<T> {
+
+    private final EventStore<T> store;
+
+    /**
+     * True if the iterators must not return the events stored after their creation
+     */
+    private final boolean snapshot;
+
+    private final Object[] events;
+
+    private final long[] timestamps;
+
+    /**
+     * The position of the oldest cached event
+     */
+    private int head = 0;
+
+    private int size = 0;
+
+    private long lowerBound;
+
+    /**
+     * The number of events added since the cache was created
+     */
+    private long added = 0;
+
+    HotTailCache(EventStore<T> store, int capacity, boolean storeWasEmpty, boolean snapshot) {
+        this.store = store;
+        this.snapshot = snapshot;
+        this.events = new Object[capacity];
+        this.timestamps = new long[capacity];
+        this.lowerBound = storeWasEmpty ? Long.MIN_VALUE : Long.MAX_VALUE;
+    }
+
+    synchronized void add(T event, long timestamp) {
+        if (lowerBound == Long.MAX_VALUE) {
+            // events with the same timestamp may have been stored before opening the store
+            lowerBound = timestamp;
+        }
+        int position = (head + size) % events.length;
+        if (size == events.length) {
+            lowerBound = timestamps[head];
+            head = (head + 1) % events.length;
+        } else {
+            size++;
+        }
+        events[position] = event;
+        timestamps[position] = timestamp;
+        added++;
+    }
+
+    /**
+     * Gets the cached events between two timestamps if all events of the store in this range are cached
+     *
+     * @return an iterator over the events or null if the range isn't covered by the cache
+     */
+    synchronized CloseableIterator<EventContainer<T>> query(long fromTime, long toTime) {
+        if (fromTime <= lowerBound) {
+            return null;
+        }
+        return new RingIterator(added - size + firstNotBefore(fromTime), fromTime, toTime,
+                snapshot ? added : Long.MAX_VALUE);
+    }
+
+    /**
+     * Gets the cached event with the given sequence number
+     *
+     * @return the event, null if it was evicted
+     */
+    @SuppressWarnings("unchecked")
+    private EventContainer<T> get(long sequence) {
+        if (sequence < added - size) {
+            return null;
+        }
+        int position = (int) ((head + sequence - (added - size)) % events.length);
+        return new DefaultEventContainerImpl<T>((T) events[position], timestamps[position]);
+    }
+
+    /**
+     * Binary search for the offset (from the oldest event) of the first event not older than the given timestamp
+     */
+    private int firstNotBefore(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[(head + middle) % events.length] < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private class RingIterator implements CloseableIterator<EventContainer<T>> {
+
+        private final long toTime;
+
+        /**
+         * The sequence number of the next event to be returned
+         */
+        private long sequence;
+
+        /**
+         * The sequence number of the first event added after the iterator was created if it is a snapshot iterator
+         */
+        private final long end;
+
+        private EventContainer<T> next;
+
+        /**
+         * The timestamp of the event returned last and the number of returned events with this timestamp, used for
+         * continuing on the chronicle
+         */
+        private long lastTimestamp;
+
+        private int returnedWithLastTimestamp = 0;
+
+        /**
+         * The iterator over the chronicle used once the next event was evicted, null before
+         */
+        private CloseableIterator<EventContainer<T>> fallback;
+
+        private boolean finished = false;
+
+        private RingIterator(long sequence, long fromTime, long toTime, long end) {
+            this.sequence = sequence;
+            this.lastTimestamp = fromTime;
+            this.toTime = toTime;
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (fallback != null) {
+                return sequence < end && fallback.hasNext();
+            }
+            if (finished) {
+                return false;
+            }
+            synchronized (HotTailCache.this) {
+                if (sequence >= added || sequence >= end) {
+                    return false;
+                }
+                next = get(sequence);
+                if (next != null) {
+                    if (next.getTimestamp() > toTime) {
+                        next = null;
+                        finished = true;
+                        return false;
+                    }
+                    sequence++;
+                    return true;
+                }
+            }
+            // the next event was evicted -> continue behind the events returned already on the chronicle
+            try {
+                fallback = store.getEventsBetweenTimestamps(lastTimestamp, toTime);
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't continue iterating the events evicted from the cache", e);
+            }
+            for (int i = 0; i < returnedWithLastTimestamp && fallback.hasNext(); i++) {
+                fallback.next();
+            }
+            return sequence < end && fallback.hasNext();
+        }
+
+        @Override
+        public EventContainer<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (fallback != null) {
+                sequence++;
+                return fallback.next();
+            }
+            EventContainer<T> event = next;
+            next = null;
+            if (event.getTimestamp() == lastTimestamp) {
+                returnedWithLastTimestamp++;
+            } else {
+                lastTimestamp = event.getTimestamp();
+                returnedWithLastTimestamp = 1;
+            }
+            return event;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fallback != null) {
+                fallback.close();
+            }
+        }
+    }
+}
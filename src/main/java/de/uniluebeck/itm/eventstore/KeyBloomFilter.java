@@ -0,0 +1,380 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Splits the excerpts of an event store into segments of a fixed number of excerpts and keeps a Bloom filter over
+ * the keys of the events of each segment together with the range of their timestamps. Scans for a single key skip
+ * all segments whose filter says that the key is absent or whose events are out of the requested time range,
+ * without reading the segment at all.
+ * <p/>
+ * Keys are compared by their string representation, so the iterators have to check the key of each event they find.
+ * The filters of complete segments are appended to the file {@code <base path>.<name>.bloom} as records of a fixed
+ * size behind a short header, each holding the range of timestamps and the bits of the filter. Only the ranges of
+ * timestamps are read when the filter is opened, the bits of a filter are read from the file when a key is looked up
+ * in its segment. The filter of the last, incomplete segment is kept in memory and is rebuilt from the chronicle when
+ * the store is opened.
+ * <p/>
+ * A filter opened in read only mode never writes its file, but {@link #reload() reloads} the segments the writing
+ * process appended to it. It reports itself {@link #isFull() full} when the last segment in memory is complete and
+ * the queries scan the excerpts behind it.
+ */
+class KeyBloomFilter<T> implements EventIndex<T> {
+
+    private static Logger log = LoggerFactory.getLogger(KeyBloomFilter.class);
+
+    /**
+     * The version of the format of the filter file, recorded in the store header
+     */
+    static final int FORMAT_VERSION = 2;
+
+    /**
+     * The probability of a segment being read although it doesn't contain the key
+     */
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private static final int MAGIC = 0x4B424C4D;
+
+    /**
+     * The size of the header: the magic number, the format version, the segment size, the number of words of each
+     * filter and the number of hash functions
+     */
+    private static final int HEADER_SIZE = 20;
+
+    private final String name;
+
+    private final Function<? super T, ?> keyExtractor;
+
+    private final int segmentSize;
+
+    private final File filterFile;
+
+    private final boolean readOnly;
+
+    /**
+     * The number of 64 bit words of each filter
+     */
+    private final int words;
+
+    private final int hashFunctions;
+
+    /**
+     * The size of a segment record: the range of timestamps and the bits of the filter
+     */
+    private final int recordSize;
+
+    /**
+     * The filter file, null if the filter is read only and the file doesn't exist or was written differently
+     */
+    private RandomAccessFile file;
+
+    /**
+     * The number of complete segments in the filter file
+     */
+    private int segments;
+
+    private long[] minTimestamps = new long[16];
+
+    private long[] maxTimestamps = new long[16];
+
+    private Segment current;
+
+    private long indexedUntil;
+
+    private KeyBloomFilter(String name, Function<? super T, ?> keyExtractor, int segmentSize, File filterFile,
+                           boolean readOnly) {
+        this.name = name;
+        this.keyExtractor = keyExtractor;
+        this.segmentSize = segmentSize;
+        this.filterFile = filterFile;
+        this.readOnly = readOnly;
+        long bits = (long) Math.ceil(-segmentSize * Math.log(FALSE_POSITIVE_PROBABILITY) / (Math.log(2) * Math.log(2)));
+        this.words = (int) Math.max(1, (bits + 63) / 64);
+        this.hashFunctions = Math.max(1, (int) Math.round((double) words * 64 / segmentSize * Math.log(2)));
+        this.recordSize = 16 + 8 * words;
+        this.current = new Segment(words);
+    }
+
+    /**
+     * Opens or creates the key Bloom filters of an event store
+     *
+     * @param name         the name of the filter
+     * @param keyExtractor the function extracting the key of an event
+     * @param segmentSize  the number of excerpts covered by a single Bloom filter
+     * @param basePath     the base path of the event store
+     * @param readOnly     if the filter file must not be written
+     * @return the filter, which may have to be caught up with the excerpts from {@link #indexedUntil()} on
+     * @throws IOException if the filter file can't be read
+     */
+    static <T> KeyBloomFilter<T> open(String name, Function<? super T, ?> keyExtractor, int segmentSize,
+                                      String basePath, boolean readOnly) throws IOException {
+        KeyBloomFilter<T> filter = new KeyBloomFilter<T>(name, keyExtractor, segmentSize,
+                new File(basePath + "." + name + ".bloom"), readOnly);
+        try {
+            filter.load();
+        } catch (IOException e) {
+            filter.closeFile();
+            throw e;
+        }
+        return filter;
+    }
+
+    private void load() throws IOException {
+        if (readOnly && !filterFile.exists()) {
+            return;
+        }
+        file = new RandomAccessFile(filterFile, readOnly ? "r" : "rw");
+        boolean known = false;
+        if (file.length() >= HEADER_SIZE) {
+            byte[] header = new byte[HEADER_SIZE];
+            file.seek(0);
+            file.readFully(header);
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            known = buffer.getInt() == MAGIC && buffer.getInt() == FORMAT_VERSION && buffer.getInt() == segmentSize
+                    && buffer.getInt() == words && buffer.getInt() == hashFunctions;
+        }
+        if (!known) {
+            if (readOnly) {
+                closeFile();
+                return;
+            }
+            if (file.length() > 0) {
+                log.info("The Bloom filters {} were written differently, they will be rebuilt", filterFile);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(segmentSize).putInt(words).putInt(hashFunctions);
+            file.setLength(0);
+            file.seek(0);
+            file.write(header.array());
+            return;
+        }
+        // a segment written partially before a crash is discarded
+        int complete = (int) ((file.length() - HEADER_SIZE) / recordSize);
+        if (!readOnly) {
+            file.setLength(HEADER_SIZE + (long) complete * recordSize);
+        }
+        readSegments(complete);
+    }
+
+    /**
+     * Reads the ranges of timestamps of the segments in the file up to the given number of segments
+     */
+    private void readSegments(int complete) throws IOException {
+        int known = segments;
+        byte[] timestamps = new byte[16];
+        for (; segments < complete; segments++) {
+            file.seek(offsetOf(segments));
+            file.readFully(timestamps);
+            ByteBuffer buffer = ByteBuffer.wrap(timestamps);
+            putTimestamps(segments, buffer.getLong(), buffer.getLong());
+        }
+        if (segments > known) {
+            // the segment in memory was completed by the writing process
+            indexedUntil = (long) segments * segmentSize;
+            current = new Segment(words);
+        }
+    }
+
+    private void putTimestamps(int segment, long minTimestamp, long maxTimestamp) {
+        if (segment == minTimestamps.length) {
+            minTimestamps = Arrays.copyOf(minTimestamps, segment * 2);
+            maxTimestamps = Arrays.copyOf(maxTimestamps, segment * 2);
+        }
+        minTimestamps[segment] = minTimestamp;
+        maxTimestamps[segment] = maxTimestamp;
+    }
+
+    private long offsetOf(long segment) {
+        return HEADER_SIZE + segment * recordSize;
+    }
+
+    /**
+     * Reads the segments the writing process appended to the filter file since it was opened or reloaded. Does
+     * nothing if the filter isn't read only.
+     */
+    @Override
+    public synchronized void reload() throws IOException {
+        if (!readOnly) {
+            return;
+        }
+        if (file != null && file.length() >= offsetOf(segments)) {
+            readSegments((int) ((file.length() - HEADER_SIZE) / recordSize));
+        } else if (file != null || filterFile.exists()) {
+            // the file was created or rebuilt by the writing process
+            closeFile();
+            segments = 0;
+            indexedUntil = 0;
+            current = new Segment(words);
+            load();
+        }
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public Object keyOf(T event) {
+        return keyExtractor.apply(event);
+    }
+
+    int segmentSize() {
+        return segmentSize;
+    }
+
+    @Override
+    public synchronized long indexedUntil() {
+        return indexedUntil;
+    }
+
+    @Override
+    public synchronized boolean isFull() {
+        return readOnly && indexedUntil >= (long) (segments + 1) * segmentSize;
+    }
+
+    @Override
+    public synchronized void add(Object key, long excerptIndex, long timestamp) throws IOException {
+        completeSegmentsBefore(excerptIndex);
+        current.add(key == null ? null : key.toString(), timestamp);
+    }
+
+    @Override
+    public synchronized void setIndexedUntil(long indexedUntil) throws IOException {
+        this.indexedUntil = indexedUntil;
+        completeSegmentsBefore(indexedUntil);
+    }
+
+    /**
+     * Completes the current segment and all following empty segments until the one containing the given excerpt.
+     * A read only filter keeps the current segment, it is full then.
+     */
+    private void completeSegmentsBefore(long excerptIndex) throws IOException {
+        while (!readOnly && excerptIndex >= (long) (segments + 1) * segmentSize) {
+            ByteBuffer record = ByteBuffer.allocate(recordSize);
+            record.putLong(current.minTimestamp).putLong(current.maxTimestamp);
+            for (long word : current.bits) {
+                record.putLong(word);
+            }
+            file.seek(offsetOf(segments));
+            file.write(record.array());
+            putTimestamps(segments, current.minTimestamp, current.maxTimestamp);
+            segments++;
+            current = new Segment(words);
+        }
+    }
+
+    /**
+     * Searches the next segment which may contain events with the given key between two timestamps
+     *
+     * @param key      the key of the events
+     * @param segment  the number of the first segment to check
+     * @param fromTime the start time (inclusive)
+     * @param toTime   the end time (inclusive)
+     * @return the number of the segment or -1 if no further segment can contain such events
+     * @throws IOException if the filter file can't be read
+     */
+    synchronized long nextCandidate(Object key, long segment, long fromTime, long toTime) throws IOException {
+        long hash = hashOf(String.valueOf(key));
+        byte[] word = new byte[8];
+        for (; segment <= segments; segment++) {
+            if (segment == segments) {
+                if (current.minTimestamp <= toTime && current.maxTimestamp >= fromTime
+                        && mightContain(current.bits, hash)) {
+                    return segment;
+                }
+            } else if (minTimestamps[(int) segment] <= toTime && maxTimestamps[(int) segment] >= fromTime
+                    && mightContain(segment, hash, word)) {
+                return segment;
+            }
+        }
+        return -1;
+    }
+
+    private static long hashOf(String key) {
+        return Hashing.murmur3_128().hashString(key, Charsets.UTF_8).asLong();
+    }
+
+    /**
+     * @return the bit a hash function sets for a key, derived from the two halves of the hash of the key
+     */
+    private long bitOf(long hash, int function) {
+        int combined = (int) hash + function * (int) (hash >>> 32);
+        if (combined < 0) {
+            combined = ~combined;
+        }
+        return combined % ((long) words * 64);
+    }
+
+    private boolean mightContain(long[] bits, long hash) {
+        for (int i = 1; i <= hashFunctions; i++) {
+            long bit = bitOf(hash, i);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Looks up a key in the filter of a complete segment by reading the words holding its bits from the file
+     */
+    private boolean mightContain(long segment, long hash, byte[] word) throws IOException {
+        for (int i = 1; i <= hashFunctions; i++) {
+            long bit = bitOf(hash, i);
+            file.seek(offsetOf(segment) + 16 + (bit >>> 6) * 8);
+            file.readFully(word);
+            if ((ByteBuffer.wrap(word).getLong() & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeFile();
+    }
+
+    private void closeFile() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    private class Segment {
+
+        private final long[] bits;
+
+        private long minTimestamp = Long.MAX_VALUE;
+
+        private long maxTimestamp = Long.MIN_VALUE;
+
+        private Segment(int words) {
+            this.bits = new long[words];
+        }
+
+        private void add(String key, long timestamp) {
+            if (key != null) {
+                long hash = hashOf(key);
+                for (int i = 1; i <= hashFunctions; i++) {
+                    long bit = bitOf(hash, i);
+                    bits[(int) (bit >>> 6)] |= 1L << bit;
+                }
+            }
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+        }
+    }
+}
@@ -0,0 +1,704 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+import com.google.common.io.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * A secondary index mapping a key extracted from each event to the indices of the excerpts holding the events with
+ * that key. Keys are compared by their string representation, so the iterators have to check the key of each event
+ * they find.
+ * <p/>
+ * The index is stored in the file {@code <base path>.<name>.keyindex} as a header followed by a sequence of records.
+ * A postings record holds up to {@link #BLOCK_SIZE} ascending excerpt indices of a single key, the first one as is
+ * and the others as differences to their predecessor encoded as variable length integers, together with the range
+ * of their timestamps and the position of the previous postings record of the key. A checkpoint record states that
+ * the records before it contain all excerpts below a given index. A directory record is a checkpoint which also
+ * holds the position of the last postings record of each key, the header points to the last directory.
+ * <p/>
+ * Opening the index reads the last directory and the records behind it only. The postings records of a key are
+ * read when the key is queried for the first time and decoded while iterating. Records behind the last checkpoint
+ * are discarded when the index is opened and the excerpts appended since are indexed again, so the index never has
+ * to be forced to disk together with the chronicle.
+ * <p/>
+ * An index opened in read only mode never writes its file, but {@link #reload() reloads} the records the writing
+ * process appended to it. Postings of excerpts behind the last checkpoint of the file are kept in memory, at most
+ * {@link #READ_ONLY_PENDING_LIMIT} of them. The index reports itself {@link #isFull() full} then and the queries
+ * scan the excerpts which aren't indexed.
+ */
+class KeyIndex<T> implements EventIndex<T> {
+
+    private static Logger log = LoggerFactory.getLogger(KeyIndex.class);
+
+    /**
+     * The maximum number of postings in a single block
+     */
+    static final int BLOCK_SIZE = 128;
+
+    /**
+     * The version of the format of the index file, recorded in the store header
+     */
+    static final int FORMAT_VERSION = 2;
+
+    /**
+     * The maximum number of postings an index opened in read only mode keeps in memory
+     */
+    static final int READ_ONLY_PENDING_LIMIT = 65536;
+
+    /**
+     * The number of indexed events after which a checkpoint is written
+     */
+    private static final int CHECKPOINT_INTERVAL = 65536;
+
+    private static final int MAGIC = 0x4B494458;
+
+    /**
+     * The size of the header: the magic number, the format version and the position of the last directory
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * The size of a postings record in front of its key: the type, the count and length of the postings, the
+     * previous position, the first excerpt index, the range of timestamps and the length of the key
+     */
+    private static final int POSTINGS_HEADER_SIZE = 1 + 4 + 4 + 8 + 8 + 8 + 8 + 2;
+
+    private static final byte POSTINGS_RECORD = 1;
+
+    private static final byte CHECKPOINT_RECORD = 2;
+
+    private static final byte DIRECTORY_RECORD = 3;
+
+    private final String name;
+
+    private final Function<? super T, ?> keyExtractor;
+
+    private final File indexFile;
+
+    private final boolean readOnly;
+
+    private final Map<String, Postings> postings = new HashMap<String, Postings>();
+
+    /**
+     * The index file, null if the index is read only and the file doesn't exist or has an unknown format
+     */
+    private RandomAccessFile file;
+
+    /**
+     * The position behind the last checkpoint, which is the position the next record is written or read at
+     */
+    private long end;
+
+    /**
+     * All excerpts below this index are indexed
+     */
+    private long indexedUntil;
+
+    private int indexedSinceCheckpoint = 0;
+
+    /**
+     * The number of postings records written since the last directory
+     */
+    private int blocksSinceDirectory = 0;
+
+    /**
+     * The number of postings of all keys which aren't written to a postings record
+     */
+    private int pendingCount = 0;
+
+    private KeyIndex(String name, Function<? super T, ?> keyExtractor, File indexFile, boolean readOnly) {
+        this.name = name;
+        this.keyExtractor = keyExtractor;
+        this.indexFile = indexFile;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Opens or creates the key index of an event store
+     *
+     * @param name          the name of the index
+     * @param keyExtractor  the function extracting the key of an event
+     * @param basePath      the base path of the event store
+     * @param readOnly      if the index file must not be written
+     * @return the index, which may have to be caught up with the excerpts from {@link #indexedUntil()} on
+     * @throws IOException if the index file can't be read
+     */
+    static <T> KeyIndex<T> open(String name, Function<? super T, ?> keyExtractor, String basePath, boolean readOnly)
+            throws IOException {
+        KeyIndex<T> index = new KeyIndex<T>(name, keyExtractor, new File(basePath + "." + name + ".keyindex"), readOnly);
+        try {
+            index.load();
+        } catch (IOException e) {
+            index.closeFile();
+            throw e;
+        }
+        return index;
+    }
+
+    private void load() throws IOException {
+        if (readOnly && !indexFile.exists()) {
+            return;
+        }
+        file = new RandomAccessFile(indexFile, readOnly ? "r" : "rw");
+        long directoryPosition = -1;
+        boolean known = false;
+        if (file.length() >= HEADER_SIZE) {
+            file.seek(0);
+            known = file.readInt() == MAGIC && file.readInt() == FORMAT_VERSION;
+            directoryPosition = file.readLong();
+        }
+        if (!known) {
+            if (readOnly) {
+                closeFile();
+                return;
+            }
+            if (file.length() > 0) {
+                log.info("The key index {} has an unknown format and will be rebuilt", indexFile);
+            }
+            file.setLength(0);
+            file.seek(0);
+            file.writeInt(MAGIC);
+            file.writeInt(FORMAT_VERSION);
+            file.writeLong(-1);
+            end = HEADER_SIZE;
+            return;
+        }
+        // postings held in memory by a read only index are indexed again from the checkpoint of the file
+        postings.clear();
+        pendingCount = 0;
+        indexedUntil = 0;
+        end = HEADER_SIZE;
+        if (directoryPosition >= 0 && !readDirectory(directoryPosition)) {
+            log.warn("The directory of the key index {} is damaged, all records will be read", indexFile);
+            postings.clear();
+            indexedUntil = 0;
+            end = HEADER_SIZE;
+        }
+        scan();
+        if (!readOnly) {
+            file.setLength(end);
+        }
+    }
+
+    private CountingInputStream openStream(long position) throws IOException {
+        FileInputStream in = new FileInputStream(indexFile);
+        in.getChannel().position(position);
+        return new CountingInputStream(new BufferedInputStream(in));
+    }
+
+    /**
+     * Reads a directory record and the postings positions of all keys it holds
+     *
+     * @return if the directory was read, false if it is damaged
+     */
+    private boolean readDirectory(long position) throws IOException {
+        CountingInputStream counter = openStream(position);
+        DataInputStream raw = new DataInputStream(counter);
+        try {
+            if (raw.readByte() != DIRECTORY_RECORD) {
+                return false;
+            }
+            CheckedInputStream checked = new CheckedInputStream(counter, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            long checkpoint = in.readLong();
+            int keys = in.readInt();
+            Map<String, Long> lastPositions = new HashMap<String, Long>(keys * 2);
+            for (int i = 0; i < keys; i++) {
+                String key = in.readUTF();
+                lastPositions.put(key, in.readLong());
+            }
+            if (raw.readInt() != (int) checked.getChecksum().getValue()) {
+                return false;
+            }
+            for (Map.Entry<String, Long> lastPosition : lastPositions.entrySet()) {
+                postingsOf(lastPosition.getKey()).unloaded = lastPosition.getValue();
+            }
+            indexedUntil = checkpoint;
+            end = position + counter.getCount();
+            return true;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            raw.close();
+        }
+    }
+
+    /**
+     * Reads the records behind the last checkpoint and adds the postings records up to the last complete
+     * checkpoint behind them. The postings held in memory are dropped if a checkpoint is found.
+     */
+    private void scan() throws IOException {
+        long start = end;
+        CountingInputStream counter = openStream(start);
+        DataInputStream in = new DataInputStream(counter);
+        Map<String, List<Block>> uncommitted = new HashMap<String, List<Block>>();
+        try {
+            while (true) {
+                long position = start + counter.getCount();
+                byte type = in.readByte();
+                if (type == POSTINGS_RECORD) {
+                    int count = in.readInt();
+                    int length = in.readInt();
+                    // the position of the previous postings record is known already
+                    in.readLong();
+                    long firstIndex = in.readLong();
+                    long minTimestamp = in.readLong();
+                    long maxTimestamp = in.readLong();
+                    String key = in.readUTF();
+                    Block block = new Block(position, count, firstIndex, minTimestamp, maxTimestamp,
+                            start + counter.getCount(), length);
+                    if (in.skipBytes(length) != length) {
+                        throw new EOFException();
+                    }
+                    List<Block> blocks = uncommitted.get(key);
+                    if (blocks == null) {
+                        blocks = new ArrayList<Block>();
+                        uncommitted.put(key, blocks);
+                    }
+                    blocks.add(block);
+                } else if (type == CHECKPOINT_RECORD || type == DIRECTORY_RECORD) {
+                    long checkpoint = in.readLong();
+                    if (type == DIRECTORY_RECORD) {
+                        int keys = in.readInt();
+                        for (int i = 0; i < keys; i++) {
+                            in.readUTF();
+                            in.readLong();
+                        }
+                        in.readInt();
+                    }
+                    if (pendingCount > 0) {
+                        // only a read only index holds postings of excerpts behind the checkpoint of the file
+                        for (Postings keyPostings : postings.values()) {
+                            keyPostings.clearPending();
+                        }
+                        pendingCount = 0;
+                    }
+                    for (Map.Entry<String, List<Block>> entry : uncommitted.entrySet()) {
+                        postingsOf(entry.getKey()).blocks.addAll(entry.getValue());
+                    }
+                    uncommitted.clear();
+                    indexedUntil = checkpoint;
+                    end = start + counter.getCount();
+                } else {
+                    throw new IOException("Unknown record type " + type + " in key index " + indexFile);
+                }
+            }
+        } catch (EOFException e) {
+            // the end of the file or a record written partially before a crash
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the records the writing process appended to the index file since it was opened or reloaded. Does
+     * nothing if the index isn't read only.
+     */
+    @Override
+    public synchronized void reload() throws IOException {
+        if (!readOnly) {
+            return;
+        }
+        if (file != null && file.length() >= end) {
+            scan();
+        } else if (file != null) {
+            // the file was rebuilt by the writing process
+            closeFile();
+            postings.clear();
+            pendingCount = 0;
+            indexedUntil = 0;
+            load();
+        } else if (indexFile.exists()) {
+            load();
+        }
+    }
+
+    private Postings postingsOf(String key) {
+        Postings keyPostings = postings.get(key);
+        if (keyPostings == null) {
+            keyPostings = new Postings();
+            postings.put(key, keyPostings);
+        }
+        return keyPostings;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public Object keyOf(T event) {
+        return keyExtractor.apply(event);
+    }
+
+    @Override
+    public synchronized long indexedUntil() {
+        return indexedUntil;
+    }
+
+    @Override
+    public synchronized boolean isFull() {
+        return readOnly && pendingCount >= READ_ONLY_PENDING_LIMIT;
+    }
+
+    @Override
+    public synchronized void add(Object key, long excerptIndex, long timestamp) throws IOException {
+        if (key != null) {
+            String keyString = key.toString();
+            Postings keyPostings = postingsOf(keyString);
+            keyPostings.add(excerptIndex, timestamp);
+            pendingCount++;
+            if (keyPostings.pendingCount == BLOCK_SIZE && !readOnly) {
+                writeBlock(keyString, keyPostings);
+            }
+        }
+        indexedSinceCheckpoint++;
+    }
+
+    /**
+     * Marks all excerpts below the given index as indexed. Writes a checkpoint from time to time.
+     */
+    @Override
+    public synchronized void setIndexedUntil(long indexedUntil) throws IOException {
+        this.indexedUntil = indexedUntil;
+        if (indexedSinceCheckpoint >= CHECKPOINT_INTERVAL && !readOnly) {
+            checkpoint(false);
+        }
+    }
+
+    /**
+     * Collects the postings of a key whose events may lie between two timestamps. Reads the positions of the
+     * postings records of the key if it is queried for the first time, but doesn't decode them.
+     *
+     * @return the postings blocks and the postings held in memory, which refer to events whose keys have the same
+     * string representation as the given key
+     * @throws IOException if the index file can't be read
+     */
+    synchronized Snapshot postings(Object key, long fromTime, long toTime) throws IOException {
+        Postings keyPostings = postings.get(String.valueOf(key));
+        if (keyPostings == null) {
+            return new Snapshot(Collections.<Block>emptyList(), new long[0], indexedUntil);
+        }
+        loadBlocks(keyPostings);
+        List<Block> candidates = new ArrayList<Block>();
+        for (Block block : keyPostings.blocks) {
+            if (block.minTimestamp <= toTime && block.maxTimestamp >= fromTime) {
+                candidates.add(block);
+            }
+        }
+        long[] pending = new long[0];
+        if (keyPostings.pendingMinTimestamp <= toTime && keyPostings.pendingMaxTimestamp >= fromTime) {
+            pending = Arrays.copyOf(keyPostings.pending, keyPostings.pendingCount);
+        }
+        return new Snapshot(candidates, pending, indexedUntil);
+    }
+
+    /**
+     * Decodes a block of postings
+     *
+     * @return the ascending excerpt indices of the block
+     * @throws IOException if the index file can't be read
+     */
+    synchronized long[] read(Block block) throws IOException {
+        if (file == null) {
+            throw new IOException("The key index " + indexFile + " was closed");
+        }
+        byte[] encoded = new byte[block.length];
+        file.seek(block.dataPosition);
+        file.readFully(encoded);
+        long[] postings = new long[block.count];
+        decode(encoded, block.firstIndex, postings);
+        return postings;
+    }
+
+    /**
+     * Reads the headers of the postings records of a key which were written before the index was opened
+     */
+    private void loadBlocks(Postings keyPostings) throws IOException {
+        if (keyPostings.unloaded < 0) {
+            return;
+        }
+        List<Block> blocks = new ArrayList<Block>();
+        byte[] header = new byte[POSTINGS_HEADER_SIZE];
+        for (long position = keyPostings.unloaded; position >= 0; ) {
+            file.seek(position);
+            file.readFully(header);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+            if (in.readByte() != POSTINGS_RECORD) {
+                throw new IOException("The key index " + indexFile + " has no postings at position " + position);
+            }
+            int count = in.readInt();
+            int length = in.readInt();
+            long previous = in.readLong();
+            long firstIndex = in.readLong();
+            long minTimestamp = in.readLong();
+            long maxTimestamp = in.readLong();
+            int keyLength = in.readUnsignedShort();
+            blocks.add(new Block(position, count, firstIndex, minTimestamp, maxTimestamp,
+                    position + POSTINGS_HEADER_SIZE + keyLength, length));
+            position = previous;
+        }
+        Collections.reverse(blocks);
+        blocks.addAll(keyPostings.blocks);
+        keyPostings.blocks.clear();
+        keyPostings.blocks.addAll(blocks);
+        keyPostings.unloaded = -1;
+    }
+
+    private void writeBlock(String key, Postings keyPostings) throws IOException {
+        int count = keyPostings.pendingCount;
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(count * 2);
+        for (int i = 1; i < count; i++) {
+            writeVarLong(encoded, keyPostings.pending[i] - keyPostings.pending[i - 1]);
+        }
+        long previous = keyPostings.lastPosition();
+        ByteArrayOutputStream record = new ByteArrayOutputStream(POSTINGS_HEADER_SIZE + key.length() + encoded.size());
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeByte(POSTINGS_RECORD);
+        out.writeInt(count);
+        out.writeInt(encoded.size());
+        out.writeLong(previous);
+        out.writeLong(keyPostings.pending[0]);
+        out.writeLong(keyPostings.pendingMinTimestamp);
+        out.writeLong(keyPostings.pendingMaxTimestamp);
+        out.writeUTF(key);
+        long dataPosition = end + out.size();
+        encoded.writeTo(out);
+        out.flush();
+
+        file.seek(end);
+        file.write(record.toByteArray());
+        keyPostings.blocks.add(new Block(end, count, keyPostings.pending[0], keyPostings.pendingMinTimestamp,
+                keyPostings.pendingMaxTimestamp, dataPosition, encoded.size()));
+        end += record.size();
+        pendingCount -= count;
+        keyPostings.clearPending();
+        blocksSinceDirectory++;
+    }
+
+    /**
+     * Writes all pending postings followed by a checkpoint record. The checkpoint is a directory if requested or
+     * if more postings records were written since the last directory than there are keys, which keeps the size
+     * of the directories below the size of the postings records.
+     */
+    private void checkpoint(boolean directory) throws IOException {
+        for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+            if (entry.getValue().pendingCount > 0) {
+                writeBlock(entry.getKey(), entry.getValue());
+            }
+        }
+        if (directory || blocksSinceDirectory >= postings.size()) {
+            writeDirectory();
+        } else {
+            file.seek(end);
+            file.writeByte(CHECKPOINT_RECORD);
+            file.writeLong(indexedUntil);
+            end = file.getFilePointer();
+        }
+        indexedSinceCheckpoint = 0;
+    }
+
+    private void writeDirectory() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(16 + postings.size() * 24);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeLong(indexedUntil);
+        int keys = 0;
+        for (Postings keyPostings : postings.values()) {
+            if (keyPostings.lastPosition() >= 0) {
+                keys++;
+            }
+        }
+        out.writeInt(keys);
+        for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+            if (entry.getValue().lastPosition() >= 0) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().lastPosition());
+            }
+        }
+        out.flush();
+        CRC32 checksum = new CRC32();
+        checksum.update(body.toByteArray());
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(body.size() + 5);
+        DataOutputStream recordOut = new DataOutputStream(record);
+        recordOut.writeByte(DIRECTORY_RECORD);
+        body.writeTo(recordOut);
+        recordOut.writeInt((int) checksum.getValue());
+        recordOut.flush();
+        long position = end;
+        file.seek(position);
+        file.write(record.toByteArray());
+        end += record.size();
+        // the header points to the directory only after it was written completely
+        file.seek(8);
+        file.writeLong(position);
+        blocksSinceDirectory = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            try {
+                if (!readOnly && (indexedSinceCheckpoint > 0 || blocksSinceDirectory > 0)) {
+                    checkpoint(true);
+                }
+            } finally {
+                closeFile();
+            }
+        }
+    }
+
+    private void closeFile() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static void decode(byte[] encoded, long firstIndex, long[] target) {
+        long value = firstIndex;
+        int offset = 0;
+        target[0] = value;
+        for (int i = 1; i < target.length; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = encoded[offset++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            value += delta;
+            target[i] = value;
+        }
+    }
+
+    /**
+     * The postings of a key found by a query: the blocks in the index file, which are decoded by {@link #read(Block)},
+     * the postings held in memory and the first excerpt which isn't indexed
+     */
+    static class Snapshot {
+
+        final List<Block> blocks;
+
+        final long[] pending;
+
+        final long indexedUntil;
+
+        private Snapshot(List<Block> blocks, long[] pending, long indexedUntil) {
+            this.blocks = blocks;
+            this.pending = pending;
+            this.indexedUntil = indexedUntil;
+        }
+    }
+
+    /**
+     * A block of postings stored in the index file
+     */
+    static class Block {
+
+        private final long position;
+
+        private final int count;
+
+        private final long firstIndex;
+
+        private final long minTimestamp;
+
+        private final long maxTimestamp;
+
+        private final long dataPosition;
+
+        private final int length;
+
+        private Block(long position, int count, long firstIndex, long minTimestamp, long maxTimestamp,
+                      long dataPosition, int length) {
+            this.position = position;
+            this.count = count;
+            this.firstIndex = firstIndex;
+            this.minTimestamp = minTimestamp;
+            this.maxTimestamp = maxTimestamp;
+            this.dataPosition = dataPosition;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The postings of a single key: the blocks in the index file and the postings which weren't written yet
+     */
+    private static class Postings {
+
+        /**
+         * The blocks read or written since the index was opened, in the order of their excerpt indices
+         */
+        private final List<Block> blocks = new ArrayList<Block>();
+
+        /**
+         * The position of the last postings record in front of {@link #blocks} which wasn't read yet, -1 if there
+         * is none
+         */
+        private long unloaded = -1;
+
+        private long[] pending = new long[8];
+
+        private int pendingCount = 0;
+
+        private long pendingMinTimestamp = Long.MAX_VALUE;
+
+        private long pendingMaxTimestamp = Long.MIN_VALUE;
+
+        private void add(long excerptIndex, long timestamp) {
+            if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            pending[pendingCount++] = excerptIndex;
+            pendingMinTimestamp = Math.min(pendingMinTimestamp, timestamp);
+            pendingMaxTimestamp = Math.max(pendingMaxTimestamp, timestamp);
+        }
+
+        private void clearPending() {
+            if (pending.length > BLOCK_SIZE) {
+                pending = new long[8];
+            }
+            pendingCount = 0;
+            pendingMinTimestamp = Long.MAX_VALUE;
+            pendingMaxTimestamp = Long.MIN_VALUE;
+        }
+
+        /**
+         * @return the position of the last postings record of the key, -1 if there is none
+         */
+        private long lastPosition() {
+            return blocks.isEmpty() ? unloaded : blocks.get(blocks.size() - 1).position;
+        }
+    }
+}
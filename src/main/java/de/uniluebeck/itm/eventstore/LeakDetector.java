@@ -0,0 +1,112 @@
+package de.uniluebeck.itm.eventstore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks resources which have to be closed explicitly. If a tracked object becomes unreachable without having been
+ * closed, the leak is reported together with its allocation site (if recorded) and a cleanup action is run.
+ * <p/>
+ * This is the approach of {@code java.lang.ref.Cleaner} built on phantom references, as the event store is compiled
+ * for Java 6. A single daemon thread processes the reference queue. The cleanup action must not reference the
+ * tracked object, otherwise the object never becomes phantom reachable.
+ */
+final class LeakDetector {
+
+    private static Logger log = LoggerFactory.getLogger(LeakDetector.class);
+
+    private static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+    /**
+     * Keeps the trackers reachable until their resources are closed or reported
+     */
+    private static final Set<Tracker> trackers = Collections.newSetFromMap(new ConcurrentHashMap<Tracker, Boolean>());
+
+    static {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        ((Tracker) queue.remove()).leaked();
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (RuntimeException e) {
+                        log.error("Cleanup of leaked resource failed", e);
+                    }
+                }
+            }
+        }, "EventStore-LeakDetector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private LeakDetector() {
+    }
+
+    /**
+     * Starts tracking a resource
+     *
+     * @param resource             the object which has to be closed
+     * @param description          a description of the resource used for reporting a leak
+     * @param cleanup              the action releasing the underlying resources, must not reference {@code resource}
+     * @param recordAllocationSite if the stack trace of the caller should be recorded for reporting a leak
+     * @return the tracker which has to be closed when the resource is closed
+     */
+    static Tracker track(Object resource, String description, Closeable cleanup, boolean recordAllocationSite) {
+        Tracker tracker = new Tracker(resource, description, cleanup,
+                recordAllocationSite ? new Throwable("Allocation site of " + description) : null);
+        trackers.add(tracker);
+        return tracker;
+    }
+
+    static final class Tracker extends PhantomReference<Object> {
+
+        private final String description;
+
+        private final Closeable cleanup;
+
+        private final Throwable allocationSite;
+
+        private Tracker(Object resource, String description, Closeable cleanup, Throwable allocationSite) {
+            super(resource, queue);
+            this.description = description;
+            this.cleanup = cleanup;
+            this.allocationSite = allocationSite;
+        }
+
+        /**
+         * Stops tracking because the resource was closed properly
+         */
+        void close() {
+            if (trackers.remove(this)) {
+                clear();
+            }
+        }
+
+        private void leaked() {
+            if (!trackers.remove(this)) {
+                return;
+            }
+            if (allocationSite != null) {
+                log.error(description + " was still open. Have you forgotten closing it?", allocationSite);
+            } else {
+                log.error(description + " was still open. Have you forgotten closing it? "
+                        + "Enable recording of allocation sites in the EventStoreFactory to find out where it was created.");
+            }
+            try {
+                cleanup.close();
+            } catch (IOException e) {
+                log.error("Can't release resources of " + description, e);
+            }
+        }
+    }
+}
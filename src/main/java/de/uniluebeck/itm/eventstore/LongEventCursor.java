@@ -0,0 +1,25 @@
+package de.uniluebeck.itm.eventstore;
+
+/**
+ * Iterates over the events of a {@link LongEventStore} without allocating objects per event. The cursor is
+ * positioned before the first event initially.
+ */
+public interface LongEventCursor {
+
+    /**
+     * Moves the cursor to the next event
+     *
+     * @return false if there is no next event at the moment
+     */
+    boolean next();
+
+    /**
+     * @return the timestamp of the current event
+     */
+    long timestamp();
+
+    /**
+     * @return the value of the current event
+     */
+    long value();
+}
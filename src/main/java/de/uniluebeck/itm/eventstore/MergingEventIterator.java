@@ -0,0 +1,162 @@
+package de.uniluebeck.itm.eventstore;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Merges several event iterators into a single iterator ordered by timestamp. The head event of each source is
+ * kept in a binary min-heap on primitive timestamps; events with equal timestamps are returned in source order.
+ * <p/>
+ * The result is only ordered if every source returns its events ordered by timestamp. If the iterator is live, sources
+ * without a next event are polled again on every call of {@link #hasNext()}, so that events appended to a source
+ * later on are picked up like by the iterators returned by {@link EventStore#getEventsFromTimestamp(long)}.
+ */
+class MergingEventIterator<E extends EventContainer<?>> implements CloseableIterator<E> {
+
+    private final List<? extends CloseableIterator<E>> sources;
+
+    private final boolean live;
+
+    private final E[] heads;
+
+    private final long[] heapTimestamps;
+
+    private final int[] heapSources;
+
+    private final boolean[] idle;
+
+    private int heapSize = 0;
+
+    @SuppressWarnings("unchecked")
+    public MergingEventIterator(List<? extends CloseableIterator<E>> sources, boolean live) {
+        this.sources = sources;
+        this.live = live;
+        this.heads = (E[]) new EventContainer<?>[sources.size()];
+        this.heapTimestamps = new long[sources.size()];
+        this.heapSources = new int[sources.size()];
+        this.idle = new boolean[sources.size()];
+        for (int source = 0; source < sources.size(); source++) {
+            poll(source);
+        }
+    }
+
+    private void poll(int source) {
+        if (sources.get(source).hasNext()) {
+            idle[source] = false;
+            push(source, sources.get(source).next());
+        } else {
+            idle[source] = true;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (live) {
+            for (int source = 0; source < idle.length; source++) {
+                if (idle[source]) {
+                    poll(source);
+                }
+            }
+        }
+        return heapSize > 0;
+    }
+
+    @Override
+    public E next() {
+        if (heapSize == 0 && !hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int source = heapSources[0];
+        E event = heads[source];
+        CloseableIterator<E> iterator = sources.get(source);
+        if (iterator.hasNext()) {
+            E head = iterator.next();
+            heads[source] = head;
+            heapTimestamps[0] = head.getTimestamp();
+            siftDown(0);
+        } else {
+            heads[source] = null;
+            idle[source] = true;
+            heapSize--;
+            if (heapSize > 0) {
+                heapTimestamps[0] = heapTimestamps[heapSize];
+                heapSources[0] = heapSources[heapSize];
+                siftDown(0);
+            }
+        }
+        return event;
+    }
+
+    private void push(int source, E head) {
+        heads[source] = head;
+        int position = heapSize++;
+        heapTimestamps[position] = head.getTimestamp();
+        heapSources[position] = source;
+        siftUp(position);
+    }
+
+    private boolean less(int a, int b) {
+        return heapTimestamps[a] < heapTimestamps[b]
+                || (heapTimestamps[a] == heapTimestamps[b] && heapSources[a] < heapSources[b]);
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!less(position, parent)) {
+                return;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < heapSize && less(left, smallest)) {
+                smallest = left;
+            }
+            if (right < heapSize && less(right, smallest)) {
+                smallest = right;
+            }
+            if (smallest == position) {
+                return;
+            }
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long timestamp = heapTimestamps[a];
+        heapTimestamps[a] = heapTimestamps[b];
+        heapTimestamps[b] = timestamp;
+        int source = heapSources[a];
+        heapSources[a] = heapSources[b];
+        heapSources[b] = source;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (CloseableIterator<E> source : sources) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package de.uniluebeck.itm.eventstore;
+
+import de.uniluebeck.itm.eventstore.adapter.IndexedChronicleAdapter;
+import net.openhft.lang.io.ByteBufferBytes;
+import net.openhft.lang.io.IOTools;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Touches the pages of the data file of a chronicle ahead of its appender from a daemon thread, so that the
+ * appender doesn't stall on page faults when it moves on to the next data block. The pages are touched through a
+ * separate mapping of the data file by a compare-and-swap of zero with zero, which faults them in writable without
+ * ever modifying bytes the appender wrote concurrently.
+ * <p/>
+ * Before that, the most recently written bytes of the data file are read into the page cache, so that the first
+ * queries for recent events after opening the store don't stall on disk reads.
+ * <p/>
+ * The bytes are read through a reused buffer and the mapping of every touched data block is unmapped right away, so
+ * that no mappings are left behind until they are garbage collected.
+ */
+class Prefaulter implements Closeable {
+
+    private static Logger log = LoggerFactory.getLogger(Prefaulter.class);
+
+    private static final int PAGE_SIZE = 4096;
+
+    /**
+     * The maximum number of bytes read at once when warming up
+     */
+    private static final int WARM_UP_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * The interval in which the position of the appender is checked
+     */
+    private static final long POLL_INTERVAL_MILLIS = 10;
+
+    private final IndexedChronicleAdapter chronicle;
+
+    private final RandomAccessFile dataFile;
+
+    private final long dataBlockSize;
+
+    private final int blocksAhead;
+
+    private final long warmUpBytes;
+
+    private final Object lock = new Object();
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    /**
+     * The data file offset up to which the pages were touched, only written by the thread
+     */
+    private volatile long prefaultedUntil = 0;
+
+    /**
+     * @param chronicle   the chronicle
+     * @param dataPath    the path of the data file of the chronicle
+     * @param blocksAhead the number of data blocks behind the one being appended to which are touched, 0 if the
+     *                    chronicle is read only
+     * @param warmUpBytes the number of most recently written bytes read into the page cache
+     */
+    Prefaulter(IndexedChronicleAdapter chronicle, String dataPath, int blocksAhead, long warmUpBytes) throws IOException {
+        this.chronicle = chronicle;
+        this.dataFile = new RandomAccessFile(dataPath, blocksAhead > 0 ? "rw" : "r");
+        this.dataBlockSize = chronicle.config().dataBlockSize();
+        this.blocksAhead = blocksAhead;
+        this.warmUpBytes = warmUpBytes;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    warmUp();
+                    if (Prefaulter.this.blocksAhead > 0) {
+                        prefaultLoop();
+                    }
+                } catch (IOException e) {
+                    log.error("Touching the data file of chronicle " + Prefaulter.this.chronicle.name() + " failed", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "EventStore-Prefaulter-" + chronicle.name());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void warmUp() throws IOException {
+        long end = Math.min(chronicle.dataPosition(chronicle.size() - 1), dataFile.length());
+        long position = Math.max(0, end - warmUpBytes);
+        if (position >= end) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(end - position, WARM_UP_CHUNK_SIZE));
+        while (position < end && running) {
+            buffer.clear();
+            buffer.limit((int) Math.min(end - position, buffer.capacity()));
+            if (dataFile.getChannel().read(buffer, position) < 0) {
+                break;
+            }
+            position += buffer.position();
+        }
+    }
+
+    private void prefaultLoop() throws IOException, InterruptedException {
+        while (running) {
+            long position = chronicle.dataPosition(chronicle.size() - 1);
+            long end = (position / dataBlockSize + 1 + blocksAhead) * dataBlockSize;
+            long start = Math.max(prefaultedUntil, position - position % PAGE_SIZE);
+            while (start < end && running) {
+                long block = start / dataBlockSize;
+                MappedByteBuffer buffer = dataFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                        block * dataBlockSize, dataBlockSize);
+                ByteBufferBytes bytes = new ByteBufferBytes(buffer);
+                for (long offset = start - block * dataBlockSize; offset < dataBlockSize; offset += PAGE_SIZE) {
+                    bytes.compareAndSwapInt(offset, 0, 0);
+                }
+                IOTools.clean(buffer);
+                start = (block + 1) * dataBlockSize;
+                prefaultedUntil = start;
+            }
+            synchronized (lock) {
+                if (running) {
+                    lock.wait(POLL_INTERVAL_MILLIS);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the data file offset up to which the pages were touched
+     */
+    long prefaultedUntil() {
+        return prefaultedUntil;
+    }
+
+    /**
+     * Stops the background thread
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dataFile.close();
+    }
+}
@@ -0,0 +1,64 @@
+package de.uniluebeck.itm.eventstore;
+
+import net.openhft.lang.io.Bytes;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads batches from an iterator over raw events, which must return copies if it reads ahead and must not pick up
+ * events appended after it was exhausted. An event which doesn't fit into a batch is kept for the next one.
+ */
+class RawEventBatchReader<T> implements EventBatchReader {
+
+    private final CloseableIterator<RawEventContainer<T>> events;
+
+    private RawEventContainer<T> pending;
+
+    RawEventBatchReader(CloseableIterator<RawEventContainer<T>> events) {
+        this.events = events;
+    }
+
+    @Override
+    public int readBatch(long[] timestamps, byte[] typeIds, ByteBuffer payloads, int[] offsets, int max) {
+        max = Math.min(max, Math.min(Math.min(timestamps.length, typeIds.length), offsets.length - 1));
+        int count = 0;
+        offsets[0] = payloads.position();
+        while (count < max && (pending != null || events.hasNext())) {
+            RawEventContainer<T> event = pending != null ? pending : events.next();
+            pending = null;
+            if (event.getPayload().remaining() > payloads.remaining()) {
+                pending = event;
+                if (count == 0) {
+                    throw new BufferOverflowException();
+                }
+                break;
+            }
+            timestamps[count] = event.getTimestamp();
+            typeIds[count] = event.getTypeId();
+            copy(event.getPayload(), payloads);
+            offsets[++count] = payloads.position();
+        }
+        return count == 0 && pending == null && !events.hasNext() ? -1 : count;
+    }
+
+    /**
+     * Copies the remaining bytes of a payload into a buffer, in bulk if the buffer is backed by an array
+     */
+    static void copy(Bytes payload, ByteBuffer buffer) {
+        int length = (int) payload.remaining();
+        if (buffer.hasArray()) {
+            payload.readFully(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            buffer.position(buffer.position() + length);
+        } else {
+            payload.read(buffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        pending = null;
+        events.close();
+    }
+}
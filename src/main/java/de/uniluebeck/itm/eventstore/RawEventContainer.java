@@ -0,0 +1,45 @@
+package de.uniluebeck.itm.eventstore;
+
+import net.openhft.lang.io.Bytes;
+
+/**
+ * An event container returned by {@link EventStore#getRawEventsBetweenTimestamps(long, long)}, which exposes the
+ * serialized form of the event besides the event itself.
+ * <p/>
+ * The container refers to the memory the event store is mapped to. It is only valid until the next call of
+ * {@code hasNext()}, {@code next()} or {@code close()} of the iterator which returned it; afterwards its methods
+ * throw an {@link IllegalStateException}, except for {@link #getTimestamp()}. Use {@link #copy()} to keep an event
+ * for longer.
+ */
+public interface RawEventContainer<T> extends EventContainer<T> {
+
+    /**
+     * Deserializes the event on the first call
+     *
+     * @return the event
+     * @throws IllegalStateException if the container isn't valid any more
+     */
+    @Override
+    T getEvent();
+
+    /**
+     * @return the byte the class of the event is mapped to in the {@code <base path>.mapping} file
+     * @throws IllegalStateException if the container isn't valid any more
+     */
+    byte getTypeId();
+
+    /**
+     * Returns the serialized event as returned by its serializer, positioned at its start. The bytes must not be
+     * modified. Events stored in a single excerpt are not copied, events stored in chunks are reassembled on the heap.
+     *
+     * @return a read only view on the serialized event
+     * @throws IllegalStateException if the container isn't valid any more
+     */
+    Bytes getPayload();
+
+    /**
+     * @return a container holding a copy of the serialized event, which stays valid
+     * @throws IllegalStateException if the container isn't valid any more
+     */
+    RawEventContainer<T> copy();
+}
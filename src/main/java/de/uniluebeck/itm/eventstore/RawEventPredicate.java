@@ -0,0 +1,24 @@
+package de.uniluebeck.itm.eventstore;
+
+import net.openhft.lang.io.Bytes;
+
+/**
+ * A predicate evaluated against the serialized form of an event before it is deserialized. Together with a fixed
+ * layout of the serialized events, this allows filtering on fields like a severity or a node id without
+ * deserializing the events which don't match.
+ *
+ * @see EventStore#getEventsBetweenTimestamps(long, long, RawEventPredicate)
+ */
+public interface RawEventPredicate {
+
+    /**
+     * Tests a single event
+     *
+     * @param typeId    the byte the class of the event is mapped to in the {@code <base path>.mapping} file
+     * @param timestamp the timestamp of the event
+     * @param payload   the serialized event as returned by its serializer, positioned at its start. The bytes are
+     *                  read directly from the store and must neither be modified nor used after this method returned.
+     * @return true if the event has to be deserialized and returned, false if it has to be skipped
+     */
+    boolean test(byte typeId, long timestamp, Bytes payload);
+}
@@ -0,0 +1,198 @@
+package de.uniluebeck.itm.eventstore;
+
+import de.uniluebeck.itm.eventstore.adapter.IndexedChronicleAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the data of sequential scans ahead of their iterators into the page cache from a daemon thread, so that
+ * waiting for the disk overlaps with deserializing the events. The iterators only publish the index of the excerpt
+ * they read; the thread looks up its position in the data file and loads the bytes up to the read ahead distance
+ * behind it. A single thread serves all scans of an event store, loading at most {@link #CHUNK_SIZE} bytes of a
+ * scan before turning to the next one.
+ * <p/>
+ * The bytes are read into a single direct buffer, which is reused for all chunks. Mapping every chunk instead would
+ * leave the mappings behind until they are garbage collected, which may exhaust the number of mappings of the
+ * process.
+ */
+class ReadAhead implements Closeable {
+
+    private static Logger log = LoggerFactory.getLogger(ReadAhead.class);
+
+    /**
+     * The maximum number of bytes loaded for a scan at once
+     */
+    static final int CHUNK_SIZE = 1 << 20;
+
+    /**
+     * The interval in which the positions of the scans are checked if nothing had to be loaded
+     */
+    private static final long POLL_INTERVAL_MILLIS = 5;
+
+    private final IndexedChronicleAdapter chronicle;
+
+    private final RandomAccessFile dataFile;
+
+    private final long distance;
+
+    /**
+     * The buffer the chunks are read into, only used by the thread
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+    /**
+     * The registered scans, guarded by itself
+     */
+    private final List<Scan> scans = new ArrayList<Scan>();
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param chronicle the chronicle
+     * @param dataPath  the path of the data file of the chronicle
+     * @param distance  the number of bytes loaded ahead of the excerpt read by a scan
+     */
+    ReadAhead(IndexedChronicleAdapter chronicle, String dataPath, long distance) throws IOException {
+        this.chronicle = chronicle;
+        this.dataFile = new RandomAccessFile(dataPath, "r");
+        this.distance = distance;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    readAheadLoop();
+                } catch (IOException e) {
+                    log.error("Reading ahead in chronicle " + ReadAhead.this.chronicle.name() + " failed", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "EventStore-ReadAhead-" + chronicle.name());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Registers a scan, which must be closed when its iterator is closed
+     */
+    Scan register() {
+        Scan scan = new Scan();
+        synchronized (scans) {
+            scans.add(scan);
+            scans.notifyAll();
+        }
+        return scan;
+    }
+
+    private void readAheadLoop() throws IOException, InterruptedException {
+        while (running) {
+            Scan[] current;
+            synchronized (scans) {
+                current = scans.toArray(new Scan[scans.size()]);
+            }
+            boolean loaded = false;
+            for (Scan scan : current) {
+                loaded |= load(scan);
+            }
+            if (!loaded) {
+                synchronized (scans) {
+                    if (running) {
+                        scans.wait(POLL_INTERVAL_MILLIS);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the next chunk ahead of a scan
+     *
+     * @return true if something was loaded
+     */
+    private boolean load(Scan scan) throws IOException {
+        long index = scan.index;
+        if (index < 0) {
+            return false;
+        }
+        long position = chronicle.dataPosition(index);
+        long end = Math.min(position + distance,
+                Math.min(chronicle.dataPosition(chronicle.size() - 1), dataFile.length()));
+        long start = Math.max(scan.loadedUntil, position);
+        if (start >= end) {
+            return false;
+        }
+        int length = (int) Math.min(end - start, CHUNK_SIZE);
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (dataFile.getChannel().read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        scan.loadedUntil = start + length;
+        return true;
+    }
+
+    /**
+     * Stops the background thread
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (scans) {
+            running = false;
+            scans.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dataFile.close();
+    }
+
+    /**
+     * The position of a sequential scan
+     */
+    class Scan implements Closeable {
+
+        /**
+         * The index of the excerpt read by the iterator, -1 before the first one
+         */
+        private volatile long index = -1;
+
+        /**
+         * The data file offset up to which the bytes were loaded, only written by the thread
+         */
+        private volatile long loadedUntil = 0;
+
+        private Scan() {
+        }
+
+        /**
+         * Publishes the index of the excerpt read by the iterator
+         */
+        void moveTo(long index) {
+            this.index = index;
+        }
+
+        long loadedUntil() {
+            return loadedUntil;
+        }
+
+        @Override
+        public void close() {
+            synchronized (scans) {
+                scans.remove(this);
+            }
+        }
+    }
+}
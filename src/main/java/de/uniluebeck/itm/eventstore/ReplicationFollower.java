@@ -0,0 +1,251 @@
+package de.uniluebeck.itm.eventstore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an event store up to date with the excerpts appended to the store of a {@link ReplicationLeader}, e.g. for
+ * moving heavy reads off the machine storing the events. The follower connects to the leader from a daemon thread,
+ * asks for the excerpts behind the last one it holds and appends them verbatim. If the connection breaks, it
+ * reconnects after a growing delay of at most {@link #MAX_RECONNECT_DELAY_MILLIS} and resumes from its last excerpt.
+ * <p/>
+ * The store of the follower can be queried while it is replicated, but storing events is rejected. Its key indexes
+ * and key Bloom filters are updated for the replicated events. A follower which is rejected by the leader, e.g.
+ * because its data block size differs, stops replicating.
+ */
+public class ReplicationFollower implements Closeable {
+
+    private static Logger log = LoggerFactory.getLogger(ReplicationFollower.class);
+
+    /**
+     * The delay before reconnecting after the first failure, doubled after every further one
+     */
+    static final long MIN_RECONNECT_DELAY_MILLIS = 100;
+
+    static final long MAX_RECONNECT_DELAY_MILLIS = 5000;
+
+    /**
+     * The time without any message from the leader after which the connection is considered broken
+     */
+    private static final int READ_TIMEOUT_MILLIS = (int) (3 * ReplicationLeader.HEARTBEAT_INTERVAL_MILLIS);
+
+    private final ChronicleBasedEventStoreImpl<?> store;
+
+    private final InetSocketAddress leader;
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    private volatile boolean connected = false;
+
+    /**
+     * The connection to the leader, guarded by this
+     */
+    private Socket socket;
+
+    private ReplicationFollower(ChronicleBasedEventStoreImpl<?> store, InetSocketAddress leader) {
+        this.store = store;
+        this.leader = leader;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replicationLoop();
+                } finally {
+                    ReplicationFollower.this.store.stopReplica();
+                }
+            }
+        }, "EventStore-ReplicationFollower-" + leader);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts replicating the store of a leader
+     *
+     * @param store  the store the excerpts are appended to, which must consist of a single chronicle, be writable and
+     *               must not be written otherwise
+     * @param leader the address of the leader
+     * @return the running follower
+     * @throws IllegalArgumentException if the store can't be a replica
+     */
+    public static ReplicationFollower start(EventStore<?> store, InetSocketAddress leader)
+            throws IllegalArgumentException {
+        if (!(store instanceof ChronicleBasedEventStoreImpl)) {
+            throw new IllegalArgumentException("Can't replicate to event stores of " + store.getClass());
+        }
+        ChronicleBasedEventStoreImpl<?> chronicleStore = (ChronicleBasedEventStoreImpl<?>) store;
+        try {
+            chronicleStore.startReplica();
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        ReplicationFollower follower = new ReplicationFollower(chronicleStore, leader);
+        follower.thread.start();
+        return follower;
+    }
+
+    /**
+     * @return true while the follower is connected to the leader and accepted by it
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Waits until the store of the follower holds the given number of events, e.g. the size of the store of the
+     * leader
+     *
+     * @return false if the timeout elapsed before
+     */
+    public boolean awaitReplicated(long size, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (store.size() < size) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    private void replicationLoop() {
+        long delay = MIN_RECONNECT_DELAY_MILLIS;
+        while (running) {
+            try {
+                if (replicate()) {
+                    // rejected by the leader
+                    return;
+                }
+                delay = MIN_RECONNECT_DELAY_MILLIS;
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("Replicating {} from {} failed, reconnecting in {} ms: {}", store.basePath(), leader,
+                            delay, e.toString());
+                }
+            } catch (RuntimeException e) {
+                log.error("Replicating " + store.basePath() + " from " + leader + " failed", e);
+                return;
+            } finally {
+                connected = false;
+                closeSocket();
+            }
+            // not interrupted, as that would close the channels of the key indexes while they are written
+            synchronized (this) {
+                try {
+                    if (running) {
+                        wait(delay);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            delay = Math.min(2 * delay, MAX_RECONNECT_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Connects to the leader and appends the excerpts it sends until the connection breaks
+     *
+     * @return true if the leader rejected the follower
+     */
+    private boolean replicate() throws IOException {
+        Socket socket = new Socket();
+        synchronized (this) {
+            if (!running) {
+                return false;
+            }
+            this.socket = socket;
+        }
+        socket.connect(leader, READ_TIMEOUT_MILLIS);
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(),
+                ReplicationLeader.MAX_BATCH_BYTES));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        long startIndex = store.excerptCount();
+        out.writeInt(ReplicationLeader.MAGIC);
+        out.writeInt(ReplicationLeader.VERSION);
+        out.writeInt(store.dataBlockSize());
+        out.writeBoolean(store.hasChecksums());
+        Map<? extends Class<?>, Byte> mapping = store.classMapping();
+        out.writeInt(mapping.size());
+        for (Map.Entry<? extends Class<?>, Byte> entry : mapping.entrySet()) {
+            out.writeUTF(entry.getKey().getName());
+            out.writeByte(entry.getValue());
+        }
+        out.writeLong(startIndex);
+        out.flush();
+
+        if (in.readInt() != ReplicationLeader.MAGIC) {
+            throw new IOException("The peer " + leader + " isn't a replication leader");
+        }
+        boolean accepted = in.readBoolean();
+        String rejection = in.readUTF();
+        if (!accepted) {
+            log.error("The leader {} rejected the replica {}: {}", leader, store.basePath(), rejection);
+            return true;
+        }
+        connected = true;
+        log.info("Replicating {} from {} from excerpt {}", store.basePath(), leader, startIndex);
+
+        long[] indices = new long[0];
+        byte[][] excerpts = new byte[0][];
+        while (running) {
+            int count = in.readInt();
+            if (count > indices.length) {
+                indices = new long[count];
+                excerpts = new byte[count][];
+            }
+            for (int i = 0; i < count; i++) {
+                indices[i] = in.readLong();
+                excerpts[i] = new byte[in.readInt()];
+                in.readFully(excerpts[i]);
+            }
+            if (count > 0) {
+                store.appendReplicated(indices, excerpts, count);
+            }
+        }
+        return false;
+    }
+
+    private synchronized void closeSocket() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+            socket = null;
+        }
+    }
+
+    /**
+     * Stops replicating, the store can be written afterwards
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        closeSocket();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package de.uniluebeck.itm.eventstore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the excerpts appended to an event store to {@link ReplicationFollower}s connected over TCP, so that read
+ * replicas are kept up to date continuously instead of copying the chronicle files. Every follower is served by a
+ * thread of its own, which reads the chronicle from the index the follower asked for and sends the excerpts in
+ * batches of at most {@link #MAX_BATCH_BYTES} bytes, flushing the socket once per batch. Having caught up, the
+ * thread waits for appended excerpts with an {@link AppendWatcher}. While no excerpts are appended, heartbeats let the
+ * followers detect broken connections.
+ * <p/>
+ * The excerpts are copied verbatim, so that the chronicles of the followers are identical to the one of the leader.
+ * Therefore a follower must use the same data block size, checksums and class mapping as the leader, which is
+ * checked when it connects.
+ */
+public class ReplicationLeader implements Closeable {
+
+    private static Logger log = LoggerFactory.getLogger(ReplicationLeader.class);
+
+    static final int MAGIC = 0x45535250;
+
+    static final int VERSION = 1;
+
+    /**
+     * The maximum number of excerpt bytes sent in a single batch
+     */
+    static final int MAX_BATCH_BYTES = 64 << 10;
+
+    /**
+     * The interval of the heartbeats sent while no excerpts are appended
+     */
+    static final long HEARTBEAT_INTERVAL_MILLIS = 1000;
+
+    /**
+     * The maximum time waited for appended excerpts before checking if the leader was closed
+     */
+    private static final long MAX_WAIT_MILLIS = 50;
+
+    private final ChronicleBasedEventStoreImpl<?> store;
+
+    private final ServerSocket serverSocket;
+
+    private final Thread acceptor;
+
+    /**
+     * The connections to the followers, guarded by itself
+     */
+    private final List<Connection> connections = new ArrayList<Connection>();
+
+    private volatile boolean running = true;
+
+    private ReplicationLeader(ChronicleBasedEventStoreImpl<?> store, InetSocketAddress address) throws IOException {
+        this.store = store;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(address);
+        this.acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "EventStore-ReplicationLeader-" + serverSocket.getLocalPort());
+        this.acceptor.setDaemon(true);
+    }
+
+    /**
+     * Starts accepting followers
+     *
+     * @param store   the store to replicate, which must consist of a single chronicle
+     * @param address the address to listen on, with port 0 for any free port
+     * @return the running leader
+     * @throws IllegalArgumentException if the store consists of several chronicles
+     * @throws IOException              if the address can't be bound
+     */
+    public static ReplicationLeader start(EventStore<?> store, InetSocketAddress address)
+            throws IllegalArgumentException, IOException {
+        if (!(store instanceof ChronicleBasedEventStoreImpl)) {
+            throw new IllegalArgumentException("Can't replicate event stores of " + store.getClass());
+        }
+        ReplicationLeader leader = new ReplicationLeader((ChronicleBasedEventStoreImpl<?>) store, address);
+        leader.acceptor.start();
+        return leader;
+    }
+
+    /**
+     * @return the address the leader listens on
+     */
+    public InetSocketAddress address() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    /**
+     * @return the number of connected followers
+     */
+    public int followers() {
+        synchronized (connections) {
+            return connections.size();
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket);
+                synchronized (connections) {
+                    if (!running) {
+                        socket.close();
+                        return;
+                    }
+                    connections.add(connection);
+                }
+                connection.thread.start();
+            } catch (IOException e) {
+                if (running) {
+                    log.error("Accepting a follower of " + store.basePath() + " failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting followers and closes the connections to the connected ones
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        List<Connection> open;
+        synchronized (connections) {
+            open = new ArrayList<Connection>(connections);
+        }
+        for (Connection connection : open) {
+            connection.socket.close();
+        }
+        try {
+            acceptor.join();
+            for (Connection connection : open) {
+                connection.thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A connection to a follower
+     */
+    private class Connection implements Runnable {
+
+        private final Socket socket;
+
+        private final Thread thread;
+
+        private Connection(Socket socket) {
+            this.socket = socket;
+            this.thread = new Thread(this, "EventStore-ReplicationLeader-" + socket.getRemoteSocketAddress());
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+                        MAX_BATCH_BYTES + (8 << 10)));
+                long startIndex = handshake(in, out);
+                if (startIndex >= 0) {
+                    log.info("Replicating {} to {} from excerpt {}", store.basePath(), socket.getRemoteSocketAddress(),
+                            startIndex);
+                    replicate(out, startIndex);
+                }
+            } catch (SocketException e) {
+                if (running) {
+                    log.info("Connection to follower {} of {} was closed: {}", socket.getRemoteSocketAddress(),
+                            store.basePath(), e.getMessage());
+                }
+            } catch (Exception e) {
+                log.error("Replicating " + store.basePath() + " to " + socket.getRemoteSocketAddress() + " failed", e);
+            } finally {
+                synchronized (connections) {
+                    connections.remove(this);
+                }
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // nothing left to do
+                }
+            }
+        }
+
+        /**
+         * Reads the request of the follower and checks if it can replicate this store
+         *
+         * @return the index of the first excerpt to send, -1 if the follower was rejected
+         */
+        private long handshake(DataInputStream in, DataOutputStream out) throws IOException {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("The peer " + socket.getRemoteSocketAddress() + " isn't a replication follower");
+            }
+            int version = in.readInt();
+            int dataBlockSize = in.readInt();
+            boolean checksums = in.readBoolean();
+            Map<String, Byte> mapping = new HashMap<String, Byte>();
+            int classes = in.readInt();
+            for (int i = 0; i < classes; i++) {
+                mapping.put(in.readUTF(), in.readByte());
+            }
+            long startIndex = in.readLong();
+
+            String rejection = null;
+            if (version != VERSION) {
+                rejection = "The replication protocol version " + version + " isn't supported";
+            } else if (dataBlockSize != store.dataBlockSize()) {
+                rejection = "The data block size " + dataBlockSize + " differs from " + store.dataBlockSize();
+            } else if (checksums != store.hasChecksums()) {
+                rejection = "The events of the follower " + (checksums ? "have" : "don't have") + " checksums";
+            } else if (startIndex > store.excerptCount()) {
+                rejection = "The follower holds " + startIndex + " excerpts, but the leader only "
+                        + store.excerptCount();
+            } else {
+                for (Map.Entry<? extends Class<?>, Byte> entry : store.classMapping().entrySet()) {
+                    if (!entry.getValue().equals(mapping.get(entry.getKey().getName()))) {
+                        rejection = "The class " + entry.getKey().getName() + " is mapped differently";
+                        break;
+                    }
+                }
+            }
+            out.writeInt(MAGIC);
+            out.writeBoolean(rejection == null);
+            out.writeUTF(rejection == null ? "" : rejection);
+            out.flush();
+            if (rejection != null) {
+                log.warn("Rejected follower {} of {}: {}", socket.getRemoteSocketAddress(), store.basePath(), rejection);
+                return -1;
+            }
+            return startIndex;
+        }
+
+        private void replicate(DataOutputStream out, long startIndex) throws IOException, InterruptedException {
+            AppendWatcher watcher = AppendWatcher.watch(store);
+            ChronicleBasedEventStoreImpl<?>.ExcerptReader reader = store.new ExcerptReader(startIndex);
+            try {
+                long lastSent = System.currentTimeMillis();
+                List<byte[]> batch = new ArrayList<byte[]>();
+                List<Long> indices = new ArrayList<Long>();
+                while (running) {
+                    int bytes = 0;
+                    while (bytes < MAX_BATCH_BYTES && reader.next()) {
+                        indices.add(reader.index());
+                        byte[] excerpt = reader.read();
+                        batch.add(excerpt);
+                        bytes += excerpt.length;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (!batch.isEmpty() || now - lastSent >= HEARTBEAT_INTERVAL_MILLIS) {
+                        out.writeInt(batch.size());
+                        for (int i = 0; i < batch.size(); i++) {
+                            out.writeLong(indices.get(i));
+                            out.writeInt(batch.get(i).length);
+                            out.write(batch.get(i));
+                        }
+                        out.flush();
+                        lastSent = now;
+                    }
+                    if (bytes < MAX_BATCH_BYTES) {
+                        // caught up -> wait for appended excerpts, not interrupted when closing the leader as that
+                        // would close the channels of the chronicle
+                        watcher.awaitAppend(Math.max(1, Math.min(MAX_WAIT_MILLIS,
+                                lastSent + HEARTBEAT_INTERVAL_MILLIS - now)), TimeUnit.MILLISECONDS);
+                    }
+                    batch.clear();
+                    indices.clear();
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+}
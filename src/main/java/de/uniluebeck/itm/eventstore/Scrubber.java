@@ -0,0 +1,135 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies the checksums of all events of an event store in a background thread, e.g. after an unclean shutdown,
+ * without blocking the start of an application. The rate of verified bytes is limited, so that the verification
+ * doesn't starve the regular reads and writes of the store. Events stored after the scrubber was started are not
+ * verified.
+ *
+ * @see EventStoreFactory#withChecksums(boolean)
+ */
+public class Scrubber implements Closeable {
+
+    private static Logger log = LoggerFactory.getLogger(Scrubber.class);
+
+    private final Thread thread;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * Cleared to stop the verification. The thread isn't interrupted, as interrupting a thread reading the chronicle
+     * through its channel closes the channel for all readers.
+     */
+    private volatile boolean running = true;
+
+    private Scrubber(final List<ChronicleBasedEventStoreImpl<?>> stores, final RateLimiter limiter, final Listener listener) {
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (ChronicleBasedEventStoreImpl<?> store : stores) {
+                        if (!store.verify(limiter, listener, Scrubber.this)) {
+                            return;
+                        }
+                    }
+                } catch (Exception e) {
+                    log.error("Verifying the event store failed", e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        }, "EventStore-Scrubber");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts verifying an event store
+     *
+     * @param store          the store, whose events must have checksums
+     * @param bytesPerSecond the maximum number of bytes verified per second
+     * @param listener       the listener the results are reported to, which is called by the scrubber thread
+     * @return the running scrubber
+     * @throws IllegalArgumentException if the events of the store don't have checksums
+     */
+    public static Scrubber start(EventStore<?> store, double bytesPerSecond, Listener listener) throws IllegalArgumentException {
+        List<ChronicleBasedEventStoreImpl<?>> stores = new ArrayList<ChronicleBasedEventStoreImpl<?>>();
+        collectChronicleStores(store, stores);
+        Scrubber scrubber = new Scrubber(stores, RateLimiter.create(bytesPerSecond), listener);
+        scrubber.thread.start();
+        return scrubber;
+    }
+
+    private static void collectChronicleStores(EventStore<?> store, List<ChronicleBasedEventStoreImpl<?>> stores) {
+        if (store instanceof CompositeEventStore) {
+            for (EventStore<?> part : ((CompositeEventStore<?>) store).parts) {
+                collectChronicleStores(part, stores);
+            }
+        } else if (store instanceof ChronicleBasedEventStoreImpl) {
+            ChronicleBasedEventStoreImpl<?> chronicleStore = (ChronicleBasedEventStoreImpl<?>) store;
+            if (!chronicleStore.hasChecksums()) {
+                throw new IllegalArgumentException("The events of " + chronicleStore.basePath() + " don't have checksums");
+            }
+            stores.add(chronicleStore);
+        } else {
+            throw new IllegalArgumentException("Can't verify event stores of " + store.getClass());
+        }
+    }
+
+    /**
+     * Waits until all events are verified
+     *
+     * @return false if the timeout elapsed before
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    /**
+     * @return false if the verification was stopped
+     */
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops the verification after the event being verified
+     */
+    @Override
+    public void close() {
+        running = false;
+    }
+
+    /**
+     * Receives the results of the verification
+     */
+    public interface Listener {
+
+        /**
+         * Called for each range of consecutive excerpts holding events whose checksums don't match
+         *
+         * @param basePath  the base path of the verified chronicle
+         * @param fromIndex the first corrupted excerpt
+         * @param toIndex   the last corrupted excerpt (inclusive)
+         */
+        void corrupted(String basePath, long fromIndex, long toIndex);
+
+        /**
+         * Called when all events of a chronicle were verified
+         *
+         * @param basePath  the base path of the verified chronicle
+         * @param events    the number of verified events
+         * @param corrupted the number of corrupted events
+         */
+        void verified(String basePath, long events, long corrupted);
+    }
+}
@@ -0,0 +1,68 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * An event store partitioned into several shards by a key extracted from each event, e.g. the id of the node
+ * that emitted it. Queries for a single key only read the shard the key is mapped to, while queries for all events
+ * merge the shards by timestamp.
+ * <p/>
+ * Keys are mapped to shards by their hash code, so the hash code of the keys must be stable across JVMs (like the
+ * ones of {@link String} and {@link Long}). Sharded stores are created by
+ * {@link EventStoreFactory#shardedBy(Function, int)} and {@link EventStoreFactory#buildSharded()}.
+ */
+public class ShardedEventStore<T> extends CompositeEventStore<T> {
+
+    private final Function<? super T, ?> keyExtractor;
+
+    ShardedEventStore(List<EventStore<T>> shards, Function<? super T, ?> keyExtractor) {
+        super(shards);
+        this.keyExtractor = keyExtractor;
+    }
+
+    @Override
+    protected EventStore<T> partFor(T object) {
+        return shardFor(keyExtractor.apply(object));
+    }
+
+    private EventStore<T> shardFor(Object key) {
+        int hash = key == null ? 0 : key.hashCode();
+        // spread the hash code, as keys like node ids often differ in a few low bits only
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return parts.get((hash & Integer.MAX_VALUE) % parts.size());
+    }
+
+    /**
+     * Getting an iterator for the events with a given key between two timestamps. Only the shard the key is
+     * mapped to is read.
+     *
+     * @param key      the key of the events
+     * @param fromTime the start time (inclusive)
+     * @param toTime   the end time (inclusive)
+     * @return an iterator for sequential read access
+     * @throws java.io.IOException if the underlying stream is broken
+     */
+    public CloseableIterator<EventContainer<T>> getEventsForKey(final Object key, long fromTime, long toTime) throws IOException {
+        return new FilteredEventIterator<T>(shardFor(key).getEventsBetweenTimestamps(fromTime, toTime),
+                new Predicate<EventContainer<T>>() {
+                    @Override
+                    public boolean apply(EventContainer<T> event) {
+                        return Objects.equal(key, keyExtractor.apply(event.getEvent()));
+                    }
+                }
+        );
+    }
+
+    /**
+     * @return the number of shards of this store
+     */
+    public int shardCount() {
+        return parts.size();
+    }
+}
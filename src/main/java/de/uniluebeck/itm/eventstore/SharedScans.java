@@ -0,0 +1,379 @@
+package de.uniluebeck.itm.eventstore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lets concurrent range queries of a monotonic event store share physical scans of the chronicle. Every scan reads
+ * and deserializes the events from its start time on in batches, which are handed to all iterators attached to it.
+ * The batches are read on demand by the fastest iterator, the slower ones read the batches read before.
+ * <p/>
+ * A scan keeps its most recent batches, so that a query can attach to it if the events from its start time on are
+ * still kept. The iterators attached to a scan return the same event objects, which therefore must not be modified.
+ * <p/>
+ * An iterator lagging behind the kept batches continues with its own iterator over the chronicle, so that the
+ * batches it hasn't read yet don't have to be kept. Iterators which aren't closed are detached from their scan by the
+ * {@link LeakDetector}.
+ */
+class SharedScans<T> {
+
+    /**
+     * The maximum number of events read by a scan at once
+     */
+    static final int BATCH_SIZE = 64;
+
+    /**
+     * The number of most recent batches kept by a scan for attaching further queries
+     */
+    static final int KEPT_BATCHES = 16;
+
+    private final EventStore<T> store;
+
+    private final String description;
+
+    private final boolean recordAllocationSites;
+
+    /**
+     * The scans with attached iterators, guarded by itself
+     */
+    private final List<Scan> scans = new ArrayList<Scan>();
+
+    /**
+     * @param store                 the store to read
+     * @param description           the description of the store used for reporting leaked iterators
+     * @param recordAllocationSites if the allocation sites of the iterators are recorded for reporting leaks
+     */
+    SharedScans(EventStore<T> store, String description, boolean recordAllocationSites) {
+        this.store = store;
+        this.description = description;
+        this.recordAllocationSites = recordAllocationSites;
+    }
+
+    /**
+     * Creates an iterator over the events between two timestamps, which is attached to a running scan if possible
+     */
+    CloseableIterator<EventContainer<T>> query(long fromTime, long toTime) throws IOException {
+        synchronized (scans) {
+            for (Scan scan : scans) {
+                Batch start = scan.attach(fromTime);
+                if (start != null) {
+                    return new AttachedIterator(new Attachment(scan), start, fromTime, toTime);
+                }
+            }
+            Scan scan = new Scan(fromTime, store.getEventsFromTimestamp(fromTime));
+            scans.add(scan);
+            return new AttachedIterator(new Attachment(scan), scan.attach(fromTime), fromTime, toTime);
+        }
+    }
+
+    /**
+     * @return the number of running scans
+     */
+    int size() {
+        synchronized (scans) {
+            return scans.size();
+        }
+    }
+
+    private void detach(Scan scan) throws IOException {
+        synchronized (scans) {
+            if (--scan.attached == 0) {
+                scans.remove(scan);
+                scan.source.close();
+            }
+        }
+    }
+
+    /**
+     * Detaches an iterator from its scan once, either when the iterator is closed, continues on its own or leaked.
+     * It doesn't reference the iterator, so that it can be used as the cleanup action of the {@link LeakDetector}.
+     */
+    private class Attachment implements Closeable {
+
+        private final Scan scan;
+
+        private final AtomicBoolean detached = new AtomicBoolean();
+
+        private Attachment(Scan scan) {
+            this.scan = scan;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (detached.compareAndSet(false, true)) {
+                detach(scan);
+            }
+        }
+    }
+
+    /**
+     * The events read by a scan at once. The next batch is published by the scan, the events never change. When a
+     * batch is dropped by the scan, it is unlinked from the next one, so that an iterator lagging behind doesn't keep
+     * the following batches reachable.
+     */
+    private class Batch {
+
+        private final EventContainer<T>[] events;
+
+        private volatile Batch next;
+
+        /**
+         * Set before the batch is unlinked from the next one
+         */
+        private volatile boolean dropped = false;
+
+        private Batch(EventContainer<T>[] events) {
+            this.events = events;
+        }
+    }
+
+    /**
+     * Creates an array for the events of a batch, arrays of a generic type can't be created directly
+     */
+    @SuppressWarnings("unchecked")
+    private EventContainer<T>[] newEvents(int size) {
+        return (EventContainer<T>[]) new EventContainer<?>[size];
+    }
+
+    private class Scan {
+
+        private final long fromTime;
+
+        private final CloseableIterator<EventContainer<T>> source;
+
+        /**
+         * The number of attached iterators, guarded by {@link #scans}
+         */
+        private int attached = 0;
+
+        /**
+         * The oldest kept batch, which is empty initially
+         */
+        private Batch oldest;
+
+        private Batch newest;
+
+        private int kept = 1;
+
+        /**
+         * All events with a timestamp greater than this one are kept if batches with events were dropped already
+         */
+        private long lowerBound;
+
+        private boolean dropped = false;
+
+        private Scan(long fromTime, CloseableIterator<EventContainer<T>> source) {
+            this.fromTime = fromTime;
+            this.source = source;
+            this.oldest = new Batch(newEvents(0));
+            this.newest = oldest;
+        }
+
+        /**
+         * Attaches an iterator starting at the given time if all events from this time on are kept
+         *
+         * @return the batch the iterator starts with or null if it can't be attached
+         */
+        private synchronized Batch attach(long fromTime) {
+            if (fromTime < this.fromTime || (dropped && fromTime <= lowerBound)) {
+                return null;
+            }
+            attached++;
+            return oldest;
+        }
+
+        /**
+         * Reads the batch following the given one unless another iterator already did so
+         *
+         * @return false if there are no further events at the moment or the given batch was dropped
+         */
+        private synchronized boolean fetchAfter(Batch batch) {
+            if (batch.next != null) {
+                return true;
+            }
+            if (batch.dropped) {
+                return false;
+            }
+            List<EventContainer<T>> events = new ArrayList<EventContainer<T>>(BATCH_SIZE);
+            while (events.size() < BATCH_SIZE && source.hasNext()) {
+                events.add(source.next());
+            }
+            if (events.isEmpty()) {
+                return false;
+            }
+            Batch next = new Batch(events.toArray(newEvents(events.size())));
+            newest.next = next;
+            newest = next;
+            if (++kept > KEPT_BATCHES) {
+                EventContainer<T>[] evicted = oldest.events;
+                if (evicted.length > 0) {
+                    lowerBound = evicted[evicted.length - 1].getTimestamp();
+                    dropped = true;
+                }
+                Batch drop = oldest;
+                oldest = oldest.next;
+                drop.dropped = true;
+                drop.next = null;
+                kept--;
+            }
+            return true;
+        }
+    }
+
+    private class AttachedIterator implements CloseableIterator<EventContainer<T>> {
+
+        private final Attachment attachment;
+
+        private final LeakDetector.Tracker tracker;
+
+        private final long fromTime;
+
+        private final long toTime;
+
+        private Batch batch;
+
+        private int position = 0;
+
+        /**
+         * The iterator over the chronicle used once the iterator lagged behind the kept batches, null before
+         */
+        private CloseableIterator<EventContainer<T>> own;
+
+        /**
+         * The event read from {@link #own} which is returned next, null if none was read
+         */
+        private EventContainer<T> ownNext;
+
+        /**
+         * The timestamp of the event returned last and the number of returned events with this timestamp, used for
+         * continuing on the chronicle
+         */
+        private long lastTimestamp;
+
+        private int returnedWithLastTimestamp = 0;
+
+        private boolean closed = false;
+
+        /**
+         * Set when an event after the time range was found
+         */
+        private boolean finished = false;
+
+        private AttachedIterator(Attachment attachment, Batch start, long fromTime, long toTime) {
+            this.attachment = attachment;
+            this.batch = start;
+            this.fromTime = fromTime;
+            this.toTime = toTime;
+            this.lastTimestamp = fromTime;
+            this.tracker = LeakDetector.track(this, "Shared scan iterator of EventStore " + description, attachment,
+                    recordAllocationSites);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!finished && !closed) {
+                if (own != null) {
+                    return ownHasNext();
+                }
+                if (position == batch.events.length) {
+                    if (batch.next == null && !attachment.scan.fetchAfter(batch)) {
+                        if (!batch.dropped) {
+                            return false;
+                        }
+                        continueOnOwn();
+                        continue;
+                    }
+                    batch = batch.next;
+                    position = 0;
+                    continue;
+                }
+                long timestamp = batch.events[position].getTimestamp();
+                if (timestamp > toTime) {
+                    finished = true;
+                } else if (timestamp < fromTime) {
+                    position++;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean ownHasNext() {
+            if (ownNext == null && own.hasNext()) {
+                ownNext = own.next();
+            }
+            if (ownNext == null) {
+                return false;
+            }
+            if (ownNext.getTimestamp() > toTime) {
+                finished = true;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Detaches from the scan, which dropped the batches following the current one, and continues behind the
+         * events returned already with an iterator over the chronicle
+         */
+        private void continueOnOwn() {
+            batch = null;
+            try {
+                attachment.close();
+                own = store.getEventsFromTimestamp(lastTimestamp);
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't continue the shared scan iterator of " + description, e);
+            }
+            for (int i = 0; i < returnedWithLastTimestamp && own.hasNext(); i++) {
+                own.next();
+            }
+        }
+
+        @Override
+        public EventContainer<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (own != null) {
+                EventContainer<T> event = ownNext;
+                ownNext = null;
+                return event;
+            }
+            EventContainer<T> event = batch.events[position++];
+            if (event.getTimestamp() == lastTimestamp) {
+                returnedWithLastTimestamp++;
+            } else {
+                lastTimestamp = event.getTimestamp();
+                returnedWithLastTimestamp = 1;
+            }
+            return event;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                // don't keep the batches reachable
+                batch = null;
+                tracker.close();
+                try {
+                    attachment.close();
+                } finally {
+                    if (own != null) {
+                        own.close();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package de.uniluebeck.itm.eventstore;
+
+import de.uniluebeck.itm.eventstore.adapter.ChronicleAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The header of an event store, stored in the file {@code <base path>.header}. It records the number of excerpts
+ * which were forced to disk completely when it was written last, the number of bytes and events of these excerpts
+ * and the format versions of the side files (key indexes and Bloom filters) of the store.
+ * <p/>
+ * The header is only written after the chronicle was forced, so all excerpts below the recorded index survived a
+ * crash. When the store is opened, only the excerpts behind this index have to be checked for events torn by the
+ * crash. The header is replaced atomically by renaming a temporary file, so that it is never torn itself.
+ */
+class StoreHeader {
+
+    private static Logger log = LoggerFactory.getLogger(StoreHeader.class);
+
+    private static final int MAGIC = 0x45534844;
+
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    private final boolean readOnly;
+
+    /**
+     * The format versions of the side files, written into the header
+     */
+    private final Map<String, Integer> versions;
+
+    /**
+     * The number of excerpts which were forced to disk when the header was written last, -1 if unknown
+     */
+    private long syncedIndex;
+
+    /**
+     * The number of bytes of the excerpts below {@link #syncedIndex}, -1 if unknown
+     */
+    private long syncedBytes;
+
+    /**
+     * The number of events stored in the excerpts below {@link #syncedIndex}, -1 if unknown
+     */
+    private long syncedEvents;
+
+    /**
+     * The number of excerpts whose bytes and events are counted in {@link #appendedBytes} and {@link #appendedEvents}
+     */
+    private long appendedIndex;
+
+    /**
+     * The number of bytes of the excerpts below {@link #appendedIndex}, -1 if unknown
+     */
+    private long appendedBytes;
+
+    /**
+     * The number of events stored in the excerpts below {@link #appendedIndex}, -1 if unknown
+     */
+    private long appendedEvents;
+
+    private StoreHeader(File file, boolean readOnly, Map<String, Integer> versions, long syncedIndex, long syncedBytes,
+                        long syncedEvents) {
+        this.file = file;
+        this.readOnly = readOnly;
+        this.versions = versions;
+        this.syncedIndex = syncedIndex;
+        this.syncedBytes = syncedBytes;
+        this.syncedEvents = syncedEvents;
+        this.appendedIndex = syncedIndex;
+        this.appendedBytes = syncedBytes;
+        this.appendedEvents = syncedEvents;
+    }
+
+    /**
+     * Reads the header of an event store
+     *
+     * @param basePath the base path of the store
+     * @param versions the format versions of the side files of the store
+     * @param empty    if the store doesn't contain any events
+     * @param readOnly if the header must not be written
+     * @return the header, which records nothing as synced if the file doesn't exist and the store is empty
+     * @throws IOException if the header can't be read or a side file was written by a newer format version
+     */
+    static StoreHeader open(String basePath, Map<String, Integer> versions, boolean empty, boolean readOnly)
+            throws IOException {
+        File file = new File(basePath + ".header");
+        if (!file.exists()) {
+            // the store is new or was written before headers were introduced
+            return new StoreHeader(file, readOnly, versions, empty ? 0 : -1, empty ? 0 : -1, empty ? 0 : -1);
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("The file " + file + " isn't an event store header");
+            }
+            int version = in.readInt();
+            if (version > VERSION) {
+                throw new IOException("The header " + file + " was written by the newer format version " + version);
+            }
+            long syncedIndex = in.readLong();
+            long syncedBytes = in.readLong();
+            long syncedEvents = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String sideFile = in.readUTF();
+                int sideFileVersion = in.readInt();
+                Integer supported = versions.get(sideFile);
+                if (supported != null && sideFileVersion > supported) {
+                    throw new IOException("The side file " + sideFile + " of " + basePath
+                            + " was written by the newer format version " + sideFileVersion);
+                }
+            }
+            if (empty && syncedIndex > 0) {
+                log.warn("The header {} belongs to deleted chronicle files and is ignored", file);
+                return new StoreHeader(file, readOnly, versions, 0, 0, 0);
+            }
+            return new StoreHeader(file, readOnly, versions, syncedIndex, syncedBytes, syncedEvents);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the number of excerpts known to be forced to disk completely or -1 if this is unknown, because the
+     * header didn't exist although the store contains events
+     */
+    synchronized long syncedIndex() {
+        return syncedIndex;
+    }
+
+    /**
+     * @return the number of excerpts whose bytes and events are counted in {@link #appendedBytes()} and
+     * {@link #appendedEvents()}
+     */
+    synchronized long appendedIndex() {
+        return appendedIndex;
+    }
+
+    /**
+     * @return the number of bytes of the excerpts below {@link #appendedIndex()}, -1 if unknown
+     */
+    synchronized long appendedBytes() {
+        return appendedBytes;
+    }
+
+    /**
+     * @return the number of events stored in the excerpts below {@link #appendedIndex()}, -1 if unknown
+     */
+    synchronized long appendedEvents() {
+        return appendedEvents;
+    }
+
+    /**
+     * Records that excerpts were appended
+     *
+     * @param size   the number of excerpts of the chronicle
+     * @param bytes  the number of bytes of the excerpts appended since the last call
+     * @param events the number of events stored in these excerpts
+     */
+    synchronized void appended(long size, long bytes, long events) {
+        appendedIndex = size;
+        if (appendedBytes >= 0) {
+            appendedBytes += bytes;
+        }
+        if (appendedEvents >= 0) {
+            appendedEvents += events;
+        }
+    }
+
+    /**
+     * Records the number of bytes and events of all excerpts, after they were counted completely
+     */
+    synchronized void counted(long size, long bytes, long events) {
+        appendedIndex = size;
+        appendedBytes = bytes;
+        appendedEvents = events;
+    }
+
+    /**
+     * Forces the chronicle to disk and records the excerpts appended until then as synced
+     */
+    void sync(ChronicleAdapter chronicle) throws IOException {
+        long index;
+        long bytes;
+        long events;
+        synchronized (this) {
+            index = appendedIndex;
+            bytes = appendedBytes;
+            events = appendedEvents;
+        }
+        chronicle.force();
+        if (readOnly) {
+            return;
+        }
+        synchronized (this) {
+            if (index > syncedIndex) {
+                write(index, bytes, events);
+            }
+        }
+    }
+
+    private void write(long index, long bytes, long events) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temporary);
+        try {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(index);
+            out.writeLong(bytes);
+            out.writeLong(events);
+            out.writeInt(versions.size());
+            for (Map.Entry<String, Integer> version : versions.entrySet()) {
+                out.writeUTF(version.getKey());
+                out.writeInt(version.getValue());
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file))) {
+            log.warn("Can't replace the header {}", file);
+            return;
+        }
+        syncedIndex = index;
+        syncedBytes = bytes;
+        syncedEvents = events;
+    }
+
+    /**
+     * Collects the format versions of the side files written for a configuration
+     */
+    static Map<String, Integer> versionsOf(EventStoreConfig<?> config) {
+        Map<String, Integer> versions = new LinkedHashMap<String, Integer>();
+        for (String name : config.keyIndexes().keySet()) {
+            versions.put(name + ".keyindex", KeyIndex.FORMAT_VERSION);
+        }
+        for (String name : config.keyBloomFilters().keySet()) {
+            versions.put(name + ".bloom", KeyBloomFilter.FORMAT_VERSION);
+        }
+        return versions;
+    }
+}
@@ -0,0 +1,30 @@
+package de.uniluebeck.itm.eventstore;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An event store consisting of several stripes, each of them an event store with its own chronicle and write lock.
+ * Every writing thread is assigned to a single stripe, so that writers only contend with other threads assigned to
+ * the same stripe. Reading merges the stripes by timestamp, so that they appear as a single store.
+ */
+class StripedEventStore<T> extends CompositeEventStore<T> {
+
+    private final AtomicInteger nextStripe = new AtomicInteger();
+
+    private final ThreadLocal<EventStore<T>> writerStripe = new ThreadLocal<EventStore<T>>() {
+        @Override
+        protected EventStore<T> initialValue() {
+            return parts.get((nextStripe.getAndIncrement() & Integer.MAX_VALUE) % parts.size());
+        }
+    };
+
+    public StripedEventStore(List<EventStore<T>> stripes) {
+        super(stripes);
+    }
+
+    @Override
+    protected EventStore<T> partFor(T object) {
+        return writerStripe.get();
+    }
+}
@@ -3,9 +3,17 @@ package de.uniluebeck.itm.eventstore.adapter;
 
 import net.openhft.chronicle.Chronicle;
 
+import java.io.IOException;
+
 public interface ChronicleAdapter extends Chronicle {
 
     ChronicleConfigAdapter config();
 
+    /**
+     * Forces all data appended to the chronicle so far to the storage device
+     *
+     * @throws IOException if an I/O error occurs while forcing the chronicle files
+     */
+    void force() throws IOException;
 
 }
@@ -0,0 +1,30 @@
+package de.uniluebeck.itm.eventstore.adapter;
+
+
+import java.io.IOException;
+
+/**
+ * A chronicle keeping all excerpts in a single pair of index and data files, which allows to locate the data of an
+ * excerpt in the data file and to pick up the excerpts appended by another process
+ */
+public interface IndexedChronicleAdapter extends ChronicleAdapter {
+
+    /**
+     * Gets the position in the data file behind an excerpt, e.g. for touching the data blocks ahead of the
+     * appender or a reader
+     *
+     * @param index the index of the excerpt, which must have been appended completely
+     * @return the offset behind the excerpt, 0 if the index is negative
+     * @throws IOException if an I/O error occurs while reading the index of the chronicle
+     */
+    long dataPosition(long index) throws IOException;
+
+    /**
+     * Picks up the excerpts appended by a writer in another process since the chronicle was opened or refreshed,
+     * e.g. by a chronicle opened in read only mode
+     *
+     * @return the number of excerpts
+     */
+    long refresh();
+
+}
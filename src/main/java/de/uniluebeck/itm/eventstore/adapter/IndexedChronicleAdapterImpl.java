@@ -3,12 +3,21 @@ package de.uniluebeck.itm.eventstore.adapter;
 
 import net.openhft.chronicle.*;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
-public class IndexedChronicleAdapterImpl implements ChronicleAdapter {
+public class IndexedChronicleAdapterImpl implements IndexedChronicleAdapter {
 
     private final IndexedChronicle chronicle;
     private final ChronicleConfigAdapterImpl config;
+    private final String basePath;
+    private RandomAccessFile[] forceFiles;
+    private RandomAccessFile indexFile;
 
 
 
@@ -16,6 +25,7 @@ public class IndexedChronicleAdapterImpl implements ChronicleAdapter {
 
         this.config = new ChronicleConfigAdapterImpl(config);
         this.chronicle = new IndexedChronicle(basePath, config);
+        this.basePath = basePath;
     }
 
     @Override
@@ -26,6 +36,75 @@ public class IndexedChronicleAdapterImpl implements ChronicleAdapter {
     @Override
     public void close() throws IOException{
         chronicle.close();
+        synchronized (this) {
+            if (forceFiles != null) {
+                for (RandomAccessFile file : forceFiles) {
+                    file.close();
+                }
+                forceFiles = null;
+            }
+            if (indexFile != null) {
+                indexFile.close();
+                indexFile = null;
+            }
+        }
+    }
+
+    @Override
+    public void force() throws IOException {
+        FileChannel[] channels;
+        synchronized (this) {
+            if (forceFiles == null) {
+                // the mapped buffers of the chronicle aren't accessible, but on a shared mapping a force of
+                // the file itself writes back all dirty pages including the ones modified through the mapping
+                forceFiles = new RandomAccessFile[]{
+                        new RandomAccessFile(new File(basePath + ".data"), "rw"),
+                        new RandomAccessFile(new File(basePath + ".index"), "rw")
+                };
+            }
+            channels = new FileChannel[]{forceFiles[0].getChannel(), forceFiles[1].getChannel()};
+        }
+        for (FileChannel channel : channels) {
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public long dataPosition(long index) throws IOException {
+        if (index < 0) {
+            return 0;
+        }
+        // the index consists of cache lines holding the data offset of their first excerpt followed by the
+        // offsets behind their excerpts relative to it, negative for padding
+        ChronicleConfig chronicleConfig = chronicle.config();
+        int cacheLineSize = chronicleConfig.cacheLineSize();
+        int entriesPerLine = cacheLineSize / 4 - 2;
+        long entriesPerBlock = (long) chronicleConfig.indexBlockSize() * entriesPerLine / cacheLineSize;
+        long line = index / entriesPerBlock * chronicleConfig.indexBlockSize()
+                + index % entriesPerBlock / entriesPerLine * cacheLineSize;
+        int entry = (int) (index % entriesPerBlock % entriesPerLine);
+
+        ByteBuffer buffer = ByteBuffer.allocate(cacheLineSize).order(ByteOrder.nativeOrder());
+        FileChannel channel;
+        synchronized (this) {
+            if (indexFile == null) {
+                indexFile = new RandomAccessFile(new File(basePath + ".index"), "r");
+            }
+            channel = indexFile.getChannel();
+        }
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, line + buffer.position()) < 0) {
+                throw new EOFException("The index of " + basePath + " ends before the entry of excerpt " + index);
+            }
+        }
+        return buffer.getLong(0) + Math.abs(buffer.getInt(8 + 4 * entry));
+    }
+
+    @Override
+    public long refresh() {
+        // the size is only counted by the appender of this process, finding the last index scans the last index block
+        chronicle.findTheLastIndex();
+        return chronicle.size();
     }
 
     @Override
@@ -3,17 +3,21 @@ package de.uniluebeck.itm.eventstore.adapter;
 
 import net.openhft.chronicle.*;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 
 public class VanillaChronicleAdapterImpl implements ChronicleAdapter {
 
     private final VanillaChronicle chronicle;
     private final VanillaChronicleConfigAdapterImpl config;
+    private final String basePath;
 
 
     public VanillaChronicleAdapterImpl(String basePath, VanillaChronicleConfig config) {
         this.config = new VanillaChronicleConfigAdapterImpl(config);
         this.chronicle = new VanillaChronicle(basePath, config);
+        this.basePath = basePath;
     }
     @Override
     public void clear() {
@@ -25,6 +29,27 @@ public class VanillaChronicleAdapterImpl implements ChronicleAdapter {
         chronicle.close();
     }
 
+    @Override
+    public void force() throws IOException {
+        force(new File(basePath));
+    }
+
+    private static void force(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                force(child);
+            }
+        } else if (file.isFile()) {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.getChannel().force(false);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+    }
+
     @Override
     public ChronicleConfigAdapter config() {
         return config;
@@ -0,0 +1,272 @@
+package de.uniluebeck.itm.eventstore.reactive;
+
+import de.uniluebeck.itm.eventstore.CloseableIterator;
+import de.uniluebeck.itm.eventstore.EventContainer;
+import de.uniluebeck.itm.eventstore.EventStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the events of an event store to subscribers which request them at their own pace. Every subscription
+ * reads the store with its own iterator, and events are only read and deserialized when they are demanded. The
+ * events are delivered by tasks running on an executor, each of them delivering at most a batch of events, so that
+ * a single subscriber with a large demand doesn't occupy a thread for long.
+ * <p/>
+ * A replaying publisher completes its subscribers after the last event in the requested time range. A tailing
+ * publisher never completes its subscribers, but polls the store for new events as long as there is demand.
+ */
+public class EventPublisher<T> implements Publisher<EventContainer<T>> {
+
+    private static Logger log = LoggerFactory.getLogger(EventPublisher.class);
+
+    /**
+     * The default maximum number of events delivered by a single task
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final EventStore<T> store;
+
+    private final long fromTime;
+
+    private final long toTime;
+
+    private final Executor executor;
+
+    /**
+     * The executor used for polling the store for new events, null if the publisher isn't tailing the store
+     */
+    private final ScheduledExecutorService scheduler;
+
+    private final long pollIntervalMillis;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private EventPublisher(EventStore<T> store, long fromTime, long toTime, Executor executor,
+                           ScheduledExecutorService scheduler, long pollIntervalMillis) {
+        this.store = store;
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    /**
+     * Creates a publisher of the events between two timestamps
+     *
+     * @param store    the store to read
+     * @param fromTime the start time (inclusive)
+     * @param toTime   the end time (inclusive)
+     * @param executor the executor the events are delivered on
+     */
+    public static <T> EventPublisher<T> replay(EventStore<T> store, long fromTime, long toTime, Executor executor) {
+        return new EventPublisher<T>(store, fromTime, toTime, executor, null, 0);
+    }
+
+    /**
+     * Creates a publisher of the events from a given timestamp on, including the events stored after subscribing
+     *
+     * @param store              the store to read
+     * @param fromTime           the start time (inclusive)
+     * @param scheduler          the executor the events are delivered on
+     * @param pollIntervalMillis the time to wait before checking for new events if all events were delivered
+     */
+    public static <T> EventPublisher<T> tail(EventStore<T> store, long fromTime, ScheduledExecutorService scheduler,
+                                             long pollIntervalMillis) {
+        if (pollIntervalMillis <= 0) {
+            throw new IllegalArgumentException("The poll interval must be positive but was " + pollIntervalMillis);
+        }
+        return new EventPublisher<T>(store, fromTime, Long.MAX_VALUE, scheduler, scheduler, pollIntervalMillis);
+    }
+
+    /**
+     * Sets the maximum number of events delivered by a single task, {@link #DEFAULT_BATCH_SIZE} by default
+     */
+    public EventPublisher<T> withBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be positive but was " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super EventContainer<T>> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("The subscriber must not be null");
+        }
+        EventSubscription subscription = new EventSubscription(subscriber, batchSize);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private CloseableIterator<EventContainer<T>> open() throws IOException {
+        return scheduler == null ? store.getEventsBetweenTimestamps(fromTime, toTime) : store.getEventsFromTimestamp(fromTime);
+    }
+
+    private class EventSubscription implements Subscription, Runnable {
+
+        private final Subscriber<? super EventContainer<T>> subscriber;
+
+        private final int batchSize;
+
+        private final AtomicLong demand = new AtomicLong();
+
+        /**
+         * The number of times the delivery was requested since the running delivery task started, so that only a
+         * single task delivers events at a time
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+
+        /**
+         * Set while a poll for new events is scheduled, so that requests at the tail of the store don't start further
+         * polls
+         */
+        private final AtomicBoolean pollScheduled = new AtomicBoolean();
+
+        private volatile boolean cancelled = false;
+
+        private volatile Throwable invalidRequest;
+
+        /**
+         * Only accessed by the delivery task
+         */
+        private CloseableIterator<EventContainer<T>> iterator;
+
+        /**
+         * Only accessed by the delivery task
+         */
+        private boolean terminated = false;
+
+        private EventSubscription(Subscriber<? super EventContainer<T>> subscriber, int batchSize) {
+            this.subscriber = subscriber;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("The number of requested events must be positive but was " + n);
+            } else {
+                while (true) {
+                    long current = demand.get();
+                    long updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+                    if (demand.compareAndSet(current, updated)) {
+                        break;
+                    }
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = pending.get();
+            while (true) {
+                if (!deliver()) {
+                    // more events are demanded -> continue in a new task after the current batch
+                    executor.execute(this);
+                    return;
+                }
+                missed = pending.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Delivers at most a batch of events
+         *
+         * @return false if the delivery has to be continued with the next batch
+         */
+        private boolean deliver() {
+            if (terminated) {
+                return true;
+            }
+            if (cancelled) {
+                terminate();
+                return true;
+            }
+            if (invalidRequest != null) {
+                terminate();
+                subscriber.onError(invalidRequest);
+                return true;
+            }
+            try {
+                if (iterator == null) {
+                    iterator = open();
+                }
+                int delivered = 0;
+                while (demand.get() > 0 && !cancelled) {
+                    if (!iterator.hasNext()) {
+                        if (scheduler == null) {
+                            terminate();
+                            subscriber.onComplete();
+                        } else {
+                            pollLater();
+                        }
+                        return true;
+                    }
+                    if (delivered == batchSize) {
+                        return false;
+                    }
+                    subscriber.onNext(iterator.next());
+                    demand.decrementAndGet();
+                    delivered++;
+                }
+                if (cancelled) {
+                    terminate();
+                }
+            } catch (Throwable t) {
+                terminate();
+                subscriber.onError(t);
+            }
+            return true;
+        }
+
+        private void pollLater() {
+            if (!pollScheduled.compareAndSet(false, true)) {
+                return;
+            }
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    pollScheduled.set(false);
+                    schedule();
+                }
+            }, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void terminate() {
+            terminated = true;
+            if (iterator != null) {
+                try {
+                    iterator.close();
+                } catch (IOException e) {
+                    log.warn("Can't close iterator of subscription", e);
+                }
+                iterator = null;
+            }
+        }
+    }
+}
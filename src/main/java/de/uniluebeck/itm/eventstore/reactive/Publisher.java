@@ -0,0 +1,15 @@
+package de.uniluebeck.itm.eventstore.reactive;
+
+/**
+ * A producer of items which are only delivered as demanded by its subscribers. This mirrors
+ * {@code java.util.concurrent.Flow.Publisher}, which isn't available for the Java version the event store is
+ * compiled for, so adapting it to Flow or Reactive Streams only takes delegating the three interfaces.
+ */
+public interface Publisher<T> {
+
+    /**
+     * Adds a subscriber. {@link Subscriber#onSubscribe(Subscription)} is called before any other method of the
+     * subscriber.
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+}
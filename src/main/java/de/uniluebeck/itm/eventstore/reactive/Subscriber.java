@@ -0,0 +1,16 @@
+package de.uniluebeck.itm.eventstore.reactive;
+
+/**
+ * A receiver of the items of a {@link Publisher}, mirroring {@code java.util.concurrent.Flow.Subscriber}. The
+ * methods are never called concurrently for a single subscription.
+ */
+public interface Subscriber<T> {
+
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T item);
+
+    void onError(Throwable throwable);
+
+    void onComplete();
+}
@@ -0,0 +1,18 @@
+package de.uniluebeck.itm.eventstore.reactive;
+
+/**
+ * The link between a {@link Publisher} and a {@link Subscriber}, mirroring
+ * {@code java.util.concurrent.Flow.Subscription}
+ */
+public interface Subscription {
+
+    /**
+     * Adds demand for the given number of items. The subscriber receives {@code onError} if {@code n} isn't positive.
+     */
+    void request(long n);
+
+    /**
+     * Stops the delivery of items. Items may still be delivered for a short time.
+     */
+    void cancel();
+}
@@ -0,0 +1,93 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class AsyncEventStoreTest {
+
+    private String basePath;
+
+    private Map<Class<? extends BigInteger>, Function<? extends BigInteger, byte[]>> serializers;
+
+    private Map<Class<? extends BigInteger>, Function<byte[], ? extends BigInteger>> deserializers;
+
+    private EventStore<BigInteger> store;
+
+    private AsyncEventStore<BigInteger> asyncStore;
+
+    @Before
+    public void setUp() throws Exception {
+        serializers = BigIntegerSerialization.serializers();
+        deserializers = BigIntegerSerialization.deserializers();
+        basePath = System.getProperty("java.io.tmpdir") + "/AsyncChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        //noinspection unchecked
+        store = EventStoreFactory.create().eventStoreWithBasePath(basePath).withSerializers(serializers)
+                .andDeserializers(deserializers).build();
+        asyncStore = new AsyncEventStore<BigInteger>(store);
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            asyncStore.close();
+            store.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    @Test
+    public void testStoreAndQueryAsync() throws Exception {
+        List<ListenableFuture<Void>> stored = new ArrayList<ListenableFuture<Void>>();
+        for (long i = 0; i < 100; i++) {
+            stored.add(asyncStore.storeEventAsync(BigInteger.valueOf(i), 1000));
+        }
+        Futures.allAsList(stored).get();
+        assertEquals(100, store.size());
+
+        final List<BigInteger> events = new ArrayList<BigInteger>();
+        ListenableFuture<Long> count = asyncStore.queryAsync(0, 2000, new AsyncEventStore.Consumer<EventContainer<BigInteger>>() {
+            @Override
+            public void accept(EventContainer<BigInteger> event) {
+                events.add(event.getEvent());
+            }
+        });
+        assertEquals(Long.valueOf(100), count.get());
+        assertEquals(100, events.size());
+    }
+
+    @Test
+    public void testFailingConsumerFailsQuery() throws Exception {
+        asyncStore.storeEventAsync(BigInteger.ONE, 1).get();
+        ListenableFuture<Long> count = asyncStore.queryAsync(0, 10, new AsyncEventStore.Consumer<EventContainer<BigInteger>>() {
+            @Override
+            public void accept(EventContainer<BigInteger> event) throws Exception {
+                throw new IOException("Consumer failed");
+            }
+        });
+        try {
+            count.get();
+            fail("The query should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
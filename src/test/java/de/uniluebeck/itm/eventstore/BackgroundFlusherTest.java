@@ -0,0 +1,133 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import de.uniluebeck.itm.eventstore.adapter.IndexedChronicleAdapterImpl;
+import net.openhft.chronicle.ChronicleConfig;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class BackgroundFlusherTest {
+
+    private String basePath;
+
+    private IndexedChronicleAdapterImpl chronicle;
+
+    private final AtomicInteger forceCount = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        basePath = System.getProperty("java.io.tmpdir") + "/BackgroundFlusherChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        chronicle = new IndexedChronicleAdapterImpl(basePath, ChronicleConfig.SMALL.clone()) {
+            @Override
+            public void force() throws IOException {
+                super.force();
+                synchronized (forceCount) {
+                    forceCount.incrementAndGet();
+                    forceCount.notifyAll();
+                }
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        chronicle.close();
+    }
+
+    @Test
+    public void testForceEveryNEvents() throws Exception {
+        BackgroundFlusher flusher = new BackgroundFlusher(chronicle, DurabilityPolicy.everyEvents(10));
+        for (int i = 0; i < 9; i++) {
+            flusher.eventsStored(1);
+        }
+        Thread.sleep(50);
+        assertEquals(0, forceCount.get());
+
+        flusher.eventsStored(1);
+        awaitForceCount(1);
+
+        flusher.close();
+        assertEquals(1, forceCount.get());
+    }
+
+    @Test
+    public void testForcePerBatch() throws Exception {
+        BackgroundFlusher flusher = new BackgroundFlusher(chronicle, DurabilityPolicy.perBatch());
+        flusher.eventsStored(1);
+        Thread.sleep(50);
+        assertEquals(0, forceCount.get());
+
+        flusher.batchStored(5);
+        awaitForceCount(1);
+        flusher.close();
+        assertEquals(1, forceCount.get());
+    }
+
+    @Test
+    public void testStoreForcesSingleEventsPerBatch() throws Exception {
+        Map<Class<? extends byte[]>, Function<? extends byte[], byte[]>> serializers =
+                new HashMap<Class<? extends byte[]>, Function<? extends byte[], byte[]>>();
+        serializers.put(byte[].class, Functions.<byte[]>identity());
+        Map<Class<? extends byte[]>, Function<byte[], ? extends byte[]>> deserializers =
+                new HashMap<Class<? extends byte[]>, Function<byte[], ? extends byte[]>>();
+        deserializers.put(byte[].class, Functions.<byte[]>identity());
+        EventStoreFactory factory = EventStoreFactory.create();
+        //noinspection unchecked
+        factory.eventStoreWithBasePath(basePath).withSerializers(serializers).andDeserializers(deserializers)
+                .withDurabilityPolicy(DurabilityPolicy.perBatch());
+        //noinspection unchecked
+        ChronicleBasedEventStoreImpl<byte[]> store = new ChronicleBasedEventStoreImpl<byte[]>(chronicle, factory.config());
+        try {
+            store.storeEvent(new byte[]{1});
+            awaitForceCount(1);
+            assertEquals(1, forceCount.get());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testPeriodicForceOnlyIfDirty() throws Exception {
+        BackgroundFlusher flusher = new BackgroundFlusher(chronicle, DurabilityPolicy.periodic(10));
+        Thread.sleep(50);
+        assertEquals(0, forceCount.get());
+
+        flusher.eventsStored(3);
+        awaitForceCount(1);
+        flusher.close();
+        assertEquals(1, forceCount.get());
+    }
+
+    @Test
+    public void testCloseForcesRemainingEvents() throws Exception {
+        BackgroundFlusher flusher = new BackgroundFlusher(chronicle, DurabilityPolicy.everyEvents(100));
+        flusher.eventsStored(1);
+        flusher.close();
+        assertEquals(1, forceCount.get());
+    }
+
+    private void awaitForceCount(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        synchronized (forceCount) {
+            while (forceCount.get() < expected && System.currentTimeMillis() < deadline) {
+                forceCount.wait(100);
+            }
+        }
+        assertTrue(forceCount.get() >= expected);
+    }
+}
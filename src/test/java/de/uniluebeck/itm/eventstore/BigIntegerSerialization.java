@@ -0,0 +1,42 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The serializers and deserializers of the BigInteger events most tests store
+ */
+public final class BigIntegerSerialization {
+
+    private BigIntegerSerialization() {
+    }
+
+    public static Map<Class<? extends BigInteger>, Function<? extends BigInteger, byte[]>> serializers() {
+        Map<Class<? extends BigInteger>, Function<? extends BigInteger, byte[]>> serializers =
+                new HashMap<Class<? extends BigInteger>, Function<? extends BigInteger, byte[]>>();
+        serializers.put(BigInteger.class, new Function<BigInteger, byte[]>() {
+                    @Override
+                    public byte[] apply(BigInteger o) {
+                        return o.toByteArray();
+                    }
+                }
+        );
+        return serializers;
+    }
+
+    public static Map<Class<? extends BigInteger>, Function<byte[], ? extends BigInteger>> deserializers() {
+        Map<Class<? extends BigInteger>, Function<byte[], ? extends BigInteger>> deserializers =
+                new HashMap<Class<? extends BigInteger>, Function<byte[], ? extends BigInteger>>();
+        deserializers.put(BigInteger.class, new Function<byte[], BigInteger>() {
+                    @Override
+                    public BigInteger apply(byte[] bytes) {
+                        return new BigInteger(bytes);
+                    }
+                }
+        );
+        return deserializers;
+    }
+}
@@ -0,0 +1,233 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.io.Files;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ChecksumChronicleBasedEventStoreImplTest {
+
+    private static final int DATA_BLOCK_SIZE = 4096;
+
+    private String basePath;
+
+    private EventStoreFactory factory;
+
+    private EventStore<String> store;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<Class<? extends String>, Function<? extends String, byte[]>> serializers =
+                new HashMap<Class<? extends String>, Function<? extends String, byte[]>>();
+        serializers.put(String.class, new Function<String, byte[]>() {
+                    @Override
+                    public byte[] apply(String string) {
+                        return string.getBytes(Charsets.UTF_8);
+                    }
+                }
+        );
+        Map<Class<? extends String>, Function<byte[], ? extends String>> deserializers =
+                new HashMap<Class<? extends String>, Function<byte[], ? extends String>>();
+        deserializers.put(String.class, new Function<byte[], String>() {
+                    @Override
+                    public String apply(byte[] bytes) {
+                        return new String(bytes, Charsets.UTF_8);
+                    }
+                }
+        );
+        basePath = System.getProperty("java.io.tmpdir") + "/ChecksumChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        new File(basePath + ".checksum").delete();
+        new File(basePath + ".checksum").deleteOnExit();
+        //noinspection unchecked
+        factory = EventStoreFactory.create();
+        factory.eventStoreWithBasePath(basePath).withSerializers(serializers).andDeserializers(deserializers)
+                .setDataBlockSize(DATA_BLOCK_SIZE).withChecksums(true);
+        //noinspection unchecked
+        store = factory.build();
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    private void storeEvents() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            store.storeEvent(String.format("Event-%03d", i), i);
+        }
+        char[] large = new char[3 * DATA_BLOCK_SIZE];
+        Arrays.fill(large, 'x');
+        store.storeEvent(new String(large), 10);
+    }
+
+    /**
+     * Flips a byte of the first occurrence of the given string in the data file of the closed store
+     */
+    private void corrupt(String string) throws IOException {
+        byte[] data = Files.toByteArray(new File(basePath + ".data"));
+        byte[] pattern = string.getBytes(Charsets.UTF_8);
+        for (int offset = 0; offset + pattern.length <= data.length; offset++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, offset, offset + pattern.length), pattern)) {
+                RandomAccessFile file = new RandomAccessFile(basePath + ".data", "rw");
+                try {
+                    file.seek(offset + pattern.length - 1);
+                    file.write(data[offset + pattern.length - 1] ^ 1);
+                } finally {
+                    file.close();
+                }
+                return;
+            }
+        }
+        fail("Can't find " + string);
+    }
+
+    @Test
+    public void testPureJavaCrc32c() {
+        Checksum checksum = new EventChecksum.PureJavaCrc32c();
+        byte[] bytes = "123456789".getBytes(Charsets.US_ASCII);
+        checksum.update(bytes, 0, bytes.length);
+        assertEquals(0xE3069283L, checksum.getValue());
+        Checksum other = EventChecksum.create();
+        other.update(bytes, 0, bytes.length);
+        assertEquals(0xE3069283L, other.getValue());
+    }
+
+    @Test
+    public void testEventsWithChecksumsAreReadBack() throws Exception {
+        storeEvents();
+        CloseableIterator<EventContainer<String>> iterator = store.getAllEvents();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(iterator.hasNext());
+            assertEquals(String.format("Event-%03d", i), iterator.next().getEvent());
+        }
+        assertTrue(iterator.hasNext());
+        assertEquals(3 * DATA_BLOCK_SIZE, iterator.next().getEvent().length());
+        assertFalse(iterator.hasNext());
+        iterator.close();
+
+        CloseableIterator<RawEventContainer<String>> raw = store.getRawEventsBetweenTimestamps(3, 3);
+        assertTrue(raw.hasNext());
+        // the checksum isn't part of the payload
+        assertEquals(9, raw.next().getPayload().remaining());
+        raw.close();
+    }
+
+    @Test
+    public void testCorruptedEventIsDetected() throws Exception {
+        storeEvents();
+        store.close();
+        corrupt("Event-005");
+        //noinspection unchecked
+        store = factory.build();
+
+        CloseableIterator<EventContainer<String>> iterator = store.getEventsBetweenTimestamps(0, 4);
+        while (iterator.hasNext()) {
+            iterator.next();
+        }
+        iterator.close();
+        try {
+            store.getEventsBetweenTimestamps(5, 5);
+            fail("The corrupted event wasn't detected");
+        } catch (CorruptedEventException e) {
+            assertEquals(5, e.getExcerptIndex());
+        }
+    }
+
+    @Test
+    public void testScrubberReportsCorruptedRanges() throws Exception {
+        storeEvents();
+        store.close();
+        corrupt("Event-005");
+        corrupt("Event-006");
+        corrupt("xxxxxxxx");
+        //noinspection unchecked
+        store = factory.build();
+
+        final List<String> reports = new ArrayList<String>();
+        Scrubber scrubber = Scrubber.start(store, 1e9, new Scrubber.Listener() {
+            @Override
+            public void corrupted(String basePath, long fromIndex, long toIndex) {
+                reports.add(fromIndex + "-" + toIndex);
+            }
+
+            @Override
+            public void verified(String basePath, long events, long corrupted) {
+                reports.add(events + "/" + corrupted);
+            }
+        });
+        assertTrue(scrubber.awaitCompletion(10, TimeUnit.SECONDS));
+        scrubber.close();
+        assertEquals(3, reports.size());
+        assertEquals("5-6", reports.get(0));
+        // all chunks of the large event are reported
+        String[] chunks = reports.get(1).split("-");
+        assertTrue(Long.parseLong(chunks[0]) >= 10);
+        assertTrue(Long.parseLong(chunks[1]) >= Long.parseLong(chunks[0]) + 3);
+        assertEquals("11/3", reports.get(2));
+    }
+
+    @Test
+    public void testClosedScrubberStopsWithoutBreakingTheStore() throws Exception {
+        storeEvents();
+        final List<String> reports = new ArrayList<String>();
+        Scrubber scrubber = Scrubber.start(store, 100, new Scrubber.Listener() {
+            @Override
+            public void corrupted(String basePath, long fromIndex, long toIndex) {
+                reports.add(fromIndex + "-" + toIndex);
+            }
+
+            @Override
+            public void verified(String basePath, long events, long corrupted) {
+                reports.add(events + "/" + corrupted);
+            }
+        });
+        scrubber.close();
+        assertTrue(scrubber.awaitCompletion(10, TimeUnit.SECONDS));
+        assertTrue(reports.isEmpty());
+        // the scrubber thread wasn't interrupted, which would have closed the channel of the chronicle
+        CloseableIterator<EventContainer<String>> iterator = store.getAllEvents();
+        int events = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            events++;
+        }
+        iterator.close();
+        assertEquals(11, events);
+    }
+
+    @Test
+    public void testChecksumsStayEnabled() throws Exception {
+        storeEvents();
+        store.close();
+        //noinspection unchecked
+        store = factory.withChecksums(false).build();
+        CloseableIterator<EventContainer<String>> iterator = store.getEventsBetweenTimestamps(0, 0);
+        assertTrue(iterator.hasNext());
+        assertEquals("Event-000", iterator.next().getEvent());
+        iterator.close();
+    }
+}
@@ -0,0 +1,244 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+import net.openhft.chronicle.tools.ChronicleTools;
+import net.openhft.lang.io.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ChunkedEventChronicleBasedEventStoreImplTest {
+
+    private static final int DATA_BLOCK_SIZE = 4096;
+
+    private String basePath;
+
+    private Map<Class<?>, Function<?, byte[]>> serializers;
+
+    private Map<Class<?>, Function<byte[], ?>> deserializers;
+
+    private EventStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        serializers = new HashMap<Class<?>, Function<?, byte[]>>();
+        serializers.put(String.class, new Function<String, byte[]>() {
+                    @Override
+                    public byte[] apply(String string) {
+                        return string.getBytes();
+                    }
+                }
+        );
+        deserializers = new HashMap<Class<?>, Function<byte[], ?>>();
+        deserializers.put(String.class, new Function<byte[], String>() {
+                    @Override
+                    public String apply(byte[] bytes) {
+                        try {
+                            return new String(bytes, "UTF-8");
+                        } catch (UnsupportedEncodingException e) {
+                            return null;
+                        }
+                    }
+                }
+        );
+
+        basePath = System.getProperty("java.io.tmpdir") + "/ChunkedEventChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        //noinspection unchecked
+        store = EventStoreFactory.create().eventStoreWithBasePath(basePath).withSerializers(serializers)
+                .andDeserializers(deserializers).setDataBlockSize(DATA_BLOCK_SIZE).build();
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    @Test
+    public void testEventLargerThanDataBlock() throws Exception {
+        String large = createString(5 * DATA_BLOCK_SIZE + 17, 'x');
+
+        //noinspection unchecked
+        store.storeEvent(large, 10);
+        assertEquals(1, store.size());
+        assertTrue(((ChronicleBasedEventStoreImpl<?>) store).excerptCount() > 1);
+
+        //noinspection unchecked
+        CloseableIterator<EventContainer<?>> iterator = store.getAllEvents();
+        assertTrue(iterator.hasNext());
+        EventContainer<?> event = iterator.next();
+        assertEquals(large, event.getEvent());
+        assertEquals(10, event.getTimestamp());
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testMixedEventSizes() throws Exception {
+        String[] events = new String[30];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = i % 3 == 0 ? createString(2 * DATA_BLOCK_SIZE + i, (char) ('a' + i)) : "Small" + i;
+            //noinspection unchecked
+            store.storeEvent(events[i], i);
+        }
+
+        //noinspection unchecked
+        CloseableIterator<EventContainer<?>> iterator = store.getAllEvents();
+        for (int i = 0; i < events.length; i++) {
+            assertTrue(iterator.hasNext());
+            EventContainer<?> event = iterator.next();
+            assertEquals(events[i], event.getEvent());
+            assertEquals(i, event.getTimestamp());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+
+        //noinspection unchecked
+        iterator = store.getEventsBetweenTimestamps(9, 12);
+        for (int i = 9; i <= 12; i++) {
+            assertTrue(iterator.hasNext());
+            assertEquals(events[i], iterator.next().getEvent());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testTailingIteratorPicksUpChunkedEvent() throws Exception {
+        //noinspection unchecked
+        CloseableIterator<EventContainer<?>> iterator = store.getAllEvents();
+        assertFalse(iterator.hasNext());
+
+        String large = createString(3 * DATA_BLOCK_SIZE, 'y');
+        //noinspection unchecked
+        store.storeEvent(large);
+
+        assertTrue(iterator.hasNext());
+        assertEquals(large, iterator.next().getEvent());
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testChunkedEventsStoredWithoutIndexAreIndexedWhenOpened() throws Exception {
+        store.close();
+        new File(basePath + ".first.keyindex").delete();
+        new File(basePath + ".first.keyindex").deleteOnExit();
+        store = open(true);
+        String[] events = new String[1000];
+        storeMixedEvents(events, 0, 500);
+        store.close();
+
+        store = open(false);
+        storeMixedEvents(events, 500, 1000);
+        store.close();
+
+        // the index catches up from an excerpt behind the first data blocks
+        store = open(true);
+        for (char key : new char[]{'S', 'x'}) {
+            //noinspection unchecked
+            CloseableIterator<EventContainer<?>> iterator = store.getEventsForKey("first", key, 0, events.length);
+            for (int i = 0; i < events.length; i++) {
+                if (events[i].charAt(0) == key) {
+                    assertTrue(iterator.hasNext());
+                    EventContainer<?> event = iterator.next();
+                    assertEquals(i, event.getTimestamp());
+                    assertEquals(events[i], event.getEvent());
+                }
+            }
+            assertFalse(iterator.hasNext());
+            iterator.close();
+        }
+    }
+
+    private EventStore open(boolean indexed) throws Exception {
+        EventStoreFactory factory = EventStoreFactory.create().eventStoreWithBasePath(basePath)
+                .withSerializers(serializers).andDeserializers(deserializers).setDataBlockSize(DATA_BLOCK_SIZE);
+        if (indexed) {
+            //noinspection unchecked
+            factory.withKeyIndex("first", new Function<String, Object>() {
+                @Override
+                public Object apply(String event) {
+                    return event.charAt(0);
+                }
+            });
+        }
+        return factory.build();
+    }
+
+    private void storeMixedEvents(String[] events, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            events[i] = i % 100 == 99 ? createString(2 * DATA_BLOCK_SIZE + i, 'x') : "Small" + i;
+            //noinspection unchecked
+            store.storeEvent(events[i], i);
+        }
+    }
+
+    @Test
+    public void testRawPredicateOnChunkedEvent() throws Exception {
+        String large = createString(2 * DATA_BLOCK_SIZE, 'z');
+        //noinspection unchecked
+        store.storeEvent("small", 1);
+        //noinspection unchecked
+        store.storeEvent(large, 2);
+
+        //noinspection unchecked
+        CloseableIterator<EventContainer<?>> iterator = store.getEventsBetweenTimestamps(0, 10, new RawEventPredicate() {
+            @Override
+            public boolean test(byte typeId, long timestamp, Bytes payload) {
+                return payload.remaining() == 2 * DATA_BLOCK_SIZE && payload.readByte(DATA_BLOCK_SIZE) == 'z';
+            }
+        });
+        assertTrue(iterator.hasNext());
+        assertEquals(large, iterator.next().getEvent());
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testGetRawChunkedEvent() throws Exception {
+        String large = createString(3 * DATA_BLOCK_SIZE, 'y');
+        //noinspection unchecked
+        store.storeEvent("small", 1);
+        //noinspection unchecked
+        store.storeEvent(large, 2);
+
+        //noinspection unchecked
+        CloseableIterator<RawEventContainer<?>> iterator = store.getRawEventsBetweenTimestamps(2, 10);
+        assertTrue(iterator.hasNext());
+        RawEventContainer<?> event = iterator.next();
+        assertEquals(2, event.getTimestamp());
+        assertEquals(3 * DATA_BLOCK_SIZE, event.getPayload().remaining());
+        assertEquals(large, event.getEvent());
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReservedTimestamp() throws Exception {
+        //noinspection unchecked
+        store.storeEvent("Test", Long.MIN_VALUE);
+    }
+
+    private static String createString(int length, char c) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
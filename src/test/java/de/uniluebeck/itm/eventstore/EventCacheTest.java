@@ -0,0 +1,151 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class EventCacheTest {
+
+    private static final int CACHED_EVENTS = 100;
+
+    private EventCache cache;
+
+    private String basePath;
+
+    private Map<Class<? extends BigInteger>, Function<? extends BigInteger, byte[]>> serializers;
+
+    private Map<Class<? extends BigInteger>, Function<byte[], ? extends BigInteger>> deserializers;
+
+    private EventStore<BigInteger> store;
+
+    @Before
+    public void setUp() throws Exception {
+        serializers = BigIntegerSerialization.serializers();
+        deserializers = BigIntegerSerialization.deserializers();
+        basePath = System.getProperty("java.io.tmpdir") + "/EventCacheChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        cache = new EventCache(CACHED_EVENTS, Long.MAX_VALUE);
+        //noinspection unchecked
+        store = EventStoreFactory.create().eventStoreWithBasePath(basePath).withSerializers(serializers)
+                .andDeserializers(deserializers).withEventCache(cache).build();
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    private static void assertEvents(CloseableIterator<EventContainer<BigInteger>> iterator, long from, long to) throws IOException {
+        for (long expected = from; expected <= to; expected++) {
+            assertTrue(iterator.hasNext());
+            EventContainer<BigInteger> event = iterator.next();
+            assertEquals(expected, event.getTimestamp());
+            assertEquals(BigInteger.valueOf(expected), event.getEvent());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testEvictionByEntryCount() {
+        EventCache cache = new EventCache(2, Long.MAX_VALUE);
+        Object owner = new Object();
+        cache.put(owner, 0, "a", 1);
+        cache.put(owner, 1, "b", 1);
+        // makes the event at index 1 the least recently used one
+        assertEquals("a", cache.get(owner, 0));
+        cache.put(owner, 2, "c", 1);
+        assertNull(cache.get(owner, 1));
+        assertEquals("a", cache.get(owner, 0));
+        assertEquals("c", cache.get(owner, 2));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictionCount());
+        assertEquals(3, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void testEvictionByEstimatedBytes() {
+        EventCache cache = new EventCache(100, 3 * (EventCache.ENTRY_OVERHEAD + 10));
+        Object owner = new Object();
+        for (int i = 0; i < 5; i++) {
+            cache.put(owner, i, i, 10);
+        }
+        assertEquals(3, cache.size());
+        assertEquals(2, cache.evictionCount());
+        assertEquals(3 * (EventCache.ENTRY_OVERHEAD + 10), cache.estimatedBytes());
+        assertNull(cache.get(owner, 1));
+        assertEquals(2, cache.get(owner, 2));
+    }
+
+    @Test
+    public void testOwnersAreDistinguished() {
+        EventCache cache = new EventCache(10, Long.MAX_VALUE);
+        Object owner = new Object();
+        cache.put(owner, 0, "a", 1);
+        assertNull(cache.get(new Object(), 0));
+        assertEquals("a", cache.get(owner, 0));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final EventCache cache = new EventCache(8 * 1024, Long.MAX_VALUE);
+        final Object owner = new Object();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t * 10000;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        cache.put(owner, offset + i, offset + i, 10);
+                        Object cached = cache.get(owner, offset + i / 2);
+                        if (cached != null) {
+                            assertEquals(offset + i / 2, cached);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(cache.size() <= 8 * 1024);
+        assertEquals(40000, cache.size() + cache.evictionCount());
+        assertEquals(cache.size() * (EventCache.ENTRY_OVERHEAD + 10), cache.estimatedBytes());
+    }
+
+    @Test
+    public void testIteratorsUseTheCache() throws Exception {
+        for (long i = 0; i < 3 * CACHED_EVENTS; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        assertEvents(store.getEventsBetweenTimestamps(50, 99), 50, 99);
+        assertEquals(0, cache.hitCount());
+        assertEquals(50, cache.missCount());
+
+        assertEvents(store.getEventsBetweenTimestamps(60, 69), 60, 69);
+        assertEquals(10, cache.hitCount());
+        assertEquals(50, cache.missCount());
+
+        assertEvents(store.getAllEvents(), 0, 3 * CACHED_EVENTS - 1);
+        assertEquals(CACHED_EVENTS, cache.size());
+        assertTrue(cache.evictionCount() > 0);
+    }
+}
@@ -0,0 +1,198 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class EventStoreManagerTest {
+
+    private static final int DATA_BLOCK_SIZE = 4096;
+
+    private String basePath;
+
+    private EventStoreFactory<String> factory;
+
+    private EventStoreManager<String> manager;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<Class<? extends String>, Function<? extends String, byte[]>> serializers =
+                new HashMap<Class<? extends String>, Function<? extends String, byte[]>>();
+        serializers.put(String.class, new Function<String, byte[]>() {
+                    @Override
+                    public byte[] apply(String string) {
+                        return string.getBytes(Charsets.UTF_8);
+                    }
+                }
+        );
+        Map<Class<? extends String>, Function<byte[], ? extends String>> deserializers =
+                new HashMap<Class<? extends String>, Function<byte[], ? extends String>>();
+        deserializers.put(String.class, new Function<byte[], String>() {
+                    @Override
+                    public String apply(byte[] bytes) {
+                        return new String(bytes, Charsets.UTF_8);
+                    }
+                }
+        );
+        basePath = new File(System.getProperty("java.io.tmpdir")).getCanonicalPath() + "/ManagedChronicle";
+        for (int i = 0; i < 3; i++) {
+            ChronicleTools.deleteOnExit(basePath + i);
+            new File(basePath + i + ".header").delete();
+            new File(basePath + i + ".header").deleteOnExit();
+        }
+        for (int shard = 0; shard < 2; shard++) {
+            ChronicleTools.deleteOnExit(basePath + "Sharded.shard-" + shard);
+            new File(basePath + "Sharded.shard-" + shard + ".header").delete();
+            new File(basePath + "Sharded.shard-" + shard + ".header").deleteOnExit();
+        }
+        //noinspection unchecked
+        factory = EventStoreFactory.<String>create();
+        factory.withSerializers(serializers).andDeserializers(deserializers).setDataBlockSize(DATA_BLOCK_SIZE);
+        EventStoreConfig<String> config = factory.config().copyWithBasePath(basePath + 0);
+        // room for two stores
+        manager = new EventStoreManager<String>(factory, 2 * EventStoreManager.estimatedOpenFiles(config),
+                2 * EventStoreManager.estimatedMappedBytes(config));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        manager.close();
+    }
+
+    @Test
+    public void testStoresAreShared() throws Exception {
+        EventStore<String> first = manager.acquire(basePath + 0);
+        EventStore<String> second = manager.acquire(new File(basePath).getParent() + "/./ManagedChronicle0");
+        first.storeEvent("Event-0", 0);
+        second.storeEvent("Event-1", 1);
+        assertEquals(1, manager.openStores());
+        assertEquals(2, first.size());
+
+        first.close();
+        first.close();
+        try {
+            first.size();
+            fail("A closed handle was usable");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(2, second.size());
+        CloseableIterator<EventContainer<String>> iterator = second.getAllEvents();
+        second.close();
+        assertEquals(1, manager.openStores());
+
+        // the iterator outlives the handle and the store
+        manager.closeIdleStores();
+        assertEquals(0, manager.openStores());
+        assertEquals("Event-0", iterator.next().getEvent());
+        assertEquals("Event-1", iterator.next().getEvent());
+        iterator.close();
+
+        EventStore<String> reopened = manager.acquire(basePath + 0);
+        assertEquals(2, reopened.size());
+        reopened.close();
+        assertEquals(2, manager.openCount());
+    }
+
+    @Test
+    public void testIdleStoresAreClosedWithinTheBudget() throws Exception {
+        EventStore<String> store0 = manager.acquire(basePath + 0);
+        EventStore<String> store1 = manager.acquire(basePath + 1);
+        store0.storeEvent("Event-0", 0);
+        store1.storeEvent("Event-1", 1);
+        store1.close();
+        store0.close();
+
+        // store 0 was used more recently than store 1
+        EventStore<String> store = manager.acquire(basePath + 0);
+        store.close();
+        store = manager.acquire(basePath + 2);
+        assertEquals(2, manager.openStores());
+        assertEquals(1, manager.evictionCount());
+        assertTrue(manager.estimatedOpenFiles() <= 2 * 2);
+
+        // stores in use are never closed
+        EventStore<String> store0Again = manager.acquire(basePath + 0);
+        EventStore<String> store1Again = manager.acquire(basePath + 1);
+        assertEquals(3, manager.openStores());
+        assertEquals(1, manager.evictionCount());
+        assertEquals(1, store1Again.size());
+        assertEquals(4, manager.openCount());
+
+        store.close();
+        store0Again.close();
+        store1Again.close();
+    }
+
+    @Test
+    public void testConcurrentAcquiresShareOneStore() throws Exception {
+        final List<EventStore<String>> handles = Collections.synchronizedList(new ArrayList<EventStore<String>>());
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        handles.add(manager.acquire(basePath + 0));
+                    } catch (Exception e) {
+                        failures.add(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.<Exception>emptyList(), failures);
+        assertEquals(4, handles.size());
+        assertEquals(1, manager.openStores());
+        assertEquals(1, manager.openCount());
+        handles.get(0).storeEvent("Event-0", 0);
+        for (EventStore<String> handle : handles) {
+            assertEquals(1, handle.size());
+            handle.close();
+        }
+    }
+
+    @Test
+    public void testShardedTemplateOpensShardedStores() throws Exception {
+        factory.shardedBy(new Function<String, String>() {
+            @Override
+            public String apply(String event) {
+                return event;
+            }
+        }, 2);
+        EventStoreConfig<String> config = factory.config().copyWithBasePath(basePath + "Sharded");
+        EventStoreConfig<String> shardConfig = config.copyWithBasePath(basePath + "Sharded.shard-0");
+        shardConfig.setShardKeyExtractor(null);
+        assertEquals(2 * EventStoreManager.estimatedOpenFiles(shardConfig), EventStoreManager.estimatedOpenFiles(config));
+        assertEquals(2 * EventStoreManager.estimatedMappedBytes(shardConfig), EventStoreManager.estimatedMappedBytes(config));
+
+        EventStore<String> store = manager.acquire(basePath + "Sharded");
+        store.storeEvent("Event-0", 0);
+        store.storeEvent("Event-1", 1);
+        assertEquals(2, store.size());
+        assertEquals(EventStoreManager.estimatedOpenFiles(config), manager.estimatedOpenFiles());
+        store.close();
+        assertTrue(new File(basePath + "Sharded.shard-1.index").exists());
+    }
+}
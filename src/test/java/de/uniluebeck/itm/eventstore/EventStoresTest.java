@@ -0,0 +1,101 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class EventStoresTest {
+
+    private static final int STORES = 3;
+
+    private String basePath;
+
+    private List<EventStore<BigInteger>> stores;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<Class<? extends BigInteger>, Function<? extends BigInteger, byte[]>> serializers =
+                BigIntegerSerialization.serializers();
+        Map<Class<? extends BigInteger>, Function<byte[], ? extends BigInteger>> deserializers =
+                BigIntegerSerialization.deserializers();
+
+        basePath = System.getProperty("java.io.tmpdir") + "/MergedChronicle";
+        stores = new ArrayList<EventStore<BigInteger>>();
+        for (int store = 0; store < STORES; store++) {
+            ChronicleTools.deleteOnExit(basePath + "-" + store);
+            //noinspection unchecked
+            stores.add(EventStoreFactory.create().eventStoreWithBasePath(basePath + "-" + store)
+                    .withSerializers(serializers).andDeserializers(deserializers).build());
+        }
+    }
+
+    @After
+    public void cleanUp() {
+        for (EventStore<BigInteger> store : stores) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                //
+            }
+        }
+    }
+
+    @Test
+    public void testMergeByTimestamp() throws Exception {
+        for (long timestamp = 0; timestamp < 300; timestamp++) {
+            // the last store only gets every second event
+            int store = (int) (timestamp % STORES);
+            if (store != STORES - 1 || timestamp % 2 == 0) {
+                stores.get(store).storeEvent(BigInteger.valueOf(timestamp), timestamp);
+            }
+        }
+
+        CloseableIterator<EventContainer<BigInteger>> iterator = EventStores.mergeByTimestamp(stores, 50, 249);
+        for (long expected = 50; expected < 250; expected++) {
+            if (expected % STORES == STORES - 1 && expected % 2 != 0) {
+                continue;
+            }
+            assertTrue(iterator.hasNext());
+            EventContainer<BigInteger> event = iterator.next();
+            assertEquals(expected, event.getTimestamp());
+            assertEquals(BigInteger.valueOf(expected), event.getEvent());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testEqualTimestampsInStoreOrder() throws Exception {
+        for (int store = STORES - 1; store >= 0; store--) {
+            stores.get(store).storeEvent(BigInteger.valueOf(store), 10);
+        }
+
+        CloseableIterator<EventContainer<BigInteger>> iterator = EventStores.mergeByTimestamp(stores, 0, 100);
+        for (int store = 0; store < STORES; store++) {
+            assertTrue(iterator.hasNext());
+            assertEquals(BigInteger.valueOf(store), iterator.next().getEvent());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testMergeEmptyStores() throws Exception {
+        CloseableIterator<EventContainer<BigInteger>> iterator = EventStores.mergeByTimestamp(stores, 0, 100);
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+}
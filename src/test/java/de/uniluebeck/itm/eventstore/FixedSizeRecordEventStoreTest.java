@@ -0,0 +1,139 @@
+package de.uniluebeck.itm.eventstore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class FixedSizeRecordEventStoreTest {
+
+    private String basePath;
+
+    private LongEventStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        basePath = System.getProperty("java.io.tmpdir") + "/FixedSizeRecordStore";
+        File file = new File(basePath + ".records");
+        file.delete();
+        file.deleteOnExit();
+        store = EventStoreFactory.create().eventStoreWithBasePath(basePath).buildLongEventStore();
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    @Test
+    public void testGetEventsBetweenTimestamps() throws Exception {
+        for (long i = 0; i < 10000; i++) {
+            store.storeEvent(i * 10, -i);
+        }
+        assertEquals(10000, store.size());
+
+        LongEventCursor cursor = store.getEventsBetweenTimestamps(995, 2000);
+        for (long expected = 100; expected <= 200; expected++) {
+            assertTrue(cursor.next());
+            assertEquals(expected * 10, cursor.timestamp());
+            assertEquals(-expected, cursor.value());
+        }
+        assertFalse(cursor.next());
+
+        assertFalse(store.getEventsBetweenTimestamps(100000, 200000).next());
+        cursor = store.getEventsBetweenTimestamps(Long.MIN_VALUE, 0);
+        assertTrue(cursor.next());
+        assertEquals(0, cursor.timestamp());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testIrregularTimestamps() throws Exception {
+        long timestamp = 0;
+        for (long i = 0; i < 5000; i++) {
+            // bursts of events with equal timestamps and large gaps
+            timestamp += i % 100 == 0 ? 1000000 : i % 3 == 0 ? 1 : 0;
+            store.storeEvent(timestamp, i);
+        }
+        LongEventCursor all = store.getAllEvents();
+        while (all.next()) {
+            LongEventCursor cursor = store.getEventsBetweenTimestamps(all.timestamp(), all.timestamp());
+            assertTrue(cursor.next());
+            // the first event with this timestamp is found
+            assertTrue(cursor.value() <= all.value());
+            assertEquals(all.timestamp(), cursor.timestamp());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecreasingTimestamp() throws Exception {
+        store.storeEvent(10, 1);
+        store.storeEvent(9, 2);
+    }
+
+    @Test
+    public void testCursorPicksUpNewEvents() throws Exception {
+        store.storeEvent(1, 1);
+        LongEventCursor cursor = store.getEventsBetweenTimestamps(5, 10);
+        assertFalse(cursor.next());
+        store.storeEvent(3, 3);
+        store.storeEvent(7, 7);
+        assertTrue(cursor.next());
+        assertEquals(7, cursor.value());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testReopenInReadOnlyMode() throws Exception {
+        store.storeEvent(1, 42);
+        LongEventStore reader = EventStoreFactory.create().eventStoreWithBasePath(basePath).inReadOnlyMode(true)
+                .buildLongEventStore();
+        try {
+            assertEquals(1, reader.size());
+            store.storeEvent(2, 43);
+            LongEventCursor cursor = reader.getAllEvents();
+            assertTrue(cursor.next());
+            assertEquals(42, cursor.value());
+            assertTrue(cursor.next());
+            assertEquals(43, cursor.value());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testDoubleEventStore() throws Exception {
+        String doublePath = basePath + "-double";
+        File file = new File(doublePath + ".records");
+        file.delete();
+        file.deleteOnExit();
+        DoubleEventStore doubles = EventStoreFactory.create().eventStoreWithBasePath(doublePath).buildDoubleEventStore();
+        try {
+            doubles.storeEvent(1, 0.5);
+            doubles.storeEvent(2, Double.NaN);
+            DoubleEventCursor cursor = doubles.getEventsBetweenTimestamps(0, 1);
+            assertTrue(cursor.next());
+            assertEquals(0.5, cursor.value(), 0);
+            assertFalse(cursor.next());
+        } finally {
+            doubles.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKindMismatch() throws Exception {
+        store.close();
+        EventStoreFactory.create().eventStoreWithBasePath(basePath).buildDoubleEventStore();
+    }
+}
@@ -0,0 +1,131 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class HotTailCacheTest {
+
+    private static final int CACHED_EVENTS = 100;
+
+    private String basePath;
+
+    private Map<Class<? extends BigInteger>, Function<? extends BigInteger, byte[]>> serializers;
+
+    private Map<Class<? extends BigInteger>, Function<byte[], ? extends BigInteger>> deserializers;
+
+    private EventStore<BigInteger> store;
+
+    @Before
+    public void setUp() throws Exception {
+        serializers = BigIntegerSerialization.serializers();
+        deserializers = BigIntegerSerialization.deserializers();
+        basePath = System.getProperty("java.io.tmpdir") + "/HotTailChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        //noinspection unchecked
+        store = EventStoreFactory.create().eventStoreWithBasePath(basePath).withSerializers(serializers)
+                .andDeserializers(deserializers).withHotTailCache(CACHED_EVENTS).build();
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    private static void assertEvents(CloseableIterator<EventContainer<BigInteger>> iterator, long from, long to) throws IOException {
+        for (long expected = from; expected <= to; expected++) {
+            assertTrue(iterator.hasNext());
+            EventContainer<BigInteger> event = iterator.next();
+            assertEquals(expected, event.getTimestamp());
+            assertEquals(BigInteger.valueOf(expected), event.getEvent());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testCacheCoversMostRecentEvents() {
+        HotTailCache<BigInteger> cache = new HotTailCache<BigInteger>(null, 4, true, false);
+        assertNotNull(cache.query(0, 10));
+        for (long i = 1; i <= 6; i++) {
+            cache.add(BigInteger.valueOf(i), i);
+        }
+        // the events 1 and 2 were evicted
+        assertNull(cache.query(2, 10));
+        assertNotNull(cache.query(3, 10));
+    }
+
+    @Test
+    public void testCacheOfNonEmptyStore() {
+        HotTailCache<BigInteger> cache = new HotTailCache<BigInteger>(null, 4, false, false);
+        assertNull(cache.query(0, 10));
+        cache.add(BigInteger.valueOf(5), 5);
+        // events with timestamp 5 may have been stored before
+        assertNull(cache.query(5, 10));
+        assertNotNull(cache.query(6, 10));
+    }
+
+    @Test
+    public void testRangeQueriesInsideAndOutsideTheCache() throws Exception {
+        for (long i = 0; i < 3 * CACHED_EVENTS; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        assertEvents(store.getEventsBetweenTimestamps(250, 260), 250, 260);
+        assertEvents(store.getEventsBetweenTimestamps(250, 1000), 250, 299);
+        assertEvents(store.getEventsBetweenTimestamps(150, 210), 150, 210);
+    }
+
+    @Test
+    public void testEventsStoredDuringIterationAreReturned() throws Exception {
+        for (long i = 0; i < 3 * CACHED_EVENTS; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        CloseableIterator<EventContainer<BigInteger>> iterator = store.getEventsBetweenTimestamps(250, 310);
+        for (long i = 250; i <= 260; i++) {
+            assertEquals(i, iterator.next().getTimestamp());
+        }
+        for (long i = 3 * CACHED_EVENTS; i <= 320; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        assertEvents(iterator, 261, 310);
+    }
+
+    @Test
+    public void testIterationContinuesOnChronicleAfterEviction() throws Exception {
+        // two events per timestamp
+        for (long i = 0; i < 3 * CACHED_EVENTS; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i / 2);
+        }
+        CloseableIterator<EventContainer<BigInteger>> iterator = store.getEventsBetweenTimestamps(130, 1000);
+        for (long i = 260; i <= 262; i++) {
+            assertEquals(BigInteger.valueOf(i), iterator.next().getEvent());
+        }
+        // evicts all events the iterator hasn't returned yet
+        for (long i = 3 * CACHED_EVENTS; i < 6 * CACHED_EVENTS; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i / 2);
+        }
+        for (long i = 263; i < 6 * CACHED_EVENTS; i++) {
+            assertTrue(iterator.hasNext());
+            EventContainer<BigInteger> event = iterator.next();
+            assertEquals(i / 2, event.getTimestamp());
+            assertEquals(BigInteger.valueOf(i), event.getEvent());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+}
@@ -0,0 +1,220 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class KeyBloomFilterChronicleBasedEventStoreImplTest {
+
+    private static final int KEYS = 7;
+
+    private static final int SEGMENT_SIZE = 64;
+
+    private static final int DATA_BLOCK_SIZE = 4096;
+
+    private String basePath;
+
+    private Map<Class<? extends BigInteger>, Function<? extends BigInteger, byte[]>> serializers;
+
+    private Map<Class<? extends BigInteger>, Function<byte[], ? extends BigInteger>> deserializers;
+
+    private Function<BigInteger, Long> keyExtractor;
+
+    private EventStore<BigInteger> store;
+
+    @Before
+    public void setUp() throws Exception {
+        serializers = BigIntegerSerialization.serializers();
+        deserializers = BigIntegerSerialization.deserializers();
+        keyExtractor = new Function<BigInteger, Long>() {
+            @Override
+            public Long apply(BigInteger event) {
+                return event.longValue() % KEYS;
+            }
+        };
+
+        basePath = System.getProperty("java.io.tmpdir") + "/KeyBloomFilterChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        File indexFile = new File(basePath + ".node.bloom");
+        indexFile.delete();
+        indexFile.deleteOnExit();
+        store = open(true);
+    }
+
+    private EventStore<BigInteger> open(boolean indexed) throws Exception {
+        return open(indexed, false);
+    }
+
+    private EventStore<BigInteger> open(boolean indexed, boolean readOnly) throws Exception {
+        EventStoreFactory factory = EventStoreFactory.create();
+        //noinspection unchecked
+        factory.eventStoreWithBasePath(basePath).withSerializers(serializers).andDeserializers(deserializers)
+                .setDataBlockSize(DATA_BLOCK_SIZE).inReadOnlyMode(readOnly);
+        if (indexed) {
+            //noinspection unchecked
+            factory.withKeyBloomFilter("node", keyExtractor).setBloomFilterSegmentSize(SEGMENT_SIZE);
+        }
+        //noinspection unchecked
+        return factory.build();
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    private void storeEvents(long from, long to) throws IOException {
+        for (long i = from; i < to; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+    }
+
+    private void assertEventsForKey(long key, long from, long to) throws IOException {
+        assertEventsForKey(store, key, from, to);
+    }
+
+    private void assertEventsForKey(EventStore<BigInteger> store, long key, long from, long to) throws IOException {
+        CloseableIterator<EventContainer<BigInteger>> iterator = store.getEventsForKey("node", key, from, to);
+        long expected = from + ((key - from % KEYS) + KEYS) % KEYS;
+        for (; expected <= to; expected += KEYS) {
+            assertTrue(iterator.hasNext());
+            EventContainer<BigInteger> event = iterator.next();
+            assertEquals(expected, event.getTimestamp());
+            assertEquals(BigInteger.valueOf(expected), event.getEvent());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testEventsForKey() throws Exception {
+        storeEvents(0, 3000);
+        assertEventsForKey(3, 0, 2999);
+        assertEventsForKey(0, 100, 200);
+        assertEventsForKey(6, 2990, 2999);
+    }
+
+    @Test
+    public void testUnknownKey() throws Exception {
+        storeEvents(0, 100);
+        CloseableIterator<EventContainer<BigInteger>> iterator = store.getEventsForKey("node", 42L, 0, 100);
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownIndex() throws Exception {
+        store.getEventsForKey("type", 1L, 0, 100);
+    }
+
+    @Test
+    public void testFilterIsPersisted() throws Exception {
+        storeEvents(0, 2000);
+        store.close();
+
+        store = open(true);
+        storeEvents(2000, 2500);
+        assertEventsForKey(4, 0, 2499);
+    }
+
+    @Test
+    public void testEventsStoredWithoutFilterAreAddedWhenOpened() throws Exception {
+        storeEvents(0, 1000);
+        store.close();
+
+        store = open(false);
+        storeEvents(1000, 1500);
+        store.close();
+
+        store = open(true);
+        assertEventsForKey(2, 0, 1499);
+    }
+
+    @Test
+    public void testSegmentsBehindFirstDataBlock() throws Exception {
+        storeEvents(0, 3000);
+        // padding entries at the ends of the data blocks
+        assertEquals(3000, store.size());
+        assertTrue(((ChronicleBasedEventStoreImpl<?>) store).excerptCount() > 3000);
+        for (long key = 0; key < KEYS; key++) {
+            assertEventsForKey(key, 0, 2999);
+        }
+        // scans starting at segments in later data blocks
+        for (long from = 1000; from < 1000 + 2 * SEGMENT_SIZE; from++) {
+            assertEventsForKey(from % KEYS, from, from + 2 * SEGMENT_SIZE);
+        }
+    }
+
+    @Test
+    public void testSegmentsWithoutKeyAreSkipped() throws Exception {
+        store.close();
+        String filterBasePath = basePath + "-filter";
+        File filterFile = new File(filterBasePath + ".node.bloom");
+        filterFile.delete();
+        filterFile.deleteOnExit();
+
+        KeyBloomFilter<BigInteger> filter = KeyBloomFilter.open("node", keyExtractor, SEGMENT_SIZE, filterBasePath, false);
+        for (long i = 0; i < 10 * SEGMENT_SIZE; i++) {
+            // the key 1 only occurs in the fifth segment
+            BigInteger event = BigInteger.valueOf(i / SEGMENT_SIZE == 5 ? KEYS + 1 : KEYS * i);
+            filter.add(filter.keyOf(event), i, i);
+            filter.setIndexedUntil(i + 1);
+        }
+        assertEquals(5, filter.nextCandidate(1L, 0, 0, Long.MAX_VALUE));
+        assertEquals(-1, filter.nextCandidate(1L, 6, 0, Long.MAX_VALUE));
+        assertEquals(-1, filter.nextCandidate(1L, 0, 0, 5 * SEGMENT_SIZE - 1));
+        assertEquals(7, filter.nextCandidate(0L, 7, 0, Long.MAX_VALUE));
+        filter.close();
+
+        filter = KeyBloomFilter.open("node", keyExtractor, SEGMENT_SIZE, filterBasePath, true);
+        assertEquals(10 * SEGMENT_SIZE, filter.indexedUntil());
+        assertEquals(5, filter.nextCandidate(1L, 0, 0, Long.MAX_VALUE));
+        filter.close();
+    }
+
+    @Test
+    public void testReadOnlyStoreReloadsTheFilters() throws Exception {
+        storeEvents(0, 3 * SEGMENT_SIZE + 10);
+        EventStore<BigInteger> reader = open(true, true);
+        try {
+            assertEventsForKey(reader, 3, 0, 3 * SEGMENT_SIZE + 9);
+            // the writer completes the segment the reader holds in memory and appends further ones
+            storeEvents(3 * SEGMENT_SIZE + 10, 6 * SEGMENT_SIZE + 10);
+            assertEventsForKey(reader, 3, 0, 6 * SEGMENT_SIZE + 9);
+            assertEventsForKey(reader, 5, 2 * SEGMENT_SIZE, 5 * SEGMENT_SIZE);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testFullReadOnlyFilterScansTheEventsNotIndexed() throws Exception {
+        // the writer doesn't maintain the filters, so the reader keeps a single segment and scans the others
+        store.close();
+        store = open(false);
+        storeEvents(0, 5 * SEGMENT_SIZE);
+        EventStore<BigInteger> reader = open(true, true);
+        try {
+            assertEventsForKey(reader, 2, 0, 5 * SEGMENT_SIZE - 1);
+            assertEventsForKey(reader, 6, SEGMENT_SIZE / 2, 3 * SEGMENT_SIZE);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class KeyIndexChronicleBasedEventStoreImplTest {
+
+    private static final int KEYS = 7;
+
+    private static final int DATA_BLOCK_SIZE = 4096;
+
+    private String basePath;
+
+    private Map<Class<? extends BigInteger>, Function<? extends BigInteger, byte[]>> serializers;
+
+    private Map<Class<? extends BigInteger>, Function<byte[], ? extends BigInteger>> deserializers;
+
+    private Function<BigInteger, Long> keyExtractor;
+
+    private boolean checksums = false;
+
+    private EventStore<BigInteger> store;
+
+    @Before
+    public void setUp() throws Exception {
+        serializers = BigIntegerSerialization.serializers();
+        deserializers = BigIntegerSerialization.deserializers();
+        keyExtractor = new Function<BigInteger, Long>() {
+            @Override
+            public Long apply(BigInteger event) {
+                return event.longValue() % KEYS;
+            }
+        };
+
+        basePath = System.getProperty("java.io.tmpdir") + "/KeyIndexChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        File indexFile = new File(basePath + ".node.keyindex");
+        indexFile.delete();
+        indexFile.deleteOnExit();
+        store = open(true);
+    }
+
+    private EventStore<BigInteger> open(boolean indexed) throws Exception {
+        return open(indexed, false);
+    }
+
+    private EventStore<BigInteger> open(boolean indexed, boolean readOnly) throws Exception {
+        EventStoreFactory factory = EventStoreFactory.create();
+        //noinspection unchecked
+        factory.eventStoreWithBasePath(basePath).withSerializers(serializers).andDeserializers(deserializers)
+                .setDataBlockSize(DATA_BLOCK_SIZE).withChecksums(checksums).inReadOnlyMode(readOnly);
+        if (indexed) {
+            //noinspection unchecked
+            factory.withKeyIndex("node", keyExtractor);
+        }
+        //noinspection unchecked
+        return factory.build();
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    private void storeEvents(long from, long to) throws IOException {
+        for (long i = from; i < to; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+    }
+
+    private void assertEventsForKey(long key, long from, long to) throws IOException {
+        assertEventsForKey(store, key, from, to);
+    }
+
+    private void assertEventsForKey(EventStore<BigInteger> store, long key, long from, long to) throws IOException {
+        CloseableIterator<EventContainer<BigInteger>> iterator = store.getEventsForKey("node", key, from, to);
+        long expected = from + ((key - from % KEYS) + KEYS) % KEYS;
+        for (; expected <= to; expected += KEYS) {
+            assertTrue(iterator.hasNext());
+            EventContainer<BigInteger> event = iterator.next();
+            assertEquals(expected, event.getTimestamp());
+            assertEquals(BigInteger.valueOf(expected), event.getEvent());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testEventsForKey() throws Exception {
+        storeEvents(0, 3000);
+        assertEventsForKey(3, 0, 2999);
+        assertEventsForKey(0, 100, 200);
+        assertEventsForKey(6, 2990, 2999);
+    }
+
+    @Test
+    public void testUnknownKey() throws Exception {
+        storeEvents(0, 100);
+        CloseableIterator<EventContainer<BigInteger>> iterator = store.getEventsForKey("node", 42L, 0, 100);
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownIndex() throws Exception {
+        store.getEventsForKey("type", 1L, 0, 100);
+    }
+
+    @Test
+    public void testIndexIsPersisted() throws Exception {
+        storeEvents(0, 2000);
+        store.close();
+
+        store = open(true);
+        storeEvents(2000, 2500);
+        assertEventsForKey(4, 0, 2499);
+    }
+
+    @Test
+    public void testEventsStoredWithoutIndexAreIndexedWhenOpened() throws Exception {
+        storeEvents(0, 1000);
+        store.close();
+
+        store = open(false);
+        storeEvents(1000, 1500);
+        store.close();
+
+        store = open(true);
+        assertEventsForKey(2, 0, 1499);
+    }
+
+    @Test
+    public void testEventsBehindFirstDataBlockAreIndexedWhenOpened() throws Exception {
+        // events which were misread by the catch up would be skipped as corrupted
+        store.close();
+        checksums = true;
+        store = open(true);
+        storeEvents(0, 1000);
+        store.close();
+
+        // the index catches up from excerpts in later data blocks
+        for (long from = 1000; from < 3000; from += 250) {
+            store = open(false);
+            storeEvents(from, from + 250);
+            store.close();
+            store = open(true);
+            store.close();
+        }
+
+        store = open(true);
+        // padding entries at the ends of the data blocks
+        assertEquals(3000, store.size());
+        assertTrue(((ChronicleBasedEventStoreImpl<?>) store).excerptCount() > 3000);
+        for (long key = 0; key < KEYS; key++) {
+            assertEventsForKey(key, 0, 2999);
+        }
+    }
+
+    @Test
+    public void testFailingKeyExtractorDoesNotAppendTheEvent() throws Exception {
+        storeEvents(0, 100);
+        keyExtractor = new Function<BigInteger, Long>() {
+            @Override
+            public Long apply(BigInteger event) {
+                if (event.longValue() == 100) {
+                    throw new IllegalArgumentException("no key");
+                }
+                return event.longValue() % KEYS;
+            }
+        };
+        store.close();
+        store = open(true);
+        try {
+            store.storeEvent(BigInteger.valueOf(100), 100);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // the key extractor failed before the event was appended
+        }
+        assertEquals(100, store.size());
+        storeEvents(101, 200);
+        assertEventsForKey(2, 0, 99);
+        assertEventsForKey(3, 101, 199);
+    }
+
+    @Test
+    public void testReadOnlyStoreReloadsTheIndex() throws Exception {
+        storeEvents(0, 1000);
+        EventStore<BigInteger> reader = open(true, true);
+        try {
+            // nothing is committed to the index file yet, the reader indexes the events itself
+            assertEventsForKey(reader, 3, 0, 999);
+            storeEvents(1000, 1500);
+            // closing the writer commits the postings, which replace those held by the reader
+            store.close();
+            assertEventsForKey(reader, 3, 0, 1499);
+            assertEventsForKey(reader, 5, 700, 1200);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testFullReadOnlyIndexScansTheEventsNotIndexed() throws Exception {
+        // the writer doesn't maintain the index, so the reader has to index all events itself
+        store.close();
+        store = open(false);
+        int count = KeyIndex.READ_ONLY_PENDING_LIMIT + 1000;
+        storeEvents(0, count);
+        EventStore<BigInteger> reader = open(true, true);
+        try {
+            assertEventsForKey(reader, 4, 0, count - 1);
+            assertEventsForKey(reader, 1, count - 100, count - 1);
+        } finally {
+            reader.close();
+        }
+    }
+}
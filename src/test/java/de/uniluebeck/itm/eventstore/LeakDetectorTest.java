@@ -0,0 +1,58 @@
+package de.uniluebeck.itm.eventstore;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class LeakDetectorTest {
+
+    @Test
+    public void testCleanupOfUnreachableResource() throws Exception {
+        CountingCleanup cleanup = new CountingCleanup();
+        //noinspection UnusedAssignment
+        Object resource = new Object();
+        LeakDetector.track(resource, "Test resource", cleanup, true);
+        //noinspection UnusedAssignment
+        resource = null;
+
+        for (int i = 0; i < 50 && cleanup.latch.getCount() > 0; i++) {
+            System.gc();
+            cleanup.latch.await(100, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(0, cleanup.latch.getCount());
+    }
+
+    @Test
+    public void testNoCleanupOfClosedResource() throws Exception {
+        CountingCleanup cleanup = new CountingCleanup();
+        //noinspection UnusedAssignment
+        Object resource = new Object();
+        LeakDetector.track(resource, "Test resource", cleanup, false).close();
+        //noinspection UnusedAssignment
+        resource = null;
+
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            assertTrue(!cleanup.latch.await(50, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private static class CountingCleanup implements Closeable {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public void close() throws IOException {
+            latch.countDown();
+        }
+    }
+}
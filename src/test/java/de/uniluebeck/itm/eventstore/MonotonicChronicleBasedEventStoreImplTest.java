@@ -2,6 +2,7 @@ package de.uniluebeck.itm.eventstore;
 
 import com.google.common.base.Function;
 import net.openhft.chronicle.tools.ChronicleTools;
+import net.openhft.lang.io.Bytes;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -12,7 +13,10 @@ import java.io.IOException;
 import java.io.NotSerializableException;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -202,6 +206,132 @@ public class MonotonicChronicleBasedEventStoreImplTest {
 
     }
 
+    @Test
+    public void testGetEventsBetweenTimestampsWithRawPredicate() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            //noinspection unchecked
+            store.storeEvent((i % 10 == 0 ? "Match" : "Other") + i, i);
+        }
+        RawEventPredicate predicate = new RawEventPredicate() {
+            @Override
+            public boolean test(byte typeId, long timestamp, Bytes payload) {
+                return payload.remaining() > 0 && payload.readByte(0) == 'M';
+            }
+        };
+        //noinspection unchecked
+        CloseableIterator<EventContainer<?>> iterator = store.getEventsBetweenTimestamps(15, 80, predicate);
+        for (int i = 20; i <= 80; i += 10) {
+            assertTrue(iterator.hasNext());
+            EventContainer<?> event = iterator.next();
+            assertEquals("Match" + i, event.getEvent());
+            assertEquals(i, event.getTimestamp());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testGetRawEventsBetweenTimestamps() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            //noinspection unchecked
+            store.storeEvent("Event" + i, i);
+        }
+        //noinspection unchecked
+        CloseableIterator<RawEventContainer<?>> iterator = store.getRawEventsBetweenTimestamps(15, 80);
+        RawEventContainer<?> copy = null;
+        for (int i = 15; i <= 80; i++) {
+            assertTrue(iterator.hasNext());
+            RawEventContainer<?> event = iterator.next();
+            assertEquals(i, event.getTimestamp());
+            Bytes payload = event.getPayload();
+            byte[] serialized = new byte[(int) payload.remaining()];
+            payload.readFully(serialized);
+            assertEquals("Event" + i, new String(serialized, "UTF-8"));
+            if (i % 2 == 0) {
+                assertEquals("Event" + i, event.getEvent());
+            }
+            if (i == 20) {
+                copy = event.copy();
+            }
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+
+        assertEquals(20, copy.getTimestamp());
+        assertEquals("Event20", copy.getEvent());
+        assertEquals(7, copy.getPayload().remaining());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRawEventIsInvalidatedByMovingTheIterator() throws Exception {
+        //noinspection unchecked
+        store.storeEvent("First", 1);
+        //noinspection unchecked
+        store.storeEvent("Second", 2);
+        //noinspection unchecked
+        CloseableIterator<RawEventContainer<?>> iterator = store.getRawEventsBetweenTimestamps(0, 10);
+        try {
+            RawEventContainer<?> first = iterator.next();
+            assertEquals("Second", iterator.next().getEvent());
+            first.getPayload();
+        } finally {
+            iterator.close();
+        }
+    }
+
+    @Test
+    public void testReadBatches() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            //noinspection unchecked
+            store.storeEvent("Event" + i, i);
+        }
+        long[] timestamps = new long[16];
+        byte[] typeIds = new byte[16];
+        int[] offsets = new int[17];
+        ByteBuffer payloads = ByteBuffer.allocate(64);
+
+        EventBatchReader reader = store.getEventBatchReader(10, 79);
+        int expected = 10;
+        int count;
+        while ((count = reader.readBatch(timestamps, typeIds, payloads, offsets, 16)) > 0) {
+            // the batches are limited by the payload buffer
+            assertTrue(count < 16);
+            for (int i = 0; i < count; i++) {
+                assertEquals(expected, timestamps[i]);
+                String event = new String(payloads.array(), offsets[i], offsets[i + 1] - offsets[i], "UTF-8");
+                assertEquals("Event" + expected, event);
+                expected++;
+            }
+            payloads.clear();
+        }
+        assertEquals(-1, count);
+        assertEquals(80, expected);
+        reader.close();
+    }
+
+    @Test
+    public void testReadBatchesToEndOfStore() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            //noinspection unchecked
+            store.storeEvent("Event" + i, i);
+        }
+        long[] timestamps = new long[16];
+        byte[] typeIds = new byte[16];
+        int[] offsets = new int[17];
+        ByteBuffer payloads = ByteBuffer.allocate(1024);
+
+        EventBatchReader reader = store.getEventBatchReader(50, Long.MAX_VALUE);
+        int read = 0;
+        int count;
+        while ((count = reader.readBatch(timestamps, typeIds, payloads, offsets, 16)) > 0) {
+            read += count;
+            payloads.clear();
+        }
+        assertEquals(-1, count);
+        assertEquals(50, read);
+        reader.close();
+    }
+
     @Test
     public void testReadEmptyStore() throws Exception {
         //noinspection unchecked
@@ -233,6 +363,50 @@ public class MonotonicChronicleBasedEventStoreImplTest {
         iterator.close();
     }
 
+    @Test
+    public void testStoreEvents() throws Exception {
+        List<Object> batch = new ArrayList<Object>();
+        for (int i = 0; i < 100; i++) {
+            batch.add(i % 2 == 0 ? BigInteger.valueOf(i) : "Test" + i);
+        }
+        //noinspection unchecked
+        store.storeEvents(batch);
+        assertEquals(batch.size(), store.size());
+
+        //noinspection unchecked
+        CloseableIterator<EventContainer<?>> iterator = store.getAllEvents();
+        for (Object expected : batch) {
+            assertTrue(iterator.hasNext());
+            assertEquals(expected, iterator.next().getEvent());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testIteratorUsableAfterStoreClosed() throws Exception {
+        //noinspection unchecked
+        store.storeEvent("Test");
+        //noinspection unchecked
+        CloseableIterator<EventContainer<?>> iterator = store.getAllEvents();
+        // closing an iterator twice must not release the reference of the store
+        store.getAllEvents().close();
+        CloseableIterator<EventContainer<?>> closedTwice = store.getAllEvents();
+        closedTwice.close();
+        closedTwice.close();
+
+        store.close();
+        assertTrue(iterator.hasNext());
+        assertEquals("Test", iterator.next().getEvent());
+        iterator.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoIteratorsAfterClose() throws Exception {
+        store.close();
+        store.getAllEvents();
+    }
+
     @Test
     public void testGetAllEventsWithString() throws Exception {
         String a = "TestA";
@@ -0,0 +1,147 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import de.uniluebeck.itm.eventstore.adapter.IndexedChronicleAdapterImpl;
+import net.openhft.chronicle.ChronicleConfig;
+import net.openhft.chronicle.ExcerptAppender;
+import net.openhft.chronicle.ExcerptTailer;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class PrefaulterTest {
+
+    private static final int DATA_BLOCK_SIZE = 4096;
+
+    private String basePath;
+
+    private IndexedChronicleAdapterImpl chronicle;
+
+    @Before
+    public void setUp() throws Exception {
+        basePath = System.getProperty("java.io.tmpdir") + "/PrefaulterChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        new File(basePath + ".header").delete();
+        new File(basePath + ".header").deleteOnExit();
+        ChronicleConfig config = ChronicleConfig.SMALL.clone();
+        config.dataBlockSize(DATA_BLOCK_SIZE);
+        chronicle = new IndexedChronicleAdapterImpl(basePath, config);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        chronicle.close();
+    }
+
+    private void append(ExcerptAppender appender, int count) {
+        for (int i = 0; i < count; i++) {
+            appender.startExcerpt(100);
+            appender.writeLong(i);
+            appender.write(new byte[92]);
+            appender.finish();
+        }
+    }
+
+    @Test
+    public void testDataPosition() throws Exception {
+        assertEquals(0, chronicle.dataPosition(chronicle.size() - 1));
+        ExcerptAppender appender = chronicle.createAppender();
+        append(appender, 10);
+        assertEquals(1000, chronicle.dataPosition(chronicle.size() - 1));
+        // the 41st excerpt doesn't fit into the first data block, which is padded
+        append(appender, 35);
+        assertEquals(DATA_BLOCK_SIZE + 500, chronicle.dataPosition(chronicle.size() - 1));
+    }
+
+    @Test
+    public void testBlocksAheadOfTheAppenderAreTouched() throws Exception {
+        ExcerptAppender appender = chronicle.createAppender();
+        append(appender, 10);
+        Prefaulter prefaulter = new Prefaulter(chronicle, basePath + ".data", 2, 0);
+        try {
+            awaitPrefaultedUntil(prefaulter, 3 * DATA_BLOCK_SIZE);
+            assertTrue(new File(basePath + ".data").length() >= 3 * DATA_BLOCK_SIZE);
+
+            append(appender, 40);
+            awaitPrefaultedUntil(prefaulter, 4 * DATA_BLOCK_SIZE);
+        } finally {
+            prefaulter.close();
+        }
+
+        // touching the pages didn't modify the excerpts
+        ExcerptTailer tailer = chronicle.createTailer();
+        for (int i = 0; i < 50; i++) {
+            assertTrue(tailer.nextIndex());
+            assertEquals(i < 10 ? i : i - 10, tailer.readLong());
+            tailer.finish();
+        }
+        assertFalse(tailer.nextIndex());
+    }
+
+    @Test
+    public void testEventStoreWithPrefaultingAndWarmUp() throws Exception {
+        chronicle.close();
+        Map<Class<? extends String>, Function<? extends String, byte[]>> serializers =
+                new HashMap<Class<? extends String>, Function<? extends String, byte[]>>();
+        serializers.put(String.class, new Function<String, byte[]>() {
+                    @Override
+                    public byte[] apply(String string) {
+                        return string.getBytes(Charsets.UTF_8);
+                    }
+                }
+        );
+        Map<Class<? extends String>, Function<byte[], ? extends String>> deserializers =
+                new HashMap<Class<? extends String>, Function<byte[], ? extends String>>();
+        deserializers.put(String.class, new Function<byte[], String>() {
+                    @Override
+                    public String apply(byte[] bytes) {
+                        return new String(bytes, Charsets.UTF_8);
+                    }
+                }
+        );
+        //noinspection unchecked
+        EventStoreFactory factory = EventStoreFactory.create().eventStoreWithBasePath(basePath)
+                .withSerializers(serializers).andDeserializers(deserializers).setDataBlockSize(DATA_BLOCK_SIZE)
+                .withPrefaulting(2).withWarmUp(1 << 20);
+        //noinspection unchecked
+        EventStore<String> store = factory.build();
+        for (int i = 0; i < 1000; i++) {
+            store.storeEvent(String.format("Event-%04d", i), i);
+        }
+        store.close();
+
+        //noinspection unchecked
+        store = factory.build();
+        try {
+            CloseableIterator<EventContainer<String>> iterator = store.getAllEvents();
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(iterator.hasNext());
+                assertEquals(String.format("Event-%04d", i), iterator.next().getEvent());
+            }
+            assertFalse(iterator.hasNext());
+            iterator.close();
+        } finally {
+            store.close();
+        }
+    }
+
+    private void awaitPrefaultedUntil(Prefaulter prefaulter, long offset) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (prefaulter.prefaultedUntil() < offset && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(prefaulter.prefaultedUntil() >= offset);
+    }
+}
@@ -0,0 +1,152 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import de.uniluebeck.itm.eventstore.adapter.IndexedChronicleAdapterImpl;
+import net.openhft.chronicle.ChronicleConfig;
+import net.openhft.chronicle.ExcerptAppender;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ReadAheadTest {
+
+    private static final int DATA_BLOCK_SIZE = 4096;
+
+    private String basePath;
+
+    private IndexedChronicleAdapterImpl chronicle;
+
+    @Before
+    public void setUp() throws Exception {
+        basePath = System.getProperty("java.io.tmpdir") + "/ReadAheadChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        new File(basePath + ".header").delete();
+        new File(basePath + ".header").deleteOnExit();
+        ChronicleConfig config = ChronicleConfig.SMALL.clone();
+        config.dataBlockSize(DATA_BLOCK_SIZE);
+        chronicle = new IndexedChronicleAdapterImpl(basePath, config);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        chronicle.close();
+    }
+
+    @Test
+    public void testDataIsLoadedAheadOfTheScan() throws Exception {
+        ExcerptAppender appender = chronicle.createAppender();
+        for (int i = 0; i < 200; i++) {
+            appender.startExcerpt(100);
+            appender.writeLong(i);
+            appender.write(new byte[92]);
+            appender.finish();
+        }
+        ReadAhead readAhead = new ReadAhead(chronicle, basePath + ".data", 1000);
+        try {
+            ReadAhead.Scan scan = readAhead.register();
+            Thread.sleep(20);
+            assertEquals(0, scan.loadedUntil());
+
+            scan.moveTo(0);
+            awaitLoadedUntil(scan, 1100);
+
+            scan.moveTo(100);
+            awaitLoadedUntil(scan, chronicle.dataPosition(100) + 1000);
+
+            // not beyond the last excerpt, the padding entries of the data blocks have indices, too
+            long last = chronicle.size() - 1;
+            assertTrue(last > 199);
+            scan.moveTo(last - 1);
+            awaitLoadedUntil(scan, chronicle.dataPosition(last));
+            Thread.sleep(20);
+            assertEquals(chronicle.dataPosition(last), scan.loadedUntil());
+            scan.close();
+        } finally {
+            readAhead.close();
+        }
+    }
+
+    @Test
+    public void testEventStoreWithReadAhead() throws Exception {
+        chronicle.close();
+        //noinspection unchecked
+        EventStore<String> store = EventStoreFactory.create().eventStoreWithBasePath(basePath)
+                .withSerializers(serializers()).andDeserializers(deserializers()).setDataBlockSize(DATA_BLOCK_SIZE)
+                .withReadAhead(2 * DATA_BLOCK_SIZE).build();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                store.storeEvent(String.format("Event-%04d", i), i);
+            }
+            CloseableIterator<EventContainer<String>> iterator = store.getAllEvents();
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(iterator.hasNext());
+                assertEquals(String.format("Event-%04d", i), iterator.next().getEvent());
+            }
+            assertFalse(iterator.hasNext());
+            iterator.close();
+
+            iterator = store.getEventsBetweenTimestamps(500, 599);
+            for (int i = 500; i < 600; i++) {
+                assertEquals(String.format("Event-%04d", i), iterator.next().getEvent());
+            }
+            assertFalse(iterator.hasNext());
+            iterator.close();
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCyclingEventStoreRejectsReadAhead() throws Exception {
+        //noinspection unchecked
+        EventStoreFactory.create().eventStoreWithBasePath(basePath + "-cycling")
+                .withSerializers(serializers()).andDeserializers(deserializers()).setCycleLength(60000)
+                .withReadAhead(2 * DATA_BLOCK_SIZE).build();
+    }
+
+    private static Map<Class<? extends String>, Function<? extends String, byte[]>> serializers() {
+        Map<Class<? extends String>, Function<? extends String, byte[]>> serializers =
+                new HashMap<Class<? extends String>, Function<? extends String, byte[]>>();
+        serializers.put(String.class, new Function<String, byte[]>() {
+                    @Override
+                    public byte[] apply(String string) {
+                        return string.getBytes(Charsets.UTF_8);
+                    }
+                }
+        );
+        return serializers;
+    }
+
+    private static Map<Class<? extends String>, Function<byte[], ? extends String>> deserializers() {
+        Map<Class<? extends String>, Function<byte[], ? extends String>> deserializers =
+                new HashMap<Class<? extends String>, Function<byte[], ? extends String>>();
+        deserializers.put(String.class, new Function<byte[], String>() {
+                    @Override
+                    public String apply(byte[] bytes) {
+                        return new String(bytes, Charsets.UTF_8);
+                    }
+                }
+        );
+        return deserializers;
+    }
+
+    private void awaitLoadedUntil(ReadAhead.Scan scan, long offset) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scan.loadedUntil() < offset && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(offset, scan.loadedUntil());
+    }
+}
@@ -0,0 +1,174 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * A writer and a read only store on the same base path, which map the chronicle independently of each other like
+ * stores in different processes
+ */
+@RunWith(JUnit4.class)
+public class ReadOnlyChronicleBasedEventStoreImplTest {
+
+    private String basePath;
+
+    private EventStore<String> writer;
+
+    private EventStore<String> reader;
+
+    @Before
+    public void setUp() throws Exception {
+        basePath = System.getProperty("java.io.tmpdir") + "/ReadOnlyChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        for (String suffix : new String[]{".header", ".signal", ".parity.keyindex"}) {
+            new File(basePath + suffix).delete();
+            new File(basePath + suffix).deleteOnExit();
+        }
+        writer = factory(false).build();
+        reader = factory(true).build();
+    }
+
+    private EventStoreFactory<String> factory(boolean readOnly) {
+        Map<Class<? extends String>, Function<? extends String, byte[]>> serializers =
+                new HashMap<Class<? extends String>, Function<? extends String, byte[]>>();
+        serializers.put(String.class, new Function<String, byte[]>() {
+                    @Override
+                    public byte[] apply(String string) {
+                        return string.getBytes(Charsets.UTF_8);
+                    }
+                }
+        );
+        Map<Class<? extends String>, Function<byte[], ? extends String>> deserializers =
+                new HashMap<Class<? extends String>, Function<byte[], ? extends String>>();
+        deserializers.put(String.class, new Function<byte[], String>() {
+                    @Override
+                    public String apply(byte[] bytes) {
+                        return new String(bytes, Charsets.UTF_8);
+                    }
+                }
+        );
+        //noinspection unchecked
+        return EventStoreFactory.<String>create().eventStoreWithBasePath(basePath).inReadOnlyMode(readOnly)
+                .withSerializers(serializers).andDeserializers(deserializers)
+                .withKeyIndex("parity", new Function<String, Object>() {
+                    @Override
+                    public Object apply(String event) {
+                        return (event.charAt(event.length() - 1) - '0') % 2;
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reader.close();
+        writer.close();
+    }
+
+    private void storeEvents(int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            writer.storeEvent(String.format("Event-%02d", i), i);
+        }
+    }
+
+    private int count(CloseableIterator<EventContainer<String>> iterator) throws IOException {
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        iterator.close();
+        return count;
+    }
+
+    @Test
+    public void testReaderPicksUpAppendedEvents() throws Exception {
+        assertTrue(reader.isEmpty());
+        storeEvents(0, 10);
+        assertEquals(10, reader.size());
+        assertEquals(10, count(reader.getEventsBetweenTimestamps(0, 100)));
+        assertEquals(5, count(reader.getEventsForKey("parity", 0, 0, 100)));
+
+        storeEvents(10, 20);
+        assertEquals(20, reader.size());
+        assertEquals(writer.actualPayloadByteSize(), reader.actualPayloadByteSize());
+        CloseableIterator<EventContainer<String>> iterator = reader.getEventsBetweenTimestamps(15, 100);
+        assertEquals("Event-15", iterator.next().getEvent());
+        iterator.close();
+        assertEquals(10, count(reader.getEventsForKey("parity", 1, 0, 100)));
+
+        try {
+            reader.storeEvent("Event-20", 20);
+            fail("A read only store accepted an event");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testEventsOfFailedBatchAreSignalled() throws Exception {
+        try {
+            writer.storeEvents(Arrays.asList("Event-00", "Event-01", null));
+            fail("A null event was stored");
+        } catch (NullPointerException e) {
+            // expected
+        }
+        assertEquals(2, reader.size());
+        assertEquals(2, count(reader.getEventsBetweenTimestamps(0, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testReaderWithoutSignalScansTheIndex() throws Exception {
+        writer.close();
+        reader.close();
+        assertTrue(new File(basePath + ".signal").delete());
+        reader = factory(true).build();
+        // a writer of an older version which doesn't signal appended events
+        writer = factory(false).build();
+        assertTrue(new File(basePath + ".signal").delete());
+        storeEvents(0, 3);
+        assertEquals(3, reader.size());
+    }
+
+    @Test
+    public void testWatcherIsNotifiedOfAppends() throws Exception {
+        storeEvents(0, 1);
+        AppendWatcher watcher = AppendWatcher.watch(reader);
+        assertFalse(watcher.awaitAppend(20, TimeUnit.MILLISECONDS));
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    storeEvents(1, 2);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.start();
+        assertTrue(watcher.awaitAppend(5, TimeUnit.SECONDS));
+        thread.join();
+        assertEquals(2, reader.size());
+        assertFalse(watcher.awaitAppend(0, TimeUnit.MILLISECONDS));
+
+        storeEvents(2, 4);
+        assertTrue(watcher.awaitAppend(0, TimeUnit.MILLISECONDS));
+        assertEquals(4, count(reader.getEventsBetweenTimestamps(0, 100)));
+    }
+}
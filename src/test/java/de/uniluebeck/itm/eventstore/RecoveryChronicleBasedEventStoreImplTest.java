@@ -0,0 +1,207 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.io.Files;
+import de.uniluebeck.itm.eventstore.adapter.IndexedChronicleAdapterImpl;
+import net.openhft.chronicle.ChronicleConfig;
+import net.openhft.chronicle.ExcerptAppender;
+import net.openhft.chronicle.ExcerptTailer;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class RecoveryChronicleBasedEventStoreImplTest {
+
+    private static final int DATA_BLOCK_SIZE = 4096;
+
+    private String basePath;
+
+    private EventStoreFactory factory;
+
+    private EventStore<String> store;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<Class<? extends String>, Function<? extends String, byte[]>> serializers =
+                new HashMap<Class<? extends String>, Function<? extends String, byte[]>>();
+        serializers.put(String.class, new Function<String, byte[]>() {
+                    @Override
+                    public byte[] apply(String string) {
+                        return string.getBytes(Charsets.UTF_8);
+                    }
+                }
+        );
+        Map<Class<? extends String>, Function<byte[], ? extends String>> deserializers =
+                new HashMap<Class<? extends String>, Function<byte[], ? extends String>>();
+        deserializers.put(String.class, new Function<byte[], String>() {
+                    @Override
+                    public String apply(byte[] bytes) {
+                        return new String(bytes, Charsets.UTF_8);
+                    }
+                }
+        );
+        basePath = System.getProperty("java.io.tmpdir") + "/RecoveryChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        for (String suffix : new String[]{".checksum", ".header"}) {
+            new File(basePath + suffix).delete();
+            new File(basePath + suffix).deleteOnExit();
+        }
+        //noinspection unchecked
+        factory = EventStoreFactory.create();
+        factory.eventStoreWithBasePath(basePath).withSerializers(serializers).andDeserializers(deserializers)
+                .setDataBlockSize(DATA_BLOCK_SIZE).withChecksums(true);
+        //noinspection unchecked
+        store = factory.build();
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    private void storeEvents() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            store.storeEvent(String.format("Event-%03d", i), i);
+        }
+    }
+
+    private void assertEvents(long from, long to, String... expected) throws IOException {
+        CloseableIterator<EventContainer<String>> iterator = store.getEventsBetweenTimestamps(from, to);
+        for (String event : expected) {
+            assertTrue(iterator.hasNext());
+            assertEquals(event, iterator.next().getEvent());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    /**
+     * Appends excerpts to the chronicle of the closed store like a writer which crashed before its events were forced
+     */
+    private void appendTornEvents() throws IOException {
+        ChronicleConfig config = ChronicleConfig.SMALL.clone();
+        config.dataBlockSize(DATA_BLOCK_SIZE);
+        IndexedChronicleAdapterImpl chronicle = new IndexedChronicleAdapterImpl(basePath, config);
+        try {
+            ExcerptTailer tailer = chronicle.createTailer();
+            assertTrue(tailer.index(0));
+            byte[] event = new byte[(int) tailer.capacity()];
+            tailer.readFully(event);
+            tailer.finish();
+
+            ExcerptAppender appender = chronicle.createAppender();
+            // an event whose checksum wasn't written yet
+            appender.startExcerpt(event.length);
+            appender.writeLong(10);
+            appender.write(event, 8, event.length - 8 - EventChecksum.SIZE);
+            appender.writeInt(0);
+            appender.finish();
+            // the first chunk of a large event without its continuations
+            appender.startExcerpt(2 * 8 + 4 + 100);
+            appender.writeLong(Long.MIN_VALUE);
+            appender.writeLong(11);
+            appender.writeInt(3 * DATA_BLOCK_SIZE);
+            appender.write(new byte[100]);
+            appender.finish();
+        } finally {
+            chronicle.close();
+        }
+    }
+
+    @Test
+    public void testHeaderRecordsPayloadBytes() throws Exception {
+        storeEvents();
+        long bytes = store.actualPayloadByteSize();
+        assertEquals(10 * (8 + 10 + EventChecksum.SIZE), bytes);
+        store.close();
+        assertTrue(new File(basePath + ".header").exists());
+
+        //noinspection unchecked
+        store = factory.build();
+        assertEquals(bytes, store.actualPayloadByteSize());
+        assertEquals(10, store.size());
+        store.close();
+
+        // a store written before headers were introduced
+        assertTrue(new File(basePath + ".header").delete());
+        //noinspection unchecked
+        store = factory.build();
+        assertEquals(bytes, store.actualPayloadByteSize());
+        assertEquals(10, store.size());
+        store.storeEvent("Event-010", 10);
+        assertEquals(bytes + 8 + 10 + EventChecksum.SIZE, store.actualPayloadByteSize());
+        assertEquals(11, store.size());
+    }
+
+    @Test
+    public void testTornEventsAreReplacedByTombstones() throws Exception {
+        storeEvents();
+        store.close();
+        appendTornEvents();
+
+        //noinspection unchecked
+        store = factory.build();
+        // the torn events are replaced by tombstones and not counted
+        assertEquals(10, store.size());
+        assertEvents(9, Long.MAX_VALUE, "Event-009");
+
+        store.storeEvent("Event-012", 12);
+        assertEquals(11, store.size());
+        assertEvents(9, Long.MAX_VALUE, "Event-009", "Event-012");
+        store.close();
+
+        //noinspection unchecked
+        store = factory.build();
+        assertEvents(9, Long.MAX_VALUE, "Event-009", "Event-012");
+        assertEquals(11, store.size());
+    }
+
+    @Test
+    public void testSyncedEventsAreNotCheckedOnOpen() throws Exception {
+        storeEvents();
+        store.close();
+
+        // flip a byte of an event which was forced to disk before the store was closed
+        byte[] data = Files.toByteArray(new File(basePath + ".data"));
+        byte[] pattern = "Event-005".getBytes(Charsets.UTF_8);
+        for (int offset = 0; offset + pattern.length <= data.length; offset++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, offset, offset + pattern.length), pattern)) {
+                RandomAccessFile file = new RandomAccessFile(basePath + ".data", "rw");
+                try {
+                    file.seek(offset + pattern.length - 1);
+                    file.write(data[offset + pattern.length - 1] ^ 1);
+                } finally {
+                    file.close();
+                }
+                break;
+            }
+        }
+
+        //noinspection unchecked
+        store = factory.build();
+        try {
+            store.getEventsBetweenTimestamps(5, 5);
+            fail("The corrupted event was replaced although it was synced");
+        } catch (CorruptedEventException e) {
+            assertEquals(5, e.getExcerptIndex());
+        }
+    }
+}
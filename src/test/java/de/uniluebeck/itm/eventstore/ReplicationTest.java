@@ -0,0 +1,186 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Strings;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ReplicationTest {
+
+    private static final int DATA_BLOCK_SIZE = 4096;
+
+    private String leaderPath;
+
+    private String followerPath;
+
+    private EventStore<String> leaderStore;
+
+    private EventStore<String> followerStore;
+
+    private ReplicationLeader leader;
+
+    private ReplicationFollower follower;
+
+    @Before
+    public void setUp() throws Exception {
+        leaderPath = System.getProperty("java.io.tmpdir") + "/ReplicationLeaderChronicle";
+        followerPath = System.getProperty("java.io.tmpdir") + "/ReplicationFollowerChronicle";
+        for (String basePath : new String[]{leaderPath, followerPath}) {
+            ChronicleTools.deleteOnExit(basePath);
+            for (String suffix : new String[]{".header", ".signal", ".mapping", ".parity.keyindex"}) {
+                new File(basePath + suffix).delete();
+                new File(basePath + suffix).deleteOnExit();
+            }
+        }
+        leaderStore = factory(leaderPath, DATA_BLOCK_SIZE).build();
+        followerStore = factory(followerPath, DATA_BLOCK_SIZE).build();
+        leader = ReplicationLeader.start(leaderStore, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    private EventStoreFactory<String> factory(String basePath, int dataBlockSize) {
+        Map<Class<? extends String>, Function<? extends String, byte[]>> serializers =
+                new HashMap<Class<? extends String>, Function<? extends String, byte[]>>();
+        serializers.put(String.class, new Function<String, byte[]>() {
+                    @Override
+                    public byte[] apply(String string) {
+                        return string.getBytes(Charsets.UTF_8);
+                    }
+                }
+        );
+        Map<Class<? extends String>, Function<byte[], ? extends String>> deserializers =
+                new HashMap<Class<? extends String>, Function<byte[], ? extends String>>();
+        deserializers.put(String.class, new Function<byte[], String>() {
+                    @Override
+                    public String apply(byte[] bytes) {
+                        return new String(bytes, Charsets.UTF_8);
+                    }
+                }
+        );
+        return EventStoreFactory.<String>create().eventStoreWithBasePath(basePath)
+                .withSerializers(serializers).andDeserializers(deserializers).setDataBlockSize(dataBlockSize)
+                .withKeyIndex("parity", new Function<String, Object>() {
+                    @Override
+                    public Object apply(String event) {
+                        return (event.charAt(event.length() - 1) - '0') % 2;
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (follower != null) {
+            follower.close();
+        }
+        leader.close();
+        followerStore.close();
+        leaderStore.close();
+    }
+
+    private void storeEvents(int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            leaderStore.storeEvent(String.format("Event-%03d", i), i);
+        }
+    }
+
+    private void assertReplicated(int events) throws Exception {
+        assertTrue(follower.awaitReplicated(leaderStore.size(), 5, TimeUnit.SECONDS));
+        assertEquals(leaderStore.size(), followerStore.size());
+        CloseableIterator<EventContainer<String>> iterator = followerStore.getAllEvents();
+        for (int i = 0; i < events; i++) {
+            assertTrue(iterator.hasNext());
+            EventContainer<String> event = iterator.next();
+            assertEquals(i, event.getTimestamp());
+            if (event.getEvent().length() < 100) {
+                assertEquals(String.format("Event-%03d", i), event.getEvent());
+            }
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testExcerptsAreReplicated() throws Exception {
+        storeEvents(0, 100);
+        follower = ReplicationFollower.start(followerStore, leader.address());
+        assertReplicated(100);
+
+        // a chunked event and enough events for padding the data blocks
+        leaderStore.storeEvent(Strings.repeat("x", 3 * DATA_BLOCK_SIZE) + "0", 100);
+        storeEvents(101, 300);
+        assertReplicated(300);
+        assertEquals(150, count(leaderStore.getEventsForKey("parity", 1, 0, 300)));
+        assertEquals(150, count(followerStore.getEventsForKey("parity", 1, 0, 300)));
+
+        try {
+            followerStore.storeEvent("Event-300", 300);
+            fail("A replica accepted an event");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFollowerResumesAfterReconnecting() throws Exception {
+        storeEvents(0, 50);
+        follower = ReplicationFollower.start(followerStore, leader.address());
+        assertReplicated(50);
+
+        // the leader restarts while events are stored
+        InetSocketAddress address = leader.address();
+        leader.close();
+        storeEvents(50, 100);
+        leader = ReplicationLeader.start(leaderStore, address);
+        assertReplicated(100);
+
+        // the follower restarts
+        follower.close();
+        followerStore.storeEvent("Event-100", 100);
+        assertEquals(101, followerStore.size());
+        followerStore.close();
+        followerStore = factory(followerPath, DATA_BLOCK_SIZE).build();
+        assertEquals(101, followerStore.size());
+        follower = ReplicationFollower.start(followerStore, leader.address());
+        storeEvents(100, 110);
+        assertReplicated(110);
+    }
+
+    @Test
+    public void testFollowerWithDifferentDataBlockSizeIsRejected() throws Exception {
+        followerStore.close();
+        for (String suffix : new String[]{".data", ".index", ".header", ".signal"}) {
+            new File(followerPath + suffix).delete();
+        }
+        followerStore = factory(followerPath, 2 * DATA_BLOCK_SIZE).build();
+        storeEvents(0, 10);
+        follower = ReplicationFollower.start(followerStore, leader.address());
+        assertFalse(follower.awaitReplicated(10, 200, TimeUnit.MILLISECONDS));
+        assertFalse(follower.isConnected());
+        assertEquals(0, followerStore.size());
+    }
+
+    private int count(CloseableIterator<EventContainer<String>> iterator) throws IOException {
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        iterator.close();
+        return count;
+    }
+}
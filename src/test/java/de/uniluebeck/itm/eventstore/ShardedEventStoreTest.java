@@ -0,0 +1,116 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ShardedEventStoreTest {
+
+    private static final int SHARDS = 4;
+
+    private String basePath;
+
+    private EventStoreFactory factory;
+
+    private ShardedEventStore<BigInteger> store;
+
+    private Function<BigInteger, Long> keyExtractor;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<Class<? extends BigInteger>, Function<? extends BigInteger, byte[]>> serializers =
+                BigIntegerSerialization.serializers();
+        Map<Class<? extends BigInteger>, Function<byte[], ? extends BigInteger>> deserializers =
+                BigIntegerSerialization.deserializers();
+
+        basePath = System.getProperty("java.io.tmpdir") + "/ShardedChronicle";
+        for (int shard = 0; shard < SHARDS; shard++) {
+            ChronicleTools.deleteOnExit(basePath + ".shard-" + shard);
+        }
+        keyExtractor = new Function<BigInteger, Long>() {
+            @Override
+            public Long apply(BigInteger event) {
+                return event.longValue() % 10;
+            }
+        };
+        factory = EventStoreFactory.create();
+        //noinspection unchecked
+        factory.eventStoreWithBasePath(basePath).withSerializers(serializers).andDeserializers(deserializers);
+        //noinspection unchecked
+        store = factory.shardedBy(keyExtractor, SHARDS).buildSharded();
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    @Test
+    public void testEventsForKeyAreReadFromSingleShard() throws Exception {
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            store.storeEvent(BigInteger.valueOf(timestamp), timestamp);
+        }
+        assertEquals(SHARDS, store.shardCount());
+        assertEquals(100, store.size());
+
+        CloseableIterator<EventContainer<BigInteger>> iterator = store.getEventsForKey(3L, 0, 99);
+        for (long expected = 3; expected < 100; expected += 10) {
+            assertTrue(iterator.hasNext());
+            EventContainer<BigInteger> event = iterator.next();
+            assertEquals(expected, event.getTimestamp());
+            assertEquals(BigInteger.valueOf(expected), event.getEvent());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testAllEventsAreMergedByTimestamp() throws Exception {
+        List<BigInteger> events = new ArrayList<BigInteger>();
+        for (long i = 0; i < 50; i++) {
+            events.add(BigInteger.valueOf(i));
+        }
+        store.storeEvents(events);
+        store.storeEvents(Arrays.asList(BigInteger.valueOf(50), BigInteger.valueOf(51)));
+
+        CloseableIterator<EventContainer<BigInteger>> iterator = store.getAllEvents();
+        long lastTimestamp = Long.MIN_VALUE;
+        List<BigInteger> read = new ArrayList<BigInteger>();
+        while (iterator.hasNext()) {
+            EventContainer<BigInteger> event = iterator.next();
+            assertTrue(event.getTimestamp() >= lastTimestamp);
+            lastTimestamp = event.getTimestamp();
+            read.add(event.getEvent());
+        }
+        iterator.close();
+        assertEquals(52, read.size());
+        assertTrue(read.containsAll(events));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReopenWithDifferentShardCountFails() throws Exception {
+        store.storeEvent(BigInteger.ONE, 1);
+        store.close();
+
+        //noinspection unchecked
+        store = factory.shardedBy(keyExtractor, SHARDS + 1).buildSharded();
+    }
+}
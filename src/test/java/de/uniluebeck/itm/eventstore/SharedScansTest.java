@@ -0,0 +1,164 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class SharedScansTest {
+
+    private static final int EVENTS = 3000;
+
+    private String basePath;
+
+    private Map<Class<? extends BigInteger>, Function<? extends BigInteger, byte[]>> serializers;
+
+    private Map<Class<? extends BigInteger>, Function<byte[], ? extends BigInteger>> deserializers;
+
+    private EventStore<BigInteger> store;
+
+    @Before
+    public void setUp() throws Exception {
+        serializers = BigIntegerSerialization.serializers();
+        deserializers = BigIntegerSerialization.deserializers();
+        basePath = System.getProperty("java.io.tmpdir") + "/SharedScansChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        //noinspection unchecked
+        store = EventStoreFactory.create().eventStoreWithBasePath(basePath).withSerializers(serializers)
+                .andDeserializers(deserializers).withSharedScans(true).build();
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    private static void assertEvents(CloseableIterator<EventContainer<BigInteger>> iterator, long from, long to) throws IOException {
+        assertEventsUntil(iterator, from, to);
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    private static void assertEventsUntil(CloseableIterator<EventContainer<BigInteger>> iterator, long from, long to) {
+        for (long expected = from; expected <= to; expected++) {
+            assertTrue(iterator.hasNext());
+            EventContainer<BigInteger> event = iterator.next();
+            assertEquals(expected, event.getTimestamp());
+            assertEquals(BigInteger.valueOf(expected), event.getEvent());
+        }
+    }
+
+    @Test
+    public void testOverlappingQueriesShareAScan() throws Exception {
+        for (long i = 0; i < EVENTS; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        SharedScans<BigInteger> scans = new SharedScans<BigInteger>(store, basePath, false);
+        CloseableIterator<EventContainer<BigInteger>> first = scans.query(100, 500);
+        assertEventsUntil(first, 100, 109);
+        CloseableIterator<EventContainer<BigInteger>> second = scans.query(105, 300);
+        assertEquals(1, scans.size());
+        // the second iterator overtakes the first one
+        assertEvents(second, 105, 300);
+        assertEvents(first, 110, 500);
+        assertEquals(0, scans.size());
+    }
+
+    @Test
+    public void testQueriesOutsideOfTheKeptEventsStartNewScans() throws Exception {
+        for (long i = 0; i < EVENTS; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        SharedScans<BigInteger> scans = new SharedScans<BigInteger>(store, basePath, false);
+        CloseableIterator<EventContainer<BigInteger>> first = scans.query(100, EVENTS);
+        CloseableIterator<EventContainer<BigInteger>> before = scans.query(50, 60);
+        assertEquals(2, scans.size());
+        assertEvents(before, 50, 60);
+
+        int read = (SharedScans.KEPT_BATCHES + 1) * SharedScans.BATCH_SIZE;
+        assertEventsUntil(first, 100, 100 + read - 1);
+        CloseableIterator<EventContainer<BigInteger>> dropped = scans.query(101, 200);
+        assertEquals(2, scans.size());
+        CloseableIterator<EventContainer<BigInteger>> kept = scans.query(100 + read - 10, 100 + read + 10);
+        assertEquals(2, scans.size());
+        assertEvents(kept, 100 + read - 10, 100 + read + 10);
+        assertEvents(dropped, 101, 200);
+        first.close();
+        assertEquals(0, scans.size());
+    }
+
+    @Test
+    public void testLaggingIteratorContinuesOnItsOwn() throws Exception {
+        for (long i = 0; i < EVENTS; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        SharedScans<BigInteger> scans = new SharedScans<BigInteger>(store, basePath, false);
+        CloseableIterator<EventContainer<BigInteger>> slow = scans.query(100, EVENTS);
+        assertEventsUntil(slow, 100, 109);
+        CloseableIterator<EventContainer<BigInteger>> fast = scans.query(105, EVENTS);
+        assertEquals(1, scans.size());
+        // the scan drops the batches the slow iterator hasn't read yet
+        assertEvents(fast, 105, EVENTS - 1);
+        assertEvents(slow, 110, EVENTS - 1);
+        assertEquals(0, scans.size());
+
+        slow = scans.query(100, EVENTS);
+        assertEventsUntil(slow, 100, 109);
+        fast = scans.query(105, EVENTS);
+        assertEventsUntil(fast, 105, 105 + (SharedScans.KEPT_BATCHES + 2) * SharedScans.BATCH_SIZE);
+        // the slow iterator detaches when reaching the end of its batch
+        assertEventsUntil(slow, 110, 100 + SharedScans.BATCH_SIZE);
+        fast.close();
+        assertEquals(0, scans.size());
+        assertEvents(slow, 101 + SharedScans.BATCH_SIZE, EVENTS - 1);
+    }
+
+    @Test
+    public void testLeakedIteratorsAreDetached() throws Exception {
+        for (long i = 0; i < EVENTS; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        SharedScans<BigInteger> scans = new SharedScans<BigInteger>(store, basePath, false);
+        //noinspection UnusedAssignment
+        CloseableIterator<EventContainer<BigInteger>> leaked = scans.query(100, 200);
+        assertEventsUntil(leaked, 100, 110);
+        assertEquals(1, scans.size());
+        //noinspection UnusedAssignment
+        leaked = null;
+
+        for (int i = 0; i < 50 && scans.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        assertEquals(0, scans.size());
+    }
+
+    @Test
+    public void testSharedScansFollowTheTail() throws Exception {
+        for (long i = 0; i < 100; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        CloseableIterator<EventContainer<BigInteger>> iterator = store.getEventsBetweenTimestamps(50, 150);
+        assertEventsUntil(iterator, 50, 99);
+        assertFalse(iterator.hasNext());
+        for (long i = 100; i < 200; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        assertEvents(iterator, 100, 150);
+        assertEvents(store.getEventsBetweenTimestamps(0, 199), 0, 199);
+    }
+}
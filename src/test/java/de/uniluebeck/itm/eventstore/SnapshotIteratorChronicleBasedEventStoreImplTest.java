@@ -0,0 +1,89 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class SnapshotIteratorChronicleBasedEventStoreImplTest {
+
+    private String basePath;
+
+    private Map<Class<? extends BigInteger>, Function<? extends BigInteger, byte[]>> serializers;
+
+    private Map<Class<? extends BigInteger>, Function<byte[], ? extends BigInteger>> deserializers;
+
+    private EventStore<BigInteger> store;
+
+    @Before
+    public void setUp() throws Exception {
+        serializers = BigIntegerSerialization.serializers();
+        deserializers = BigIntegerSerialization.deserializers();
+        basePath = System.getProperty("java.io.tmpdir") + "/SnapshotIteratorChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        //noinspection unchecked
+        store = EventStoreFactory.create().eventStoreWithBasePath(basePath).withSerializers(serializers)
+                .andDeserializers(deserializers).havingMonotonicEventOrder(false).withSnapshotIterators(true).build();
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    @Test
+    public void testIteratorStopsAtTailOfCreation() throws Exception {
+        for (long i = 0; i < 100; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        CloseableIterator<EventContainer<BigInteger>> all = store.getAllEvents();
+        CloseableIterator<EventContainer<BigInteger>> limited = store.getEventsBetweenTimestamps(50, 1000);
+        for (long i = 100; i < 200; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+
+        for (long expected = 0; expected < 100; expected++) {
+            assertTrue(all.hasNext());
+            assertEquals(expected, all.next().getTimestamp());
+        }
+        assertFalse(all.hasNext());
+        all.close();
+
+        for (long expected = 50; expected < 100; expected++) {
+            assertTrue(limited.hasNext());
+            assertEquals(expected, limited.next().getTimestamp());
+        }
+        assertFalse(limited.hasNext());
+        limited.close();
+
+        CloseableIterator<EventContainer<BigInteger>> later = store.getEventsFromTimestamp(150);
+        for (long expected = 150; expected < 200; expected++) {
+            assertTrue(later.hasNext());
+            assertEquals(expected, later.next().getTimestamp());
+        }
+        assertFalse(later.hasNext());
+        later.close();
+    }
+
+    @Test
+    public void testIteratorOnEmptyStore() throws Exception {
+        CloseableIterator<EventContainer<BigInteger>> iterator = store.getAllEvents();
+        store.storeEvent(BigInteger.ONE, 1);
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+}
@@ -0,0 +1,177 @@
+package de.uniluebeck.itm.eventstore;
+
+import com.google.common.base.Function;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class StripedEventStoreTest {
+
+    private static final int STRIPES = 4;
+
+    private String basePath;
+
+    private EventStoreFactory factory;
+
+    private EventStore<BigInteger> store;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<Class<? extends BigInteger>, Function<? extends BigInteger, byte[]>> serializers =
+                BigIntegerSerialization.serializers();
+        Map<Class<? extends BigInteger>, Function<byte[], ? extends BigInteger>> deserializers =
+                BigIntegerSerialization.deserializers();
+
+        basePath = System.getProperty("java.io.tmpdir") + "/StripedChronicle";
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            ChronicleTools.deleteOnExit(basePath + ".stripe-" + stripe);
+        }
+        factory = EventStoreFactory.create();
+        //noinspection unchecked
+        factory.eventStoreWithBasePath(basePath).withSerializers(serializers).andDeserializers(deserializers);
+        //noinspection unchecked
+        store = factory.withWriterStripes(STRIPES).build();
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersAreMergedByTimestamp() throws Exception {
+        final int eventsPerWriter = 1000;
+        List<Thread> writers = new ArrayList<Thread>();
+        final List<Exception> failures = new ArrayList<Exception>();
+        for (int writer = 0; writer < STRIPES; writer++) {
+            final int offset = writer;
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < eventsPerWriter; i++) {
+                            long timestamp = i * STRIPES + offset;
+                            store.storeEvent(BigInteger.valueOf(timestamp), timestamp);
+                        }
+                    } catch (Exception e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertTrue(failures.isEmpty());
+        assertEquals(STRIPES * eventsPerWriter, store.size());
+
+        CloseableIterator<EventContainer<BigInteger>> iterator = store.getAllEvents();
+        for (long expected = 0; expected < STRIPES * eventsPerWriter; expected++) {
+            assertTrue(iterator.hasNext());
+            EventContainer<BigInteger> event = iterator.next();
+            assertEquals(expected, event.getTimestamp());
+            assertEquals(BigInteger.valueOf(expected), event.getEvent());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+
+        iterator = store.getEventsBetweenTimestamps(100, 199);
+        for (long expected = 100; expected < 200; expected++) {
+            assertTrue(iterator.hasNext());
+            assertEquals(expected, iterator.next().getTimestamp());
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testRawEventsOfAllStripesAreMerged() throws Exception {
+        for (long i = 0; i < 100; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        List<RawEventContainer<BigInteger>> events = new ArrayList<RawEventContainer<BigInteger>>();
+        CloseableIterator<RawEventContainer<BigInteger>> iterator = store.getRawEventsBetweenTimestamps(10, 89);
+        while (iterator.hasNext()) {
+            events.add(iterator.next());
+        }
+        iterator.close();
+
+        // the events are copies, which stay valid
+        assertEquals(80, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(i + 10, events.get(i).getTimestamp());
+            assertEquals(BigInteger.valueOf(i + 10), events.get(i).getEvent());
+        }
+    }
+
+    @Test
+    public void testBatchesOfAllStripesAreMerged() throws Exception {
+        for (long i = 0; i < 100; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        long[] timestamps = new long[100];
+        byte[] typeIds = new byte[100];
+        int[] offsets = new int[101];
+        ByteBuffer payloads = ByteBuffer.allocateDirect(1024);
+
+        EventBatchReader reader = store.getEventBatchReader(0, 99);
+        assertEquals(100, reader.readBatch(timestamps, typeIds, payloads, offsets, 100));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, timestamps[i]);
+            byte[] serialized = new byte[offsets[i + 1] - offsets[i]];
+            payloads.position(offsets[i]);
+            payloads.get(serialized);
+            assertEquals(BigInteger.valueOf(i), new BigInteger(serialized));
+        }
+        assertEquals(-1, reader.readBatch(timestamps, typeIds, payloads, offsets, 100));
+        reader.close();
+    }
+
+    @Test
+    public void testLiveIteratorPicksUpNewEvents() throws Exception {
+        CloseableIterator<EventContainer<BigInteger>> iterator = store.getAllEvents();
+        assertFalse(iterator.hasNext());
+
+        store.storeEvent(BigInteger.ONE, 1);
+        assertTrue(iterator.hasNext());
+        assertEquals(BigInteger.ONE, iterator.next().getEvent());
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testReopenReadsAllStripes() throws Exception {
+        store.storeEvent(BigInteger.TEN, 10);
+        store.close();
+
+        //noinspection unchecked
+        store = factory.withWriterStripes(1).build();
+        assertEquals(1, store.size());
+        CloseableIterator<EventContainer<BigInteger>> iterator = store.getAllEvents();
+        assertTrue(iterator.hasNext());
+        assertEquals(BigInteger.TEN, iterator.next().getEvent());
+        iterator.close();
+    }
+}
@@ -0,0 +1,212 @@
+package de.uniluebeck.itm.eventstore.reactive;
+
+import com.google.common.base.Function;
+import de.uniluebeck.itm.eventstore.BigIntegerSerialization;
+import de.uniluebeck.itm.eventstore.EventContainer;
+import de.uniluebeck.itm.eventstore.EventStore;
+import de.uniluebeck.itm.eventstore.EventStoreFactory;
+import net.openhft.chronicle.tools.ChronicleTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class EventPublisherTest {
+
+    private String basePath;
+
+    private Map<Class<? extends BigInteger>, Function<? extends BigInteger, byte[]>> serializers;
+
+    private Map<Class<? extends BigInteger>, Function<byte[], ? extends BigInteger>> deserializers;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private EventStore<BigInteger> store;
+
+    @Before
+    public void setUp() throws Exception {
+        serializers = BigIntegerSerialization.serializers();
+        deserializers = BigIntegerSerialization.deserializers();
+        basePath = System.getProperty("java.io.tmpdir") + "/PublishedChronicle";
+        ChronicleTools.deleteOnExit(basePath);
+        //noinspection unchecked
+        store = EventStoreFactory.create().eventStoreWithBasePath(basePath).withSerializers(serializers)
+                .andDeserializers(deserializers).build();
+    }
+
+    @After
+    public void cleanUp() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    @Test
+    public void testReplayHonoursDemand() throws Exception {
+        for (long i = 0; i < 200; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        EventPublisher.replay(store, 10, 149, DIRECT).withBatchSize(16).subscribe(subscriber);
+        assertNotNull(subscriber.subscription);
+        assertTrue(subscriber.events.isEmpty());
+
+        subscriber.subscription.request(5);
+        assertEquals(5, subscriber.events.size());
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(140, subscriber.events.size());
+        for (int i = 0; i < 140; i++) {
+            assertEquals(10 + i, subscriber.events.get(i).getTimestamp());
+        }
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testCancelStopsDelivery() throws Exception {
+        for (long i = 0; i < 10; i++) {
+            store.storeEvent(BigInteger.valueOf(i), i);
+        }
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        EventPublisher.replay(store, 0, 100, DIRECT).subscribe(subscriber);
+        subscriber.subscription.request(3);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(3);
+        assertEquals(3, subscriber.events.size());
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void testInvalidRequest() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        EventPublisher.replay(store, 0, 100, DIRECT).subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testTailDeliversNewEvents() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            store.storeEvent(BigInteger.ZERO, 0);
+            final CountDownLatch received = new CountDownLatch(3);
+            RecordingSubscriber subscriber = new RecordingSubscriber() {
+                @Override
+                public void onNext(EventContainer<BigInteger> item) {
+                    super.onNext(item);
+                    received.countDown();
+                }
+            };
+            EventPublisher.tail(store, 0, scheduler, 5).subscribe(subscriber);
+            subscriber.subscription.request(10);
+
+            store.storeEvent(BigInteger.ONE, 1);
+            store.storeEvent(BigInteger.TEN, 10);
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+            assertFalse(subscriber.completed);
+            subscriber.subscription.cancel();
+        } finally {
+            scheduler.shutdown();
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testRequestsAtTailScheduleSinglePoll() throws Exception {
+        CountingScheduler scheduler = new CountingScheduler();
+        try {
+            store.storeEvent(BigInteger.ZERO, 0);
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            EventPublisher.tail(store, 0, scheduler, TimeUnit.HOURS.toMillis(1)).subscribe(subscriber);
+            for (int i = 0; i < 100; i++) {
+                subscriber.subscription.request(1);
+            }
+            assertEquals(1, subscriber.events.size());
+            assertEquals(1, scheduler.polls.get());
+            subscriber.subscription.cancel();
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the deliveries on the calling thread and counts the scheduled polls
+     */
+    private static class CountingScheduler extends ScheduledThreadPoolExecutor {
+
+        private final AtomicInteger polls = new AtomicInteger();
+
+        private CountingScheduler() {
+            super(1);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            polls.incrementAndGet();
+            return super.schedule(command, delay, unit);
+        }
+    }
+
+    private static class RecordingSubscriber implements Subscriber<EventContainer<BigInteger>> {
+
+        private final List<EventContainer<BigInteger>> events = new ArrayList<EventContainer<BigInteger>>();
+
+        private volatile Subscription subscription;
+
+        private volatile boolean completed = false;
+
+        private volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(EventContainer<BigInteger> item) {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}